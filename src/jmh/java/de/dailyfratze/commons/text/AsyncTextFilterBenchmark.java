@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares platform and virtual threads handling many concurrent requests, each of which loads a document and
+ * renders it with {@link TextFilter#applyAsync(String, String, java.util.concurrent.Executor)}. Loading the document
+ * is simulated by sleeping for {@link #latency} milliseconds. One operation is one wave of {@link #concurrency} requests.
+ * Build and run with
+ * <pre>
+ * ./mvnw -Pbenchmarks package
+ * java -jar target/benchmarks.jar AsyncTextFilterBenchmark
+ * </pre>
+ * Virtual threads need a Java 21 runtime, on older runtimes the {@link Threads#VIRTUAL} executor fails to start.
+ *
+ * @author Michael J. Simons, 2018-08-03
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AsyncTextFilterBenchmark {
+
+	/**
+	 * The executors under test.
+	 */
+	public enum Threads {
+		/**
+		 * A fixed pool of platform threads, like the worker pool of a servlet container.
+		 */
+		PLATFORM_POOL {
+			@Override
+			ExecutorService create() {
+				return Executors.newFixedThreadPool(200);
+			}
+		},
+		/**
+		 * A new or idle platform thread for every task.
+		 */
+		PLATFORM_PER_TASK {
+			@Override
+			ExecutorService create() {
+				return Executors.newCachedThreadPool();
+			}
+		},
+		/**
+		 * A new virtual thread for every task. The factory method is looked up reflectively, so that the
+		 * benchmarks compile against older releases.
+		 */
+		VIRTUAL {
+			@Override
+			ExecutorService create() {
+				try {
+					return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+				} catch (ReflectiveOperationException e) {
+					throw new IllegalStateException("Virtual threads need Java 21 or newer.", e);
+				}
+			}
+		};
+
+		abstract ExecutorService create();
+	}
+
+	@Param({"PLATFORM_POOL", "PLATFORM_PER_TASK", "VIRTUAL"})
+	public Threads threads;
+
+	@Param({"1000", "10000"})
+	public int concurrency;
+
+	/**
+	 * Milliseconds every request waits before rendering its document.
+	 */
+	@Param({"0", "10"})
+	public int latency;
+
+	@Param({"FORUM_POST", "TEXTILE_ARTICLE"})
+	public Corpus corpus;
+
+	private String document;
+
+	private TextileFilter textileFilter;
+
+	private ExecutorService executor;
+
+	@Setup
+	public void prepare() {
+		final List<String> documents = corpus.documents();
+		this.document = documents.get(0);
+		this.textileFilter = new TextileFilter();
+		this.executor = threads.create();
+	}
+
+	@TearDown
+	public void shutdown() throws InterruptedException {
+		this.executor.shutdownNow();
+		this.executor.awaitTermination(1, TimeUnit.MINUTES);
+	}
+
+	@Benchmark
+	public int applyAsync() {
+		final CompletableFuture<?>[] requests = new CompletableFuture<?>[concurrency];
+		for (int i = 0; i < requests.length; ++i) {
+			requests[i] = CompletableFuture
+					.supplyAsync(this::load, this.executor)
+					.thenCompose(loadedDocument -> this.textileFilter.applyAsync(loadedDocument, null, this.executor));
+		}
+		CompletableFuture.allOf(requests).join();
+		return requests.length;
+	}
+
+	private String load() {
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return this.document;
+	}
+
+	public static void main(final String... args) throws RunnerException, CommandLineOptionException {
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(AsyncTextFilterBenchmark.class.getSimpleName())
+				.build()
+		).run();
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Inputs for the benchmarks.
+ *
+ * @author Michael J. Simons, 2018-07-22
+ */
+public enum Corpus {
+	/**
+	 * Short chat lines, one document per line.
+	 */
+	CHAT_LINES {
+		@Override
+		List<String> documents() {
+			return Arrays.asList(read("chat.txt").split("\n"));
+		}
+	},
+	/**
+	 * A long forum post with some html and a few smilies.
+	 */
+	FORUM_POST {
+		@Override
+		List<String> documents() {
+			return List.of(read("forum-post.txt"));
+		}
+	},
+	/**
+	 * An article using most of Textiles features.
+	 */
+	TEXTILE_ARTICLE {
+		@Override
+		List<String> documents() {
+			return List.of(read("textile-article.txt"));
+		}
+	},
+	/**
+	 * Thousands of consecutive smiley codes, some of them almost matching.
+	 */
+	MANY_SMILIES {
+		@Override
+		List<String> documents() {
+			return List.of(IntStream.range(0, 2_000)
+					.mapToObj(i -> i % 3 == 0 ? ":-)" : i % 3 == 1 ? ":darthvader:" : ":darthvade")
+					.collect(Collectors.joining(" ")));
+		}
+	},
+	/**
+	 * Html tags nested a thousand levels deep.
+	 */
+	DEEP_NESTING {
+		@Override
+		List<String> documents() {
+			final StringBuilder document = new StringBuilder();
+			for (int i = 0; i < 1_000; ++i) {
+				document.append(i % 2 == 0 ? "<p>" : "<strong>").append("level ").append(i).append(' ');
+			}
+			for (int i = 999; i >= 0; --i) {
+				document.append(i % 2 == 0 ? "</p>" : "</strong>");
+			}
+			return List.of(document.toString());
+		}
+	};
+
+	abstract List<String> documents();
+
+	private static String read(final String name) {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(Corpus.class.getResourceAsStream("/corpora/" + name), StandardCharsets.UTF_8))) {
+			return reader.lines().collect(Collectors.joining("\n"));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
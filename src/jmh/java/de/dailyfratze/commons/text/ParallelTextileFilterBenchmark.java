@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares rendering one large Textile document with a {@link TextileFilter} and a {@link ParallelTextileFilter}.
+ * The document repeats the {@link Corpus#TEXTILE_ARTICLE} until it has the given size, so that the chunks of the
+ * parallel filter have to be rendered after the headings of all previous chunks. Build and run with
+ * <pre>
+ * ./mvnw -Pbenchmarks package
+ * java -jar target/benchmarks.jar ParallelTextileFilterBenchmark -prof gc
+ * </pre>
+ *
+ * @author Michael J. Simons, 2018-08-07
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelTextileFilterBenchmark {
+
+	/**
+	 * The filters under test.
+	 */
+	public enum Rendering {
+		SEQUENTIAL,
+		PARALLEL
+	}
+
+	@Param({"1", "5"})
+	public int megabytes;
+
+	@Param
+	public Rendering rendering;
+
+	/**
+	 * {@literal 0} uses the common pool.
+	 */
+	@Param({"0"})
+	public int parallelism;
+
+	private String document;
+
+	private ForkJoinPool pool;
+
+	private TextFilter textFilter;
+
+	@Setup
+	public void prepare() {
+		final String article = Corpus.TEXTILE_ARTICLE.documents().get(0);
+		final StringBuilder document = new StringBuilder(megabytes * 1024 * 1024 + article.length());
+		while (document.length() < megabytes * 1024 * 1024) {
+			document.append(article).append("\n\n");
+		}
+		this.document = document.toString();
+
+		this.pool = parallelism == 0 ? ForkJoinPool.commonPool() : new ForkJoinPool(parallelism);
+		final TextileFilter textileFilter = new TextileFilter();
+		this.textFilter = rendering == Rendering.SEQUENTIAL ? textileFilter
+				: ParallelTextileFilter.builder().textileFilter(textileFilter).pool(this.pool).build();
+	}
+
+	@TearDown
+	public void shutdownPool() {
+		if (this.pool != ForkJoinPool.commonPool()) {
+			this.pool.shutdown();
+		}
+	}
+
+	@Benchmark
+	public String apply() {
+		return this.textFilter.apply(this.document, null);
+	}
+
+	public static void main(final String... args) throws RunnerException, CommandLineOptionException {
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(ParallelTextileFilterBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build()
+		).run();
+	}
+}
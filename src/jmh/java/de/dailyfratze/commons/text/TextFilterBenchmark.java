@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures throughput, latency percentiles and - through the gc profiler - the allocation
+ * rate of every filter and the common chains on all {@link Corpus corpora}. Build and run with
+ * <pre>
+ * ./mvnw -Pbenchmarks package
+ * java -jar target/benchmarks.jar TextFilterBenchmark -prof gc
+ * </pre>
+ * or run {@link #main(String...)}, which adds the gc profiler by itself.
+ *
+ * @author Michael J. Simons, 2018-07-22
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TextFilterBenchmark {
+
+	/**
+	 * The filters and chains under test.
+	 */
+	public enum Filter {
+		HTML(() -> new HtmlFilter("a", "p", "strong", "em", "del")),
+		HTML_CLEANER(() -> new HtmlFilter(HtmlFilter.Engine.CLEANER, "a", "p", "strong", "em", "del")),
+		HTML_STREAMING(() -> new HtmlFilter(HtmlFilter.Engine.STREAMING, "a", "p", "strong", "em", "del")),
+		TEXTILE(TextileFilter::new),
+		SMILEY(() -> new SmileyFilter("standard2.0", TextFilterBenchmark.class.getResourceAsStream("/smilies/standard2.0.pak"))),
+		AUTO_BR(() -> TextFilter.AUTO_BR),
+		HTML_SMILEY_AUTO_BR(() -> chain(HTML.create(), SMILEY.create(), AUTO_BR.create())),
+		TEXTILE_HTML_SMILEY(() -> chain(TEXTILE.create(), HTML.create(), SMILEY.create())),
+		HTML_SMILEY_AUTO_BR_PIPELINE(() -> TextFilter.pipeline().then(HTML.create()).then(SMILEY.create()).then(AUTO_BR.create()).build()),
+		TEXTILE_HTML_SMILEY_PIPELINE(() -> TextFilter.pipeline().then(TEXTILE.create()).then(HTML.create()).then(SMILEY.create()).build());
+
+		private final Supplier<TextFilter> factory;
+
+		Filter(final Supplier<TextFilter> factory) {
+			this.factory = factory;
+		}
+
+		TextFilter create() {
+			return this.factory.get();
+		}
+
+		private static TextFilter chain(final TextFilter... filters) {
+			return (input, baseUrl) -> {
+				String rv = input;
+				for (TextFilter filter : filters) {
+					rv = filter.apply(rv, baseUrl);
+				}
+				return rv;
+			};
+		}
+	}
+
+	@Param
+	public Corpus corpus;
+
+	@Param
+	public Filter filter;
+
+	private List<String> documents;
+
+	private TextFilter textFilter;
+
+	private int next;
+
+	@Setup
+	public void prepare() {
+		this.documents = corpus.documents();
+		this.textFilter = filter.create();
+	}
+
+	@Benchmark
+	public String apply() {
+		final String document = this.documents.get(this.next);
+		this.next = (this.next + 1) % this.documents.size();
+		return this.textFilter.apply(document, "http://localhost:8080");
+	}
+
+	public static void main(final String... args) throws RunnerException, CommandLineOptionException {
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(TextFilterBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build()
+		).run();
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares a {@link TextileFilter} that creates a new renderer for every call with one that reuses pooled
+ * renderers. All threads share one filter, as they would in an application. Build and run with
+ * <pre>
+ * ./mvnw -Pbenchmarks package
+ * java -jar target/benchmarks.jar TextileFilterBenchmark -prof gc
+ * </pre>
+ *
+ * @author Michael J. Simons, 2018-07-24
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class TextileFilterBenchmark {
+
+	@Param({"CHAT_LINES", "FORUM_POST", "TEXTILE_ARTICLE"})
+	public Corpus corpus;
+
+	/**
+	 * {@literal 0} disables reuse.
+	 */
+	@Param({"0", "4"})
+	public int poolSize;
+
+	private List<String> documents;
+
+	private TextileFilter textileFilter;
+
+	@Setup
+	public void prepare() {
+		this.documents = corpus.documents();
+		this.textileFilter = new TextileFilter(poolSize);
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int next;
+	}
+
+	@Benchmark
+	public String apply(final Cursor cursor) {
+		final String document = this.documents.get(cursor.next);
+		cursor.next = (cursor.next + 1) % this.documents.size();
+		return this.textileFilter.apply(document, null);
+	}
+
+	public static void main(final String... args) throws RunnerException, CommandLineOptionException {
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(TextileFilterBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build()
+		).run();
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * The implementation of {@link TextFilter#AUTO_BR}. Replaces {@code \r\n} and {@code \n} with {@code <br />}
+ * tags, a {@code \r} on its own is kept. The text between line breaks is copied in runs, inside a pipeline the
+ * tags are spliced into the input without copying it at all.
+ *
+ * @author Michael J. Simons, 2018-07-30
+ */
+final class AutoBrFilter implements TextFilter, TextFilterStage {
+
+	private static final String BR = "<br />";
+
+	AutoBrFilter() {
+	}
+
+	@Override
+	public String apply(final String input, final String baseUrl) {
+		if (input == null || TextFilterSupport.isBlank(input)) {
+			return input;
+		}
+
+		int lineBreaks = 0;
+		for (int i = input.indexOf('\n'); i >= 0; i = input.indexOf('\n', i + 1)) {
+			++lineBreaks;
+		}
+		if (lineBreaks == 0) {
+			return input;
+		}
+		return replaceLineBreaks(input, new StringBuilder(input.length() + lineBreaks * (BR.length() - 1))).toString();
+	}
+
+	@Override
+	public CharSequence applyStage(final CharSequence input, final String baseUrl, final StringBuilder buffer) {
+		final SplicedText rv = new SplicedText(input);
+		int start = 0;
+		for (int i = indexOfLineFeed(input, 0); i >= 0; i = indexOfLineFeed(input, i + 1)) {
+			rv.splice(i > start && input.charAt(i - 1) == '\r' ? i - 1 : i, i + 1, BR);
+			start = i + 1;
+		}
+		return rv.isEmpty() ? input : rv;
+	}
+
+	@Override
+	public boolean scansInput() {
+		return true;
+	}
+
+	/**
+	 * Replaces all line breaks from {@code in} and writes the result to {@code out}. The input is
+	 * read in chunks and never held completely in memory.
+	 *
+	 * @param in      The input
+	 * @param out     Receives the input with tags instead of line breaks
+	 * @param baseUrl Not used
+	 * @throws IOException When reading or writing fails
+	 */
+	@Override
+	public void apply(final Reader in, final Writer out, final String baseUrl) throws IOException {
+		final Reader input = TextFilterSupport.copyIfBlank(in, out);
+		if (input == null) {
+			return;
+		}
+
+		final char[] buffer = new char[8192];
+		// A \r at the end of the previous chunk, which has not been written yet
+		boolean carriageReturn = false;
+		int read;
+		while ((read = input.read(buffer)) != -1) {
+			if (carriageReturn && read > 0) {
+				if (buffer[0] != '\n') {
+					out.write('\r');
+				}
+				carriageReturn = false;
+			}
+
+			int start = 0;
+			for (int i = 0; i < read; ++i) {
+				if (buffer[i] == '\n') {
+					final int end = i > start && buffer[i - 1] == '\r' ? i - 1 : i;
+					out.write(buffer, start, end - start);
+					out.write(BR);
+					start = i + 1;
+				}
+			}
+			int end = read;
+			if (end > start && buffer[end - 1] == '\r') {
+				carriageReturn = true;
+				--end;
+			}
+			out.write(buffer, start, end - start);
+		}
+		if (carriageReturn) {
+			out.write('\r');
+		}
+		out.flush();
+	}
+
+	/**
+	 * @param input The input
+	 * @param out   Receives the output if there are any line breaks
+	 * @return {@code input} itself if there are no line breaks, otherwise {@code out}
+	 */
+	private static CharSequence replaceLineBreaks(final CharSequence input, final StringBuilder out) {
+		int start = 0;
+		for (int i = indexOfLineFeed(input, 0); i >= 0; i = indexOfLineFeed(input, i + 1)) {
+			final int end = i > start && input.charAt(i - 1) == '\r' ? i - 1 : i;
+			out.append(input, start, end).append(BR);
+			start = i + 1;
+		}
+		return start == 0 ? input : out.append(input, start, input.length());
+	}
+
+	private static int indexOfLineFeed(final CharSequence input, final int from) {
+		if (input instanceof String) {
+			return ((String) input).indexOf('\n', from);
+		}
+		for (int i = from, length = input.length(); i < length; ++i) {
+			if (input.charAt(i) == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
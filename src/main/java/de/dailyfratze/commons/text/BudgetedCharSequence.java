@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import static java.lang.String.format;
+
+/**
+ * A view on a text that charges every character examined to a budget. Filters that scan their input get this
+ * view, so that they are checked even inside a regular expression.
+ *
+ * @author Michael J. Simons, 2018-08-07
+ */
+final class BudgetedCharSequence implements CharSequence {
+
+	private final CharSequence content;
+
+	private final int start;
+
+	private final int end;
+
+	private final TextFilterBudget budget;
+
+	BudgetedCharSequence(final CharSequence content, final TextFilterBudget budget) {
+		this(content, 0, content.length(), budget);
+	}
+
+	private BudgetedCharSequence(final CharSequence content, final int start, final int end, final TextFilterBudget budget) {
+		this.content = content;
+		this.start = start;
+		this.end = end;
+		this.budget = budget;
+	}
+
+	/**
+	 * @return The text this is a view on
+	 */
+	CharSequence content() {
+		return this.content;
+	}
+
+	@Override
+	public int length() {
+		return this.end - this.start;
+	}
+
+	@Override
+	public char charAt(final int index) {
+		this.budget.step(1);
+		return this.content.charAt(this.start + index);
+	}
+
+	@Override
+	public CharSequence subSequence(final int from, final int to) {
+		if (from < 0 || from > to || to > length()) {
+			throw new IndexOutOfBoundsException(format("begin %d, end %d, length %d", from, to, length()));
+		}
+		return new BudgetedCharSequence(this.content, this.start + from, this.start + to, this.budget);
+	}
+
+	@Override
+	public String toString() {
+		this.budget.step(length());
+		return this.content.subSequence(this.start, this.end).toString();
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import static java.lang.String.format;
+
+import java.util.Objects;
+
+/**
+ * Caches the output of another filter. Entries are keyed by input and base url. Inputs longer
+ * than a configurable threshold are keyed by a SHA-256 hash of their content instead of the content
+ * itself. The cache is bounded by the number of entries and by their weight, which is the number
+ * of characters held by an entry.
+ * <br>
+ * The delegate must be a pure function of input and base url. Concurrent misses for the same
+ * input may call the delegate more than once.
+ *
+ * @author Michael J. Simons, 2018-07-24
+ */
+public final class CachingTextFilter implements TextFilter {
+
+	/**
+	 * Configures a {@link CachingTextFilter}.
+	 */
+	public static final class Builder {
+
+		private final TextFilter delegate;
+
+		private int maximumSize = 10_000;
+
+		private long maximumWeight = 32 * 1024 * 1024;
+
+		private int hashThreshold = 4 * 1024;
+
+		private Builder(final TextFilter delegate) {
+			this.delegate = Objects.requireNonNull(delegate, "Delegate must not be null");
+		}
+
+		/**
+		 * @param maximumSize Maximum number of cached entries, defaults to 10.000
+		 * @return This builder
+		 */
+		public Builder maximumSize(final int maximumSize) {
+			this.maximumSize = maximumSize;
+			return this;
+		}
+
+		/**
+		 * @param maximumWeight Maximum number of characters held by the cache, defaults to 32M
+		 * @return This builder
+		 */
+		public Builder maximumWeight(final long maximumWeight) {
+			this.maximumWeight = maximumWeight;
+			return this;
+		}
+
+		/**
+		 * @param hashThreshold Inputs of at least this length are keyed by a hash of their content, defaults to 4096
+		 * @return This builder
+		 */
+		public Builder hashThreshold(final int hashThreshold) {
+			this.hashThreshold = hashThreshold;
+			return this;
+		}
+
+		/**
+		 * @return A new caching filter
+		 */
+		public CachingTextFilter build() {
+			return new CachingTextFilter(this);
+		}
+	}
+
+	/**
+	 * A snapshot of the statistics of a {@link CachingTextFilter}.
+	 */
+	public static final class Statistics {
+
+		private final long hitCount;
+
+		private final long missCount;
+
+		private final long evictionCount;
+
+		private final long size;
+
+		private final long weight;
+
+		Statistics(final long hitCount, final long missCount, final long evictionCount, final long size, final long weight) {
+			this.hitCount = hitCount;
+			this.missCount = missCount;
+			this.evictionCount = evictionCount;
+			this.size = size;
+			this.weight = weight;
+		}
+
+		public long getHitCount() {
+			return hitCount;
+		}
+
+		public long getMissCount() {
+			return missCount;
+		}
+
+		public long getEvictionCount() {
+			return evictionCount;
+		}
+
+		/**
+		 * @return Number of entries in the cache
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * @return Number of characters held by the cache
+		 */
+		public long getWeight() {
+			return weight;
+		}
+
+		/**
+		 * @return Ratio of hits to all requests or 1.0 if there hasn't been any request
+		 */
+		public double getHitRate() {
+			final long requestCount = hitCount + missCount;
+			return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+		}
+
+		@Override
+		public String toString() {
+			return format("Statistics{hitCount=%d, missCount=%d, evictionCount=%d, size=%d, weight=%d}",
+					hitCount, missCount, evictionCount, size, weight);
+		}
+	}
+
+	/**
+	 * Key of a cache entry. Contains either the input or a hash of it.
+	 */
+	private static final class Key {
+
+		private final Object content;
+
+		private final int contentWeight;
+
+		private final String baseUrl;
+
+		Key(final String input, final String baseUrl, final int hashThreshold) {
+			if (input.length() < hashThreshold) {
+				this.content = input;
+				this.contentWeight = input.length();
+			} else {
+				this.content = ContentHash.of(input);
+				this.contentWeight = ContentHash.SIZE;
+			}
+			this.baseUrl = baseUrl;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) o;
+			return this.content.equals(other.content) && Objects.equals(this.baseUrl, other.baseUrl);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * this.content.hashCode() + Objects.hashCode(this.baseUrl);
+		}
+	}
+
+	private final TextFilter delegate;
+
+	private final int hashThreshold;
+
+	private final SegmentedLruCache<Key, String> cache;
+
+	/**
+	 * Starts the configuration of a new caching filter.
+	 *
+	 * @param delegate The filter whose output should be cached
+	 * @return A builder for a new caching filter
+	 */
+	public static Builder builder(final TextFilter delegate) {
+		return new Builder(delegate);
+	}
+
+	private CachingTextFilter(final Builder builder) {
+		this.delegate = builder.delegate;
+		this.hashThreshold = builder.hashThreshold;
+		this.cache = new SegmentedLruCache<>(builder.maximumSize, builder.maximumWeight,
+				(key, value) -> key.contentWeight + (key.baseUrl == null ? 0 : key.baseUrl.length()) + value.length());
+	}
+
+	@Override
+	public String apply(final String input, final String baseUrl) {
+		if (input == null || input.isEmpty()) {
+			return this.delegate.apply(input, baseUrl);
+		}
+
+		final Key key = new Key(input, baseUrl, this.hashThreshold);
+		String rv = this.cache.get(key);
+		if (rv == null) {
+			rv = this.delegate.apply(input, baseUrl);
+			if (rv != null) {
+				this.cache.put(key, rv);
+			}
+		}
+		return rv;
+	}
+
+	/**
+	 * Removes all entries from the cache. Statistics are not reset.
+	 */
+	public void invalidateAll() {
+		this.cache.clear();
+	}
+
+	/**
+	 * @return A snapshot of the current statistics
+	 */
+	public Statistics getStatistics() {
+		return new Statistics(this.cache.getHitCount(), this.cache.getMissCount(), this.cache.getEvictionCount(),
+				this.cache.getSize(), this.cache.getWeight());
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of characters for a cheap pre-scan of the input of a filter. Filters use it to find out whether
+ * their input contains any character that could start a change at all. ASCII characters are looked up in two
+ * bit masks, the few other characters in a sorted array.
+ *
+ * @author Michael J. Simons, 2018-08-05
+ */
+final class CharacterMask {
+
+	/**
+	 * Characters {@code 0} to {@code 63}.
+	 */
+	private final long low;
+
+	/**
+	 * Characters {@code 64} to {@code 127}.
+	 */
+	private final long high;
+
+	/**
+	 * All characters that aren't ASCII, sorted.
+	 */
+	private final char[] others;
+
+	/**
+	 * @param characters The characters of the new mask
+	 * @return A mask containing all {@code characters}
+	 */
+	static CharacterMask of(final CharSequence characters) {
+		long low = 0L;
+		long high = 0L;
+		final StringBuilder others = new StringBuilder();
+		for (int i = 0; i < characters.length(); ++i) {
+			final char c = characters.charAt(i);
+			if (c < 64) {
+				low |= 1L << c;
+			} else if (c < 128) {
+				high |= 1L << c;
+			} else {
+				others.append(c);
+			}
+		}
+		final char[] sortedOthers = others.toString().toCharArray();
+		Arrays.sort(sortedOthers);
+		return new CharacterMask(low, high, sortedOthers);
+	}
+
+	private CharacterMask(final long low, final long high, final char[] others) {
+		this.low = low;
+		this.high = high;
+		this.others = others;
+	}
+
+	/**
+	 * @param c The character to look up
+	 * @return True, if {@code c} is part of this mask
+	 */
+	boolean contains(final char c) {
+		if (c < 64) {
+			return (this.low & 1L << c) != 0;
+		} else if (c < 128) {
+			return (this.high & 1L << c) != 0;
+		}
+		return this.others.length != 0 && Arrays.binarySearch(this.others, c) >= 0;
+	}
+
+	/**
+	 * @param input The input to scan
+	 * @return True, if at least one character of {@code input} is part of this mask
+	 */
+	boolean matchesAny(final CharSequence input) {
+		return indexIn(input, 0) >= 0;
+	}
+
+	/**
+	 * @param input The input to scan
+	 * @param from  Index of the first character to look at
+	 * @return The index of the first character from {@code from} on that is part of this mask or {@code -1}
+	 */
+	int indexIn(final CharSequence input, final int from) {
+		final long lowMask = this.low;
+		final long highMask = this.high;
+		final boolean hasOthers = this.others.length != 0;
+		for (int i = from, length = input.length(); i < length; ++i) {
+			final char c = input.charAt(i);
+			final boolean match;
+			if (c < 64) {
+				match = (lowMask & 1L << c) != 0;
+			} else if (c < 128) {
+				match = (highMask & 1L << c) != 0;
+			} else {
+				match = hasOthers && Arrays.binarySearch(this.others, c) >= 0;
+			}
+			if (match) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jsoup.parser.Tag;
+
+/**
+ * An immutable and thread safe form of the allowed tags, attributes and protocols of a {@link HtmlFilter}.
+ * It answers the same questions as {@link org.jsoup.safety.Whitelist} does for a {@link org.jsoup.safety.Cleaner},
+ * without creating any objects.
+ *
+ * @author Michael J. Simons, 2018-07-25
+ */
+final class CompiledWhitelist {
+
+	/**
+	 * An allowed tag.
+	 */
+	static final class AllowedTag {
+
+		private final boolean empty;
+
+		/**
+		 * Maps allowed attributes to their allowed protocols, each suffixed with a colon.
+		 * An empty array allows any value.
+		 */
+		private final Map<String, String[]> attributes;
+
+		AllowedTag(final String name, final Map<String, String[]> attributes) {
+			this.empty = Tag.isKnownTag(name) && Tag.valueOf(name).isEmpty();
+			this.attributes = attributes;
+		}
+
+		/**
+		 * @return True if this tag is a known void element like {@code br} or {@code img} that is serialized without end tag
+		 */
+		boolean isEmpty() {
+			return this.empty;
+		}
+
+		/**
+		 * @param attribute The lower case name of an attribute
+		 * @return The allowed protocols of the attribute, an empty array if any value is allowed
+		 * or {@literal null} if the attribute is not allowed at all
+		 */
+		String[] getProtocols(final String attribute) {
+			return this.attributes.get(attribute);
+		}
+	}
+
+	private final Map<String, AllowedTag> allowedTags;
+
+	/**
+	 * @param attributes Maps every allowed tag to its allowed attributes and those to their allowed protocols
+	 */
+	CompiledWhitelist(final Map<String, Map<String, String[]>> attributes) {
+		final Map<String, AllowedTag> compiledTags = new HashMap<>();
+		attributes.forEach((tag, allowedAttributes) -> {
+			final Map<String, String[]> compiledAttributes = new HashMap<>();
+			allowedAttributes.forEach((attribute, protocols) -> compiledAttributes.put(attribute,
+					Arrays.stream(protocols).map(protocol -> protocol + ":").toArray(String[]::new)));
+			compiledTags.put(tag, new AllowedTag(tag, Collections.unmodifiableMap(compiledAttributes)));
+		});
+		this.allowedTags = Collections.unmodifiableMap(compiledTags);
+	}
+
+	/**
+	 * @param tag The lower case name of a tag
+	 * @return The allowed tag or {@literal null} if the tag is not allowed
+	 */
+	AllowedTag getAllowedTag(final String tag) {
+		return this.allowedTags.get(tag);
+	}
+
+	/**
+	 * Checks {@code value} like {@link org.jsoup.safety.Whitelist} does: The protocols are compared case insensitive.
+	 *
+	 * @param value     The absolute value of an url attribute
+	 * @param protocols Allowed protocols, each suffixed with a colon
+	 * @return True if {@code value} uses one of the {@code protocols}
+	 */
+	static boolean hasAllowedProtocol(final String value, final String[] protocols) {
+		final String lowerCaseValue = value.toLowerCase();
+		for (String protocol : protocols) {
+			if (lowerCaseValue.startsWith(protocol)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * A SHA-256 fingerprint of some text, used instead of the text itself as key for large content.
+ *
+ * @author Michael J. Simons, 2018-07-24
+ */
+final class ContentHash {
+
+	/**
+	 * Size of a hash in bytes, for estimating memory usage.
+	 */
+	static final int SIZE = 32;
+
+	private final byte[] digest;
+
+	private final int hashCode;
+
+	private ContentHash(final byte[] digest) {
+		this.digest = digest;
+		this.hashCode = Arrays.hashCode(digest);
+	}
+
+	/**
+	 * Computes a hash from text appended piece by piece. A hasher can be copied, so that several hashes sharing a
+	 * long prefix only hash the prefix once.
+	 */
+	static final class Hasher {
+
+		private final MessageDigest messageDigest;
+
+		private final byte[] chunk = new byte[2048];
+
+		private Hasher(final MessageDigest messageDigest) {
+			this.messageDigest = messageDigest;
+		}
+
+		/**
+		 * @param content The text to append
+		 * @return This hasher
+		 */
+		Hasher append(final CharSequence content) {
+			// Hash the UTF-16 code units in chunks instead of encoding the whole content at once
+			int position = 0;
+			for (int i = 0, length = content.length(); i < length; ++i) {
+				final char c = content.charAt(i);
+				this.chunk[position++] = (byte) (c >>> 8);
+				this.chunk[position++] = (byte) c;
+				if (position == this.chunk.length) {
+					this.messageDigest.update(this.chunk, 0, position);
+					position = 0;
+				}
+			}
+			this.messageDigest.update(this.chunk, 0, position);
+			return this;
+		}
+
+		/**
+		 * @return A new hasher that has been appended the same text as this one
+		 */
+		Hasher copy() {
+			try {
+				return new Hasher((MessageDigest) this.messageDigest.clone());
+			} catch (CloneNotSupportedException e) {
+				// The digests of the default providers support cloning
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/**
+		 * Computes the hash of the text appended so far. The hasher must not be used afterwards.
+		 *
+		 * @return A new hash
+		 */
+		ContentHash hash() {
+			return new ContentHash(this.messageDigest.digest());
+		}
+	}
+
+	/**
+	 * @return A new hasher without any text
+	 */
+	static Hasher hasher() {
+		try {
+			return new Hasher(MessageDigest.getInstance("SHA-256"));
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Computes the hash of a text.
+	 *
+	 * @param content The text to hash
+	 * @return A new hash
+	 */
+	static ContentHash of(final CharSequence content) {
+		return hasher().append(content).hash();
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		return this == o || (o instanceof ContentHash && Arrays.equals(this.digest, ((ContentHash) o).digest));
+	}
+
+	@Override
+	public int hashCode() {
+		return this.hashCode;
+	}
+}
@@ -12,20 +12,28 @@ package de.dailyfratze.commons.text;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Stack;
 
 import org.eclipse.mylyn.internal.wikitext.core.util.XML11Char;
 import org.eclipse.mylyn.wikitext.core.util.XmlStreamWriter;
 
 /**
  * A default implementation of {@link XmlStreamWriter} that creates XML
- * character output.
+ * character output. The writer is meant to be confined to one thread and
+ * therefore not synchronized. It buffers its output and writes it to the
+ * target in large chunks, on {@link #flush()} and on {@link #close()}.
+ * The target is either a {@link Writer} or an {@link OutputStream}, which
+ * receives the chunks encoded as UTF-8 without creating strings first.
+ * Errors of the target are rethrown as {@link UncheckedIOException}.
+ * An optional {@link TextFilterBudget} is charged with the characters
+ * written and checked before every element and text, regardless of the
+ * buffer. The output written so far is checked against its maximum
+ * expansion at the same time.
  *
  * @author David Green
  * @author Michael J. Simons
@@ -33,7 +41,26 @@ import org.eclipse.mylyn.wikitext.core.util.XmlStreamWriter;
  */
 final class DefaultUTF84bAwareXmlStreamWriter extends XmlStreamWriter {
 
-	private PrintWriter printWriter;
+	/**
+	 * Size of the internal buffer. Characters are written to the target in chunks of this size.
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	private final char[] buffer = new char[BUFFER_SIZE];
+
+	private int position;
+
+	private Writer out;
+
+	/**
+	 * Encodes the output when writing bytes, kept for reuse when writing characters again.
+	 */
+	private Utf8Encoder encoder;
+
+	/**
+	 * True if the output goes to the {@link #encoder} instead of {@link #out}.
+	 */
+	private boolean encoding;
 
 	private final Map<String, String> prefixToUri = new HashMap<>();
 
@@ -43,39 +70,124 @@ final class DefaultUTF84bAwareXmlStreamWriter extends XmlStreamWriter {
 
 	private boolean inStartElement = false;
 
-	private final Stack<String> elements = new Stack<>();
+	private final Deque<String> elements = new ArrayDeque<>();
 
 	private char xmlHederQuoteChar = '\'';
 
-	DefaultUTF84bAwareXmlStreamWriter(final OutputStream out) throws UnsupportedEncodingException {
-		this.printWriter = createUtf8PrintWriter(out);
+	/**
+	 * The budget of the current document, {@literal null} if unlimited.
+	 */
+	private TextFilterBudget budget;
+
+	/**
+	 * Number of characters of the current document that left the buffer.
+	 */
+	private long written;
+
+	/**
+	 * Number of characters of the current document that have been charged to the budget.
+	 */
+	private long charged;
+
+	/**
+	 * Creates a writer without target, {@link #reset(Writer)} must be called before writing.
+	 */
+	DefaultUTF84bAwareXmlStreamWriter() {
+	}
+
+	DefaultUTF84bAwareXmlStreamWriter(final OutputStream out) {
+		reset(out);
 	}
 
 	DefaultUTF84bAwareXmlStreamWriter(final Writer out) {
-		this.printWriter = new PrintWriter(out);
+		this.out = out;
 	}
 
 	DefaultUTF84bAwareXmlStreamWriter(final Writer out, final char xmlHeaderQuoteChar) {
-		this.printWriter = new PrintWriter(out);
+		this.out = out;
 		this.xmlHederQuoteChar = xmlHeaderQuoteChar;
 	}
 
-	protected PrintWriter createUtf8PrintWriter(final OutputStream out) throws UnsupportedEncodingException {
-		return new java.io.PrintWriter(new OutputStreamWriter(out, "UTF8")); //$NON-NLS-1$
+	/**
+	 * Prepares this writer for a new document written to {@code out}. All namespace prefixes and
+	 * open elements of a previous document are discarded, the xml header quote char is kept.
+	 *
+	 * @param out The target of the next document
+	 */
+	void reset(final Writer out) {
+		this.out = out;
+		this.encoding = false;
+		clear();
+	}
+
+	/**
+	 * Prepares this writer for a new document written to {@code out} encoded as UTF-8.
+	 *
+	 * @param out The target of the next document
+	 * @see #reset(Writer)
+	 */
+	void reset(final OutputStream out) {
+		if (this.encoder == null) {
+			this.encoder = new Utf8Encoder();
+		}
+		this.encoder.reset(out);
+		this.out = null;
+		this.encoding = true;
+		clear();
+	}
+
+	/**
+	 * @param budget The budget of the current document, {@literal null} if unlimited
+	 */
+	void setBudget(final TextFilterBudget budget) {
+		this.budget = budget;
+	}
+
+	private void clear() {
+		this.position = 0;
+		this.written = 0;
+		this.charged = 0;
+		this.prefixToUri.clear();
+		this.uriToPrefix.clear();
+		this.inEmptyElement = false;
+		this.inStartElement = false;
+		this.elements.clear();
 	}
 
 	@Override
 	public void close() {
-		if (printWriter != null) {
+		if (out != null || encoding) {
 			closeElement();
-			flush();
+			flushBuffer();
+			try {
+				if (encoding) {
+					encoder.finish();
+				} else {
+					out.flush();
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		out = null;
+		if (encoding) {
+			encoder.reset(null);
+			encoding = false;
 		}
-		printWriter = null;
 	}
 
 	@Override
 	public void flush() {
-		printWriter.flush();
+		flushBuffer();
+		try {
+			if (encoding) {
+				encoder.flush();
+			} else {
+				out.flush();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 	}
 
 	@Override
@@ -100,66 +212,66 @@ final class DefaultUTF84bAwareXmlStreamWriter extends XmlStreamWriter {
 
 	@Override
 	public void writeAttribute(final String localName, final String value) {
-		printWriter.write(' ');
-		printWriter.write(localName);
-		printWriter.write("=\""); //$NON-NLS-1$
+		write(' ');
+		write(localName);
+		write("=\""); //$NON-NLS-1$
 		if (value != null) {
 			attrEncode(value);
 		}
-		printWriter.write("\""); //$NON-NLS-1$
+		write("\""); //$NON-NLS-1$
 	}
 
 	@Override
 	public void writeAttribute(final String namespaceURI, final String localName, final String value) {
-		printWriter.write(' ');
+		write(' ');
 		String prefix = uriToPrefix.get(namespaceURI);
 		if (prefix != null && prefix.length() > 0) {
-			printWriter.write(prefix);
-			printWriter.write(':');
+			write(prefix);
+			write(':');
 		}
-		printWriter.write(localName);
-		printWriter.write("=\""); //$NON-NLS-1$
+		write(localName);
+		write("=\""); //$NON-NLS-1$
 		if (value != null) {
 			attrEncode(value);
 		}
-		printWriter.write("\""); //$NON-NLS-1$
+		write("\""); //$NON-NLS-1$
 	}
 
 	@Override
 	public void writeAttribute(final String prefix, final String namespaceURI, final String localName, final String value) {
-		printWriter.write(' ');
+		write(' ');
 		if (prefix != null && prefix.length() > 0) {
-			printWriter.write(prefix);
-			printWriter.write(':');
+			write(prefix);
+			write(':');
 		}
-		printWriter.write(localName);
-		printWriter.write("=\""); //$NON-NLS-1$
+		write(localName);
+		write("=\""); //$NON-NLS-1$
 		if (value != null) {
 			attrEncode(value);
 		}
-		printWriter.write("\""); //$NON-NLS-1$
+		write("\""); //$NON-NLS-1$
 	}
 
 	private void attrEncode(final String value) {
 		if (value == null) {
 			return;
 		}
-		printEscaped(printWriter, value, true);
+		printEscaped(value, true);
 	}
 
 	private void encode(final String text) {
 		if (text == null) {
 			return;
 		}
-		printEscaped(printWriter, text, false);
+		printEscaped(text, false);
 	}
 
 	@Override
 	public void writeCData(final String data) {
 		closeElement();
-		printWriter.write("<![CDATA["); //$NON-NLS-1$
-		printWriter.write(data);
-		printWriter.write("]]>"); //$NON-NLS-1$
+		write("<![CDATA["); //$NON-NLS-1$
+		write(data);
+		write("]]>"); //$NON-NLS-1$
 	}
 
 	@Override
@@ -170,7 +282,7 @@ final class DefaultUTF84bAwareXmlStreamWriter extends XmlStreamWriter {
 
 	public void writeCharactersUnescaped(final String text) {
 		closeElement();
-		printWriter.print(text);
+		write(String.valueOf(text));
 	}
 
 	@Override
@@ -187,14 +299,14 @@ final class DefaultUTF84bAwareXmlStreamWriter extends XmlStreamWriter {
 	@Override
 	public void writeComment(final String data) {
 		closeElement();
-		printWriter.write("<!-- "); //$NON-NLS-1$
-		printWriter.write(data);
-		printWriter.write(" -->"); //$NON-NLS-1$
+		write("<!-- "); //$NON-NLS-1$
+		write(data);
+		write(" -->"); //$NON-NLS-1$
 	}
 
 	@Override
 	public void writeDTD(final String dtd) {
-		printWriter.write(dtd);
+		write(dtd);
 	}
 
 	@Override
@@ -203,11 +315,17 @@ final class DefaultUTF84bAwareXmlStreamWriter extends XmlStreamWriter {
 	}
 
 	private void closeElement() {
+		if (budget != null) {
+			final long total = written + position;
+			budget.charge(total - charged);
+			budget.checkOutput(total);
+			charged = total;
+		}
 		if (inEmptyElement) {
-			printWriter.write("/>"); //$NON-NLS-1$
+			write("/>"); //$NON-NLS-1$
 			inEmptyElement = false;
 		} else if (inStartElement) {
-			printWriter.write(">"); //$NON-NLS-1$
+			write(">"); //$NON-NLS-1$
 			inStartElement = false;
 		}
 	}
@@ -216,8 +334,8 @@ final class DefaultUTF84bAwareXmlStreamWriter extends XmlStreamWriter {
 	public void writeEmptyElement(final String localName) {
 		closeElement();
 		inEmptyElement = true;
-		printWriter.write('<');
-		printWriter.write(localName);
+		write('<');
+		write(localName);
 	}
 
 	@Override
@@ -225,24 +343,24 @@ final class DefaultUTF84bAwareXmlStreamWriter extends XmlStreamWriter {
 		closeElement();
 		inEmptyElement = true;
 		String prefix = uriToPrefix.get(namespaceURI);
-		printWriter.write('<');
+		write('<');
 		if (prefix != null && prefix.length() > 0) {
-			printWriter.write(prefix);
-			printWriter.write(':');
+			write(prefix);
+			write(':');
 		}
-		printWriter.write(localName);
+		write(localName);
 	}
 
 	@Override
 	public void writeEmptyElement(final String prefix, final String localName, final String namespaceURI) {
 		closeElement();
 		inEmptyElement = true;
-		printWriter.write('<');
+		write('<');
 		if (prefix != null && prefix.length() > 0) {
-			printWriter.write(prefix);
-			printWriter.write(':');
+			write(prefix);
+			write(':');
 		}
-		printWriter.write(localName);
+		write(localName);
 	}
 
 	@Override
@@ -259,18 +377,18 @@ final class DefaultUTF84bAwareXmlStreamWriter extends XmlStreamWriter {
 			throw new IllegalStateException();
 		}
 		String name = elements.pop();
-		printWriter.write('<');
-		printWriter.write('/');
-		printWriter.write(name);
-		printWriter.write('>');
+		write('<');
+		write('/');
+		write(name);
+		write('>');
 	}
 
 	@Override
 	public void writeEntityRef(final String name) {
 		closeElement();
-		printWriter.write('&');
-		printWriter.write(name);
-		printWriter.write(';');
+		write('&');
+		write(name);
+		write(';');
 	}
 
 	@Override
@@ -295,17 +413,17 @@ final class DefaultUTF84bAwareXmlStreamWriter extends XmlStreamWriter {
 
 	@Override
 	public void writeStartDocument() {
-		printWriter.write(processXmlHeader("<?xml version='1.0' ?>")); //$NON-NLS-1$
+		write(processXmlHeader("<?xml version='1.0' ?>")); //$NON-NLS-1$
 	}
 
 	@Override
 	public void writeStartDocument(final String version) {
-		printWriter.write(processXmlHeader("<?xml version='" + version + "' ?>")); //$NON-NLS-1$ //$NON-NLS-2$
+		write(processXmlHeader("<?xml version='" + version + "' ?>")); //$NON-NLS-1$ //$NON-NLS-2$
 	}
 
 	@Override
 	public void writeStartDocument(final String encoding, final String version) {
-		printWriter.write(processXmlHeader("<?xml version='" + version + "' encoding='" + encoding + "' ?>")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		write(processXmlHeader("<?xml version='" + version + "' encoding='" + encoding + "' ?>")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 	}
 
 	@Override
@@ -313,8 +431,8 @@ final class DefaultUTF84bAwareXmlStreamWriter extends XmlStreamWriter {
 		closeElement();
 		inStartElement = true;
 		elements.push(localName);
-		printWriter.write('<');
-		printWriter.write(localName);
+		write('<');
+		write(localName);
 	}
 
 	@Override
@@ -322,15 +440,15 @@ final class DefaultUTF84bAwareXmlStreamWriter extends XmlStreamWriter {
 		closeElement();
 		inStartElement = true;
 		String prefix = uriToPrefix.get(namespaceURI);
-		printWriter.write('<');
+		write('<');
 		if (prefix != null && prefix.length() > 0) {
-			printWriter.write(prefix);
-			printWriter.write(':');
+			write(prefix);
+			write(':');
 			elements.push(prefix + ':' + localName);
 		} else {
 			elements.push(localName);
 		}
-		printWriter.write(localName);
+		write(localName);
 	}
 
 	@Override
@@ -338,12 +456,12 @@ final class DefaultUTF84bAwareXmlStreamWriter extends XmlStreamWriter {
 		closeElement();
 		inStartElement = true;
 		elements.push(localName);
-		printWriter.write('<');
+		write('<');
 		if (prefix != null && prefix.length() > 0) {
-			printWriter.write(prefix);
-			printWriter.write(':');
+			write(prefix);
+			write(':');
 		}
-		printWriter.write(localName);
+		write(localName);
 	}
 
 	public char getXmlHederQuoteChar() {
@@ -358,54 +476,151 @@ final class DefaultUTF84bAwareXmlStreamWriter extends XmlStreamWriter {
 		return xmlHederQuoteChar == '\'' ? header : header.replace('\'', xmlHederQuoteChar);
 	}
 
-	private static void printEscaped(final PrintWriter writer, final CharSequence s, final boolean attribute) {
-		int length = s.length();
+	private void write(final char c) {
+		if (this.position == this.buffer.length) {
+			flushBuffer();
+		}
+		this.buffer[this.position++] = c;
+	}
 
-		try {
-			for (int x = 0; x < length; ++x) {
-				char ch = s.charAt(x);
-				if (x < length - 1 && Character.isSurrogatePair(ch, s.charAt(x + 1))) {
-					writer.write(new String(new int[]{Character.codePointAt(s, x++)}, 0, 1));
-				} else {
-					printEscaped(writer, ch, attribute);
+	private void write(final String s) {
+		write(s, 0, s.length());
+	}
+
+	private void write(final String s, final int offset, final int length) {
+		if (length > this.buffer.length - this.position) {
+			flushBuffer();
+			if (length > this.buffer.length) {
+				try {
+					if (this.encoding) {
+						this.encoder.encode(s, offset, length);
+					} else {
+						this.out.write(s, offset, length);
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
 				}
+				this.written += length;
+				return;
 			}
-		} catch (IOException ioe) {
-			throw new IllegalStateException();
 		}
+		s.getChars(offset, offset + length, this.buffer, this.position);
+		this.position += length;
+	}
+
+	/**
+	 * Writes the buffered characters to the target.
+	 *
+	 * @throws UncheckedIOException When the target fails
+	 */
+	private void flushBuffer() {
+		if (this.position == 0) {
+			return;
+		}
+		try {
+			if (this.encoding) {
+				this.encoder.encode(this.buffer, 0, this.position);
+			} else {
+				this.out.write(this.buffer, 0, this.position);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			this.written += this.position;
+			this.position = 0;
+		}
+	}
+
+	/**
+	 * Characters of the basic multilingual plane that are written as they are inside text, one bit per character.
+	 */
+	private static final long[] LITERALS_IN_TEXT = computeLiterals(false);
+
+	/**
+	 * Characters of the basic multilingual plane that are written as they are inside attribute values.
+	 */
+	private static final long[] LITERALS_IN_ATTRIBUTE = computeLiterals(true);
+
+	private static long[] computeLiterals(final boolean attribute) {
+		final long[] literals = new long[(Character.MAX_VALUE + 1) >> 6];
+		for (int ch = Character.MIN_VALUE; ch <= Character.MAX_VALUE; ++ch) {
+			if (isLiteral(ch, attribute)) {
+				literals[ch >> 6] |= 1L << ch;
+			}
+		}
+		return literals;
+	}
+
+	/**
+	 * @param ch A character of the basic multilingual plane
+	 * @return True if {@code ch} is written without escaping inside text
+	 */
+	static boolean isLiteralInText(final char ch) {
+		return (LITERALS_IN_TEXT[ch >> 6] & (1L << ch)) != 0;
+	}
+
+	/**
+	 * Writes {@code s} escaped. Runs of characters that don't need escaping are written in one go,
+	 * surrogate pairs are part of such runs.
+	 */
+	private void printEscaped(final String s, final boolean attribute) {
+		final long[] literals = attribute ? LITERALS_IN_ATTRIBUTE : LITERALS_IN_TEXT;
+		final int length = s.length();
+
+		int literalsFrom = 0;
+		for (int x = 0; x < length; ++x) {
+			final char ch = s.charAt(x);
+			if ((literals[ch >> 6] & (1L << ch)) != 0) {
+				continue;
+			}
+			if (x < length - 1 && Character.isSurrogatePair(ch, s.charAt(x + 1))) {
+				++x;
+				continue;
+			}
+			write(s, literalsFrom, x - literalsFrom);
+			printEscaped(ch, attribute);
+			literalsFrom = x + 1;
+		}
+		write(s, literalsFrom, length - literalsFrom);
 	}
 
 	/**
 	 * Print an XML character in its escaped form.
 	 *
-	 * @param writer The writer to which the character should be printed.
 	 * @param ch the character to print.
-	 * @throws IOException
 	 */
-	private static void printEscaped(final PrintWriter writer, final int ch, final boolean attribute) throws IOException {
+	private void printEscaped(final int ch, final boolean attribute) {
 
 		String ref = getEntityRef(ch, attribute);
 		if (ref != null) {
-			writer.write('&');
-			writer.write(ref);
-			writer.write(';');
-		} else if (ch == '\r' || ch == 0x0085 || ch == 0x2028) {
-			printHex(writer, ch);
-		} else if ((ch >= ' ' && ch != 160 && isUtf8Printable((char) ch) && XML11Char.isXML11ValidLiteral(ch))
-				|| ch == '\t' || ch == '\n' || ch == '\r') {
-			writer.write((char) ch);
+			write('&');
+			write(ref);
+			write(';');
+		} else if (isLiteral(ch, attribute)) {
+			write((char) ch);
 		} else {
-			printHex(writer, ch);
+			printHex(ch);
+		}
+	}
+
+	/**
+	 * @return True if {@code ch} is written without escaping
+	 */
+	private static boolean isLiteral(final int ch, final boolean attribute) {
+		if (getEntityRef(ch, attribute) != null || ch == '\r' || ch == 0x0085 || ch == 0x2028) {
+			return false;
 		}
+		return (ch >= ' ' && ch != 160 && isUtf8Printable((char) ch) && XML11Char.isXML11ValidLiteral(ch))
+				|| ch == '\t' || ch == '\n';
 	}
 
 	/**
 	 * Escapes chars
 	 */
-	static void printHex(final PrintWriter writer, final int ch) throws IOException {
-		writer.write("&#x"); //$NON-NLS-1$
-		writer.write(Integer.toHexString(ch));
-		writer.write(';');
+	private void printHex(final int ch) {
+		write("&#x"); //$NON-NLS-1$
+		write(Integer.toHexString(ch));
+		write(';');
 	}
 
 	protected static String getEntityRef(final int ch, final boolean attribute) {
@@ -0,0 +1,452 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import static java.lang.String.format;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Protects the callers of another filter against pathological input. Documents longer than a maximum length are
+ * rejected before they are filtered. While a document is filtered, its output is limited relative to the length of
+ * the input and the filter has a budget of steps and time. The budget is cooperative: Filters that scan their input
+ * character by character, like the {@link SmileyFilter} and {@link TextFilter#AUTO_BR}, are checked for every
+ * character they examine, even inside a regular expression. The {@link TextileFilter} is checked before every element
+ * and text it writes, while the parser is still working. The {@link HtmlFilter} is checked for every chunk of input
+ * its streaming engine tokenizes, the other engines are charged with the whole input before the html parser runs,
+ * because it can't be checked at all. A {@link TextFilterPipeline} hands the same budget to all its filters of this package, so that scanning
+ * filters are checked for every character of their intermediate input as well. Other filters in a pipeline are
+ * charged with their whole input before they are called. All remaining filters are only checked whenever they read input
+ * or write output through their streaming api, which may be after the actual work, if they buffer their input or
+ * output.
+ * <br>
+ * A document that exceeds a limit either causes a {@link TextFilterLimitExceededException} or is passed to
+ * a fallback, for example a cheaper engine or {@link Builder#fallbackToEscapedText() the escaped plain text}.
+ * <pre>
+ * GuardedTextFilter.builder(new TextileFilter())
+ *     .maximumInputLength(256 * 1024)
+ *     .maximumExpansion(10)
+ *     .timeout(Duration.ofMillis(500))
+ *     .fallbackToEscapedText()
+ *     .build();
+ * </pre>
+ * Calls of the streaming api don't use the fallback, because parts of the output may have already been written.
+ *
+ * @author Michael J. Simons, 2018-08-02
+ */
+public final class GuardedTextFilter implements TextFilter {
+
+	/**
+	 * Output that is always allowed in addition to the maximum expansion, so that short documents
+	 * can get their markup.
+	 */
+	public static final int EXPANSION_ALLOWANCE = 1024;
+
+	/**
+	 * The steps between two checks of the clock.
+	 */
+	private static final int STEPS_PER_CLOCK_CHECK = 1024;
+
+	/**
+	 * Configures a {@link GuardedTextFilter}.
+	 */
+	public static final class Builder {
+
+		private final TextFilter delegate;
+
+		private int maximumInputLength = Integer.MAX_VALUE;
+
+		private double maximumExpansion = Double.POSITIVE_INFINITY;
+
+		private long maximumSteps = Long.MAX_VALUE;
+
+		private Duration timeout;
+
+		private TextFilter fallback;
+
+		private Builder(final TextFilter delegate) {
+			this.delegate = Objects.requireNonNull(delegate, "Delegate must not be null");
+		}
+
+		/**
+		 * @param maximumInputLength Maximum number of characters of a document, unlimited by default
+		 * @return This builder
+		 */
+		public Builder maximumInputLength(final int maximumInputLength) {
+			if (maximumInputLength < 0) {
+				throw new IllegalArgumentException("The maximum input length must not be negative.");
+			}
+			this.maximumInputLength = maximumInputLength;
+			return this;
+		}
+
+		/**
+		 * The expansion is checked while the {@link TextileFilter} writes its output and after every filter of a
+		 * {@link TextFilterPipeline}, other filters are checked after they returned their whole output.
+		 *
+		 * @param maximumExpansion Maximum ratio of output to input length, the output may always be {@link #EXPANSION_ALLOWANCE} characters longer. Unlimited by default
+		 * @return This builder
+		 */
+		public Builder maximumExpansion(final double maximumExpansion) {
+			if (!(maximumExpansion > 0.0)) {
+				throw new IllegalArgumentException("The maximum expansion must be greater than 0.");
+			}
+			this.maximumExpansion = maximumExpansion;
+			return this;
+		}
+
+		/**
+		 * @param maximumSteps Maximum number of characters a filter may examine, read and write per document, unlimited by default
+		 * @return This builder
+		 */
+		public Builder maximumSteps(final long maximumSteps) {
+			if (maximumSteps <= 0) {
+				throw new IllegalArgumentException("The maximum number of steps must be greater than 0.");
+			}
+			this.maximumSteps = maximumSteps;
+			return this;
+		}
+
+		/**
+		 * @param timeout Maximum time a filter may take per document, unlimited by default
+		 * @return This builder
+		 */
+		public Builder timeout(final Duration timeout) {
+			if (timeout.isNegative() || timeout.isZero()) {
+				throw new IllegalArgumentException("The timeout must be positive.");
+			}
+			this.timeout = timeout;
+			return this;
+		}
+
+		/**
+		 * @param fallback Filters documents that exceed a limit instead of throwing an exception
+		 * @return This builder
+		 */
+		public Builder fallback(final TextFilter fallback) {
+			this.fallback = Objects.requireNonNull(fallback, "Fallback must not be null");
+			return this;
+		}
+
+		/**
+		 * Returns documents that exceed a limit as plain text with all html special characters escaped.
+		 *
+		 * @return This builder
+		 */
+		public Builder fallbackToEscapedText() {
+			return fallback(GuardedTextFilter::escape);
+		}
+
+		/**
+		 * @return A new guarded filter
+		 */
+		public GuardedTextFilter build() {
+			return new GuardedTextFilter(this);
+		}
+	}
+
+	/**
+	 * Starts the configuration of a new guarded filter.
+	 *
+	 * @param delegate The filter to guard
+	 * @return A builder for a new guarded filter
+	 */
+	public static Builder builder(final TextFilter delegate) {
+		return new Builder(delegate);
+	}
+
+	private final TextFilter delegate;
+
+	private final int maximumInputLength;
+
+	private final double maximumExpansion;
+
+	private final long maximumSteps;
+
+	private final long timeoutNanos;
+
+	private final TextFilter fallback;
+
+	private GuardedTextFilter(final Builder builder) {
+		this.delegate = builder.delegate;
+		this.maximumInputLength = builder.maximumInputLength;
+		this.maximumExpansion = builder.maximumExpansion;
+		this.maximumSteps = builder.maximumSteps;
+		this.timeoutNanos = builder.timeout == null ? Long.MAX_VALUE : builder.timeout.toNanos();
+		this.fallback = builder.fallback;
+	}
+
+	@Override
+	public String apply(final String input, final String baseUrl) {
+		if (input == null || TextFilterSupport.isBlank(input)) {
+			return this.delegate.apply(input, baseUrl);
+		}
+
+		try {
+			if (input.length() > this.maximumInputLength) {
+				throw new TextFilterLimitExceededException(TextFilterLimitExceededException.Limit.INPUT_LENGTH,
+						format("The input of %d characters is longer than %d characters", input.length(), this.maximumInputLength));
+			}
+
+			final Budget budget = new Budget(input.length());
+			final CharSequence rv;
+			if (this.delegate instanceof TextFilterStage) {
+				rv = ((TextFilterStage) this.delegate).applyStage(input, baseUrl, new StringBuilder(), budget);
+				if (rv == input) {
+					return input;
+				}
+			} else if (this.delegate instanceof TextFilterPipeline) {
+				rv = ((TextFilterPipeline) this.delegate).apply(input, baseUrl, new StringBuilder[2], budget);
+				if (rv == null) {
+					return null;
+				}
+			} else {
+				final StringBuilderWriter out = new StringBuilderWriter(input.length());
+				this.delegate.apply(new BudgetedReader(new StringReader(input), budget), new BudgetedWriter(out, budget), baseUrl);
+				return out.toString();
+			}
+			budget.output(rv.length());
+			return rv.toString();
+		} catch (TextFilterLimitExceededException e) {
+			if (this.fallback == null) {
+				throw e;
+			}
+			return this.fallback.apply(input, baseUrl);
+		} catch (IOException e) {
+			// Neither reading a string nor writing to a builder fails
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Filters everything from {@code in} and writes the result to {@code out}. The input length is checked while
+	 * reading and the expansion is checked against the input read so far.
+	 *
+	 * @param in      The input
+	 * @param out     Receives the filtered output
+	 * @param baseUrl An optional base url for resolving relative urls
+	 * @throws IOException                      When reading or writing fails
+	 * @throws TextFilterLimitExceededException When a limit is exceeded, regardless of the fallback
+	 */
+	@Override
+	public void apply(final Reader in, final Writer out, final String baseUrl) throws IOException {
+		final Budget budget = new Budget(-1);
+		this.delegate.apply(new BudgetedReader(in, budget), new BudgetedWriter(out, budget), baseUrl);
+	}
+
+	/**
+	 * The limits of one document.
+	 */
+	private final class Budget implements TextFilterBudget {
+
+		private final long deadline;
+
+		/**
+		 * Number of input characters or {@literal -1} if the input is streamed.
+		 */
+		private final long inputLength;
+
+		private long read;
+
+		private long written;
+
+		private long steps;
+
+		private long nextClockCheck = STEPS_PER_CLOCK_CHECK;
+
+		Budget(final long inputLength) {
+			final long now = System.nanoTime();
+			final long timeout = GuardedTextFilter.this.timeoutNanos;
+			this.deadline = timeout > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeout;
+			this.inputLength = inputLength;
+		}
+
+		@Override
+		public void step(final long n) {
+			this.steps += n;
+			if (this.steps > GuardedTextFilter.this.maximumSteps) {
+				throw new TextFilterLimitExceededException(TextFilterLimitExceededException.Limit.STEPS,
+						format("The filter exceeded its budget of %d steps", GuardedTextFilter.this.maximumSteps));
+			}
+			if (this.steps >= this.nextClockCheck) {
+				this.nextClockCheck = this.steps + STEPS_PER_CLOCK_CHECK;
+				checkClock();
+			}
+		}
+
+		@Override
+		public void charge(final long steps) {
+			step(steps);
+			checkClock();
+		}
+
+		void read(final long n) {
+			this.read += n;
+			if (this.read > GuardedTextFilter.this.maximumInputLength) {
+				throw new TextFilterLimitExceededException(TextFilterLimitExceededException.Limit.INPUT_LENGTH,
+						format("The input is longer than %d characters", GuardedTextFilter.this.maximumInputLength));
+			}
+			step(n);
+		}
+
+		void output(final long n) {
+			this.written += n;
+			checkOutput(this.written);
+			checkClock();
+		}
+
+		@Override
+		public void checkOutput(final long length) {
+			final long base = this.inputLength < 0 ? this.read : this.inputLength;
+			if (length > GuardedTextFilter.this.maximumExpansion * base + EXPANSION_ALLOWANCE) {
+				throw new TextFilterLimitExceededException(TextFilterLimitExceededException.Limit.EXPANSION,
+						format("The output of %d characters exceeds the maximum expansion of %s", length, GuardedTextFilter.this.maximumExpansion));
+			}
+		}
+
+		private void checkClock() {
+			if (this.deadline != Long.MAX_VALUE && System.nanoTime() - this.deadline > 0) {
+				throw new TextFilterLimitExceededException(TextFilterLimitExceededException.Limit.TIME,
+						format("The filter took longer than %dms", GuardedTextFilter.this.timeoutNanos / 1_000_000));
+			}
+		}
+	}
+
+	private static final class BudgetedReader extends FilterReader {
+
+		private final Budget budget;
+
+		BudgetedReader(final Reader in, final Budget budget) {
+			super(in);
+			this.budget = budget;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int rv = super.read();
+			if (rv != -1) {
+				this.budget.read(1);
+			}
+			return rv;
+		}
+
+		@Override
+		public int read(final char[] cbuf, final int off, final int len) throws IOException {
+			final int rv = super.read(cbuf, off, len);
+			if (rv > 0) {
+				this.budget.read(rv);
+			}
+			return rv;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+			// The stream belongs to the caller
+		}
+	}
+
+	private static final class BudgetedWriter extends Writer {
+
+		private final Writer out;
+
+		private final Budget budget;
+
+		BudgetedWriter(final Writer out, final Budget budget) {
+			this.out = out;
+			this.budget = budget;
+		}
+
+		@Override
+		public void write(final int c) throws IOException {
+			this.budget.output(1);
+			this.out.write(c);
+		}
+
+		@Override
+		public void write(final char[] cbuf, final int off, final int len) throws IOException {
+			this.budget.output(len);
+			this.out.write(cbuf, off, len);
+		}
+
+		@Override
+		public void write(final String str, final int off, final int len) throws IOException {
+			this.budget.output(len);
+			this.out.write(str, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			this.out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			// The stream belongs to the caller
+			flush();
+		}
+	}
+
+	/**
+	 * Escapes all html special characters.
+	 */
+	static String escape(final String input, final String baseUrl) {
+		if (input == null) {
+			return null;
+		}
+
+		StringBuilder rv = null;
+		int last = 0;
+		for (int i = 0, length = input.length(); i < length; ++i) {
+			final String entity;
+			switch (input.charAt(i)) {
+				case '&':
+					entity = "&amp;";
+					break;
+				case '<':
+					entity = "&lt;";
+					break;
+				case '>':
+					entity = "&gt;";
+					break;
+				case '"':
+					entity = "&quot;";
+					break;
+				case '\'':
+					entity = "&#39;";
+					break;
+				default:
+					continue;
+			}
+			if (rv == null) {
+				rv = new StringBuilder(input.length() + 16);
+			}
+			rv.append(input, last, i).append(entity);
+			last = i + 1;
+		}
+		return rv == null ? input : rv.append(input, last, input.length()).toString();
+	}
+}
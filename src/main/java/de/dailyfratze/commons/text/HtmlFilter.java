@@ -15,41 +15,182 @@
  */
 package de.dailyfratze.commons.text;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
 import org.jsoup.Jsoup;
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.DataNode;
 import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
 import org.jsoup.nodes.Entities.EscapeMode;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
 import org.jsoup.parser.Parser;
 import org.jsoup.safety.Cleaner;
 import org.jsoup.safety.Whitelist;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
 
 /**
  * Used for cleaning HTML input (whitelisting stuff).
  *
  * @author Michael J. Simons, 2014-12-26
  */
-public final class HtmlFilter implements TextFilter {
+public final class HtmlFilter implements TextFilter, TextFilterStage {
+
+	/**
+	 * The engines available for cleaning html. {@link #CLEANER} and {@link #COMPILED} produce the same output,
+	 * {@link #STREAMING} may produce a different output for malformed input.
+	 */
+	public enum Engine {
+		/**
+		 * A new jsoup {@link Cleaner} for every call, which creates a clean copy of the document. The copy
+		 * is serialized with escaped entities, which are unescaped afterwards.
+		 */
+		CLEANER,
+		/**
+		 * Cleans in a single traversal of the parsed document, using a {@link CompiledWhitelist}.
+		 * Allowed nodes are serialized directly and without escaping.
+		 */
+		COMPILED,
+		/**
+		 * Cleans while tokenizing the input with a {@link StreamingHtmlSanitizer}, without building
+		 * a document at all. Apart from the input itself, only a stack of open elements is kept in memory.
+		 * Malformed input that the html parser would restructure may produce a different output.
+		 */
+		STREAMING
+	}
+
+	/**
+	 * Attributes and their protocols that are allowed in addition to the allowed tags.
+	 */
+	private static final Map<String, Map<String, String[]>> DEFAULT_ATTRIBUTES;
+
+	static {
+		final Map<String, Map<String, String[]>> defaultAttributes = new LinkedHashMap<>();
+		defaultAttributes.put("a", Map.of("href", new String[]{"ftp", "http", "https", "mailto"}, "target", new String[0]));
+		defaultAttributes.put("blockquote", Map.of("cite", new String[]{"http", "https"}));
+		defaultAttributes.put("q", Map.of("cite", new String[]{"http", "https"}));
+		defaultAttributes.put("img", Map.of(
+				"align", new String[0], "alt", new String[0], "height", new String[0],
+				"src", new String[]{"http", "https"}, "title", new String[0], "width", new String[0]));
+		DEFAULT_ATTRIBUTES = Collections.unmodifiableMap(defaultAttributes);
+	}
+
+	/**
+	 * Characters the parser doesn't keep as they are: Control characters other than tab and line feed and the
+	 * noncharacters, one of which the parser uses to mark the end of the input.
+	 */
+	static final CharacterMask UNKEPT_CHARACTERS;
+
+	/**
+	 * Characters that start markup or entities and the {@link #UNKEPT_CHARACTERS}.
+	 */
+	private static final CharacterMask SIGNIFICANT_CHARACTERS;
+
+	static {
+		final StringBuilder unkeptCharacters = new StringBuilder("\ufffe\uffff");
+		for (char c = 0; c < ' '; ++c) {
+			if (c != '\t' && c != '\n') {
+				unkeptCharacters.append(c);
+			}
+		}
+		UNKEPT_CHARACTERS = CharacterMask.of(unkeptCharacters);
+		SIGNIFICANT_CHARACTERS = CharacterMask.of(unkeptCharacters.append("<&"));
+	}
+
+	private final Engine engine;
 
 	private final Whitelist whitelist;
 
+	private final CompiledWhitelist compiledWhitelist;
+
+	/**
+	 * True if input is checked for being clean before it is parsed.
+	 */
+	private final boolean skipCleanInput;
+
+	/**
+	 * Base urls of clean inputs by their hash, {@literal null} when no fingerprints are remembered.
+	 */
+	private final SegmentedLruCache<ContentHash, String> fingerprints;
+
 	/**
 	 * Creates a new HtmlFilter for cleaning HTML documents with an optional whitelist of allowed tags.
 	 * The default is a whitelist containing no elements. If some elements are allowed,
 	 * additional default attributes for a, blockquote, q and img are added as well.
+	 * The filter uses the {@link Engine#COMPILED} engine.
 	 *
 	 * @param allowedTags The allowed tags. Can be empty
 	 */
 	public HtmlFilter(final String... allowedTags) {
+		this(Engine.COMPILED, allowedTags);
+	}
+
+	/**
+	 * Creates a new HtmlFilter for cleaning HTML documents with an optional whitelist of allowed tags.
+	 * The default is a whitelist containing no elements. If some elements are allowed,
+	 * additional default attributes for a, blockquote, q and img are added as well. Those
+	 * tags are allowed then, too.
+	 *
+	 * @param engine      The engine to use
+	 * @param allowedTags The allowed tags. Can be empty
+	 */
+	public HtmlFilter(final Engine engine, final String... allowedTags) {
+		this.engine = engine;
 		this.whitelist = Whitelist.none();
+		final Map<String, Map<String, String[]>> allowedAttributes = new HashMap<>();
 		if (allowedTags.length != 0) {
-			whitelist
-					.addTags(allowedTags)
-					.addAttributes("a", "href", "target").addProtocols("a", "href", "ftp", "http", "https", "mailto")
-					.addAttributes("blockquote", "cite").addProtocols("blockquote", "cite", "http", "https")
-					.addAttributes("q", "cite").addProtocols("q", "cite", "http", "https")
-					.addAttributes("img", "align", "alt", "height", "src", "title", "width").addProtocols("img", "src", "http", "https");
+			whitelist.addTags(allowedTags);
+			for (String tag : allowedTags) {
+				allowedAttributes.put(tag, Map.of());
+			}
+			DEFAULT_ATTRIBUTES.forEach((tag, attributes) -> attributes.forEach((attribute, protocols) -> {
+				whitelist.addAttributes(tag, attribute);
+				if (protocols.length != 0) {
+					whitelist.addProtocols(tag, attribute, protocols);
+				}
+			}));
+			allowedAttributes.putAll(DEFAULT_ATTRIBUTES);
 		}
+		this.compiledWhitelist = new CompiledWhitelist(allowedAttributes);
+		this.skipCleanInput = false;
+		this.fingerprints = null;
+	}
+
+	private HtmlFilter(final HtmlFilter source, final int maximumFingerprints) {
+		this.engine = source.engine;
+		this.whitelist = source.whitelist;
+		this.compiledWhitelist = source.compiledWhitelist;
+		this.skipCleanInput = true;
+		this.fingerprints = maximumFingerprints == 0 ? null : new SegmentedLruCache<>(maximumFingerprints, maximumFingerprints, (key, value) -> 1);
+	}
+
+	/**
+	 * Creates a filter with the same engine and whitelist, that returns input that is already clean as it is.
+	 * That is the case for content that has been cleaned with the same whitelist before and didn't change since.
+	 * The input is checked in one pass with a {@link StreamingHtmlSanitizer} that stops at the first tag, attribute
+	 * or character that would be changed, without parsing it into a document. The {@link Engine#STREAMING} engine
+	 * doesn't need this check, it just cleans the input.
+	 * <br>
+	 * With a positive {@code maximumFingerprints}, the hashes of that many clean inputs are remembered together
+	 * with their base url, so that those aren't checked or cleaned again at all.
+	 *
+	 * @param maximumFingerprints Maximum number of clean inputs to remember, 0 for none
+	 * @return A new filter skipping clean input
+	 */
+	public HtmlFilter skippingCleanInput(final int maximumFingerprints) {
+		if (maximumFingerprints < 0) {
+			throw new IllegalArgumentException("The maximum number of fingerprints must not be negative.");
+		}
+		return new HtmlFilter(this, maximumFingerprints);
 	}
 
 	/**
@@ -64,16 +205,219 @@ public final class HtmlFilter implements TextFilter {
 	 */
 	public String apply(final String dirtyText, final String baseUrl) {
 		String rv = dirtyText;
-		if (!(rv == null || rv.trim().isEmpty())) {
-			final Cleaner cleaner = new Cleaner(this.whitelist);
-			final Document cleanedDocument = cleaner.clean(Jsoup.parseBodyFragment(rv, Optional.ofNullable(baseUrl).orElse("")));
-			cleanedDocument
-					.outputSettings()
-					.prettyPrint(false)
-					.escapeMode(EscapeMode.xhtml)
-					.charset(StandardCharsets.UTF_8);
-			rv = Parser.unescapeEntities(cleanedDocument.body().html().trim(), true);
+		if (!(rv == null || TextFilterSupport.isBlank(rv))) {
+			rv = clean(rv, baseUrl, null);
 		}
 		return rv;
 	}
+
+	@Override
+	public CharSequence applyStage(final CharSequence input, final String baseUrl, final StringBuilder buffer) {
+		return clean(input.toString(), baseUrl, null);
+	}
+
+	/**
+	 * Cleans the input with the configured engine. The {@link Engine#STREAMING} engine charges the input to
+	 * {@code budget} while it is read, the other engines are charged with the whole input up front, because
+	 * the html parser can't be interrupted.
+	 */
+	@Override
+	public CharSequence applyStage(final CharSequence input, final String baseUrl, final StringBuilder buffer, final TextFilterBudget budget) {
+		if (this.engine != Engine.STREAMING) {
+			budget.charge(input.length());
+			return clean(input.toString(), baseUrl, null);
+		}
+		return clean(input.toString(), baseUrl, budget);
+	}
+
+	/**
+	 * Cleans everything from {@code in} and writes it to {@code out}. With the {@link Engine#STREAMING} engine
+	 * the input is cleaned while it is read and never held completely in memory.
+	 *
+	 * @param in      The dirty text
+	 * @param out     Receives the cleaned text
+	 * @param baseUrl An optional base url for relative urls in {@code in}
+	 * @throws IOException When reading or writing fails
+	 */
+	@Override
+	public void apply(final Reader in, final Writer out, final String baseUrl) throws IOException {
+		if (this.engine != Engine.STREAMING) {
+			TextFilter.super.apply(in, out, baseUrl);
+			return;
+		}
+
+		final Reader dirtyContent = TextFilterSupport.copyIfBlank(in, out);
+		if (dirtyContent != null) {
+			new StreamingHtmlSanitizer(this.compiledWhitelist, baseUrl).sanitize(dirtyContent, out);
+			out.flush();
+		}
+	}
+
+	/**
+	 * @param budget Charged with the input read by the streaming engine, {@literal null} if unlimited
+	 */
+	private String clean(final String dirtyText, final String baseUrl, final TextFilterBudget budget) {
+		if (isPlainText(dirtyText)) {
+			if (budget != null) {
+				budget.charge(dirtyText.length());
+			}
+			// Every engine only trims plain text
+			return dirtyText.trim();
+		}
+		if (!this.skipCleanInput) {
+			return sanitize(dirtyText, baseUrl, budget);
+		}
+
+		final String fingerprintBaseUrl = baseUrl == null ? "" : baseUrl;
+		final ContentHash fingerprint = this.fingerprints == null ? null : ContentHash.of(dirtyText);
+		if (fingerprint != null && fingerprintBaseUrl.equals(this.fingerprints.get(fingerprint))) {
+			return dirtyText;
+		}
+
+		String rv;
+		if (this.engine != Engine.STREAMING && new StreamingHtmlSanitizer(this.compiledWhitelist, baseUrl).isClean(dirtyText)) {
+			rv = dirtyText;
+		} else {
+			rv = sanitize(dirtyText, baseUrl, budget);
+			if (rv.equals(dirtyText)) {
+				rv = dirtyText;
+			}
+		}
+		if (fingerprint != null && rv == dirtyText) {
+			this.fingerprints.put(fingerprint, fingerprintBaseUrl);
+		}
+		return rv;
+	}
+
+	/**
+	 * A cheap pre-scan for input that can't be changed apart from trimming: Input without any significant character
+	 * and without unpaired surrogates, which the parser replaces.
+	 *
+	 * @param text The text to scan
+	 * @return True, if {@code text} is plain text
+	 */
+	static boolean isPlainText(final String text) {
+		for (int i = 0, length = text.length(); i < length; ++i) {
+			final char c = text.charAt(i);
+			if (Character.isSurrogate(c)) {
+				if (!(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1)))) {
+					return false;
+				}
+				++i;
+			} else if (SIGNIFICANT_CHARACTERS.contains(c)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String sanitize(final String dirtyText, final String baseUrl, final TextFilterBudget budget) {
+		if (this.engine == Engine.STREAMING) {
+			return new StreamingHtmlSanitizer(this.compiledWhitelist, baseUrl, budget).sanitize(dirtyText);
+		}
+
+		final Document dirtyDocument = Jsoup.parseBodyFragment(dirtyText, Optional.ofNullable(baseUrl).orElse(""));
+		if (this.engine == Engine.COMPILED) {
+			final StringBuilder cleanText = new StringBuilder(dirtyText.length());
+			final CleaningSerializer cleaningSerializer = new CleaningSerializer(this.compiledWhitelist, cleanText);
+			// Like the cleaner, only the children of the body are copied, never the body itself
+			for (Node node : dirtyDocument.body().childNodes()) {
+				NodeTraversor.traverse(cleaningSerializer, node);
+			}
+			return cleanText.toString().trim();
+		}
+
+		final Cleaner cleaner = new Cleaner(this.whitelist);
+		final Document cleanedDocument = cleaner.clean(dirtyDocument);
+		cleanedDocument
+				.outputSettings()
+				.prettyPrint(false)
+				.escapeMode(EscapeMode.xhtml)
+				.charset(StandardCharsets.UTF_8);
+		return Parser.unescapeEntities(cleanedDocument.body().html().trim(), true);
+	}
+
+	/**
+	 * Writes the nodes of a dirty document that are allowed by a {@link CompiledWhitelist} in the same
+	 * way the {@link Engine#CLEANER} engine does: Allowed elements with their allowed attributes, all text and
+	 * data of allowed elements. Url attributes are made absolute and checked against the allowed protocols.
+	 */
+	private static final class CleaningSerializer implements NodeVisitor {
+
+		private final CompiledWhitelist compiledWhitelist;
+
+		private final StringBuilder out;
+
+		/**
+		 * The allowed attributes of the current element. The parser keeps attributes whose names only
+		 * differ in case as duplicates, the last value of an attribute wins. Values may be {@literal null}.
+		 */
+		private final Map<String, String> attributes = new LinkedHashMap<>();
+
+		CleaningSerializer(final CompiledWhitelist compiledWhitelist, final StringBuilder out) {
+			this.compiledWhitelist = compiledWhitelist;
+			this.out = out;
+		}
+
+		@Override
+		public void head(final Node node, final int depth) {
+			if (node instanceof Element) {
+				final Element element = (Element) node;
+				final CompiledWhitelist.AllowedTag allowedTag = this.compiledWhitelist.getAllowedTag(element.tagName());
+				if (allowedTag != null) {
+					this.out.append('<').append(element.tagName());
+					for (Attribute attribute : element.attributes()) {
+						putIfAllowed(element, attribute, allowedTag);
+					}
+					this.attributes.forEach(this::appendAttribute);
+					this.attributes.clear();
+					this.out.append('>');
+				}
+			} else if (node instanceof TextNode) {
+				this.out.append(((TextNode) node).getWholeText());
+			} else if (node instanceof DataNode && this.compiledWhitelist.getAllowedTag(node.parent().nodeName()) != null) {
+				// The cleaner engine doesn't escape data, but unescapes it with everything else
+				this.out.append(Parser.unescapeEntities(((DataNode) node).getWholeData(), true));
+			}
+		}
+
+		@Override
+		public void tail(final Node node, final int depth) {
+			if (node instanceof Element) {
+				final CompiledWhitelist.AllowedTag allowedTag = this.compiledWhitelist.getAllowedTag(node.nodeName());
+				if (allowedTag != null && !allowedTag.isEmpty()) {
+					this.out.append("</").append(node.nodeName()).append('>');
+				}
+			}
+		}
+
+		/**
+		 * Attributes without value are written as name only.
+		 */
+		private void appendAttribute(final String key, final String value) {
+			this.out.append(' ').append(key);
+			if (value != null) {
+				this.out.append("=\"").append(value).append('"');
+			}
+		}
+
+		private void putIfAllowed(final Element element, final Attribute attribute, final CompiledWhitelist.AllowedTag allowedTag) {
+			final String[] protocols = allowedTag.getProtocols(attribute.getKey());
+			if (protocols == null) {
+				return;
+			}
+
+			String value = attribute.getValue();
+			if (protocols.length != 0) {
+				final String absoluteValue = element.absUrl(attribute.getKey());
+				if (!absoluteValue.isEmpty()) {
+					value = absoluteValue;
+				}
+				if (value == null || !CompiledWhitelist.hasAllowedProtocol(value, protocols)) {
+					return;
+				}
+			}
+			this.attributes.put(attribute.getKey(), value);
+		}
+	}
 }
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.util.Objects;
+
+/**
+ * Renders Textile documents block by block and caches the markup of each block by a hash of its content. A document
+ * that is rendered again after an edit - like the preview of a long wiki page - only renders the blocks that changed.
+ * The output is the same as the output of {@link TextileFilter}.
+ * <br>
+ * Blocks containing headings or footnotes are rendered after the headings, footnotes and lines with footnote
+ * references of all previous blocks, so that they get the same ids as inside the whole document. Blocks with aliased
+ * links are rendered after all link definitions of the document. Changing a heading or a link definition therefore
+ * renders the blocks depending on it again. The markup of the preceding lines is cut off, it is known from rendering
+ * those lines before.
+ * Documents that can't be split, for example because they contain a table of contents, are rendered as a whole
+ * and not cached.
+ *
+ * @author Michael J. Simons, 2018-07-31
+ */
+public final class IncrementalTextileFilter implements TextFilter {
+
+	/**
+	 * Configures an {@link IncrementalTextileFilter}.
+	 */
+	public static final class Builder {
+
+		private TextileFilter textileFilter;
+
+		private int maximumSize = 10_000;
+
+		private long maximumWeight = 32 * 1024 * 1024;
+
+		private Builder() {
+		}
+
+		/**
+		 * @param textileFilter The filter rendering the blocks, defaults to a new {@link TextileFilter}
+		 * @return This builder
+		 */
+		public Builder textileFilter(final TextileFilter textileFilter) {
+			this.textileFilter = Objects.requireNonNull(textileFilter, "Textile filter must not be null");
+			return this;
+		}
+
+		/**
+		 * @param maximumSize Maximum number of cached blocks, defaults to 10.000
+		 * @return This builder
+		 */
+		public Builder maximumSize(final int maximumSize) {
+			this.maximumSize = maximumSize;
+			return this;
+		}
+
+		/**
+		 * @param maximumWeight Maximum number of characters of markup held by the cache, defaults to 32M
+		 * @return This builder
+		 */
+		public Builder maximumWeight(final long maximumWeight) {
+			this.maximumWeight = maximumWeight;
+			return this;
+		}
+
+		/**
+		 * @return A new incremental filter
+		 */
+		public IncrementalTextileFilter build() {
+			return new IncrementalTextileFilter(this);
+		}
+	}
+
+	/**
+	 * Starts the configuration of a new incremental filter.
+	 *
+	 * @return A builder for a new incremental filter
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	private final TextileFilter textileFilter;
+
+	private final SegmentedLruCache<ContentHash, String> cache;
+
+	private IncrementalTextileFilter(final Builder builder) {
+		this.textileFilter = builder.textileFilter == null ? new TextileFilter() : builder.textileFilter;
+		this.cache = new SegmentedLruCache<>(builder.maximumSize, builder.maximumWeight, (key, value) -> ContentHash.SIZE + value.length());
+	}
+
+	/**
+	 * Parses the incoming string as textile content and returns a formatted html document, rendering
+	 * only blocks that haven't been rendered before.
+	 *
+	 * @param textileContent Content in Textile format
+	 * @param baseUrl        An optional base url for resolving relative urls
+	 * @return Formatted document
+	 */
+	@Override
+	public String apply(final String textileContent, final String baseUrl) {
+		if (textileContent == null || TextFilterSupport.isBlank(textileContent)) {
+			return textileContent;
+		}
+
+		final TextileSegments segments = TextileSegments.split(textileContent);
+		if (segments == null) {
+			return this.textileFilter.apply(textileContent, baseUrl);
+		}
+
+		final String linkDefinitions = segments.getLinkDefinitions();
+		final Context linkContext = new Context();
+		// The link definitions and the headings, footnotes and footnote references of the previous segments
+		final Context idContext = new Context();
+		boolean idContextExtended = false;
+
+		final StringBuilder rv = new StringBuilder(textileContent.length() * 2);
+		for (TextileSegments.Segment segment : segments.getSegments()) {
+			final boolean usesLinkDefinitions = !linkDefinitions.isEmpty() && (segment.usesLinkDefinitions() || segment.usesDocumentIds());
+			if (!(usesLinkDefinitions || segment.usesDocumentIds())) {
+				TextileSegments.join(rv, render(segment.getText()));
+				continue;
+			}
+
+			if (usesLinkDefinitions && linkContext.isEmpty()) {
+				final String linkDefinitionsOutput = render(linkDefinitions);
+				linkContext.append(linkDefinitions, linkDefinitionsOutput);
+				idContext.append(linkDefinitions, linkDefinitionsOutput);
+			}
+			if (!segment.usesDocumentIds()) {
+				final String output = renderInContext(linkContext, segment.getText());
+				if (output == null) {
+					return this.textileFilter.apply(textileContent, baseUrl);
+				}
+				TextileSegments.join(rv, output);
+				continue;
+			}
+
+			if (idContextExtended) {
+				// An extended block would swallow the segment
+				return this.textileFilter.apply(textileContent, baseUrl);
+			}
+			final String output = renderInContext(idContext, segment.getText());
+			final String documentIdText = segment.getDocumentIdText();
+			final String documentIdOutput = documentIdText.equals(segment.getText()) ? output : renderInContext(idContext, documentIdText);
+			if (output == null || documentIdOutput == null) {
+				return this.textileFilter.apply(textileContent, baseUrl);
+			}
+			idContext.append(documentIdText, documentIdOutput);
+			idContextExtended = segment.isExtended();
+			TextileSegments.join(rv, output);
+		}
+		return rv.toString();
+	}
+
+	/**
+	 * Removes all blocks from the cache. Statistics are not reset.
+	 */
+	public void invalidateAll() {
+		this.cache.clear();
+	}
+
+	/**
+	 * @return A snapshot of the current statistics, one request is one block
+	 */
+	public CachingTextFilter.Statistics getStatistics() {
+		return new CachingTextFilter.Statistics(this.cache.getHitCount(), this.cache.getMissCount(), this.cache.getEvictionCount(),
+				this.cache.getSize(), this.cache.getWeight());
+	}
+
+	private String render(final String textileContent) {
+		final ContentHash key = ContentHash.of(textileContent);
+		String rv = this.cache.get(key);
+		if (rv == null) {
+			rv = this.textileFilter.apply(textileContent, null);
+			this.cache.put(key, rv);
+		}
+		return rv;
+	}
+
+	/**
+	 * Renders {@code segment} after {@code context} and cuts off the markup of the context.
+	 *
+	 * @param context The blocks the segment depends on
+	 * @param segment The segment to render
+	 * @return The markup of the segment alone or {@literal null}, if the markup of the context isn't the expected one
+	 */
+	private String renderInContext(final Context context, final String segment) {
+		if (context.isEmpty()) {
+			return render(segment);
+		}
+
+		final ContentHash key = context.hashWith(segment);
+		String rv = this.cache.get(key);
+		if (rv == null) {
+			final String content = new StringBuilder(context.text.length() + segment.length() + 2)
+					.append(context.text).append("\n\n").append(segment).toString();
+			rv = TextileSegments.stripContext(this.textileFilter.apply(content, null), context.output);
+			if (rv == null) {
+				return null;
+			}
+			this.cache.put(key, rv);
+		}
+		return rv;
+	}
+
+	/**
+	 * The blocks following segments are rendered after, their markup and a running hash of the blocks, so that
+	 * every block is hashed only once per document.
+	 */
+	private static final class Context {
+
+		private final StringBuilder text = new StringBuilder();
+
+		private final StringBuilder output = new StringBuilder();
+
+		/**
+		 * Keys of segments never start with a line break, so both kinds of entries can share the cache.
+		 */
+		private final ContentHash.Hasher hasher = ContentHash.hasher().append("\n");
+
+		boolean isEmpty() {
+			return this.text.length() == 0;
+		}
+
+		void append(final String blocks, final String blocksOutput) {
+			if (blocks.isEmpty()) {
+				return;
+			}
+			if (this.text.length() > 0) {
+				this.text.append("\n\n");
+				this.hasher.append("\n\n");
+			}
+			this.text.append(blocks);
+			this.hasher.append(blocks);
+			TextileSegments.join(this.output, blocksOutput);
+		}
+
+		ContentHash hashWith(final String segment) {
+			return this.hasher.copy().append("\n\n").append(segment).hash();
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.io.FilterReader;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Objects;
+
+/**
+ * The implementation of {@link TextFilter#instrumented(String, TextFilterListener)}. Measures every call
+ * of another filter and reports it to a listener. Instrumented filters of this package still take part in
+ * the buffer reuse of a {@link TextFilterPipeline}.
+ *
+ * @author Michael J. Simons, 2018-08-01
+ */
+class InstrumentedTextFilter implements TextFilter {
+
+	/**
+	 * Creates an instrumented filter, which is a {@link TextFilterStage} if the delegate is one.
+	 */
+	static InstrumentedTextFilter of(final String name, final TextFilter delegate, final TextFilterListener listener) {
+		Objects.requireNonNull(name, "Name must not be null");
+		Objects.requireNonNull(listener, "Listener must not be null");
+		return delegate instanceof TextFilterStage ?
+				new InstrumentedStage(name, delegate, listener) : new InstrumentedTextFilter(name, delegate, listener);
+	}
+
+	final String name;
+
+	final TextFilter delegate;
+
+	final TextFilterListener listener;
+
+	private InstrumentedTextFilter(final String name, final TextFilter delegate, final TextFilterListener listener) {
+		this.name = name;
+		this.delegate = delegate;
+		this.listener = listener;
+	}
+
+	@Override
+	public String apply(final String input, final String baseUrl) {
+		if (!this.listener.isEnabled()) {
+			return this.delegate.apply(input, baseUrl);
+		}
+
+		final long start = System.nanoTime();
+		final String rv;
+		try {
+			rv = this.delegate.apply(input, baseUrl);
+		} catch (RuntimeException | Error e) {
+			this.listener.failed(this.name, System.nanoTime() - start, e);
+			throw e;
+		}
+		this.listener.filtered(this.name, input == null ? 0 : input.length(), rv == null ? 0 : rv.length(), System.nanoTime() - start);
+		return rv;
+	}
+
+	@Override
+	public void apply(final Reader in, final Writer out, final String baseUrl) throws IOException {
+		if (!this.listener.isEnabled()) {
+			this.delegate.apply(in, out, baseUrl);
+			return;
+		}
+
+		final CountingReader countingIn = new CountingReader(in);
+		final CountingWriter countingOut = new CountingWriter(out);
+		final long start = System.nanoTime();
+		try {
+			this.delegate.apply(countingIn, countingOut, baseUrl);
+		} catch (IOException | RuntimeException | Error e) {
+			this.listener.failed(this.name, System.nanoTime() - start, e);
+			throw e;
+		}
+		this.listener.filtered(this.name, countingIn.count, countingOut.count, System.nanoTime() - start);
+	}
+
+	private static final class InstrumentedStage extends InstrumentedTextFilter implements TextFilterStage {
+
+		InstrumentedStage(final String name, final TextFilter delegate, final TextFilterListener listener) {
+			super(name, delegate, listener);
+		}
+
+		@Override
+		public CharSequence applyStage(final CharSequence input, final String baseUrl, final StringBuilder buffer) {
+			final TextFilterStage stage = (TextFilterStage) this.delegate;
+			if (!this.listener.isEnabled()) {
+				return stage.applyStage(input, baseUrl, buffer);
+			}
+
+			final long start = System.nanoTime();
+			final CharSequence rv;
+			try {
+				rv = stage.applyStage(input, baseUrl, buffer);
+			} catch (RuntimeException | Error e) {
+				this.listener.failed(this.name, System.nanoTime() - start, e);
+				throw e;
+			}
+			this.listener.filtered(this.name, input.length(), rv.length(), System.nanoTime() - start);
+			return rv;
+		}
+
+		@Override
+		public CharSequence applyStage(final CharSequence input, final String baseUrl, final StringBuilder buffer, final TextFilterBudget budget) {
+			final TextFilterStage stage = (TextFilterStage) this.delegate;
+			if (!this.listener.isEnabled()) {
+				return stage.applyStage(input, baseUrl, buffer, budget);
+			}
+
+			final long start = System.nanoTime();
+			final CharSequence rv;
+			try {
+				rv = stage.applyStage(input, baseUrl, buffer, budget);
+			} catch (RuntimeException | Error e) {
+				this.listener.failed(this.name, System.nanoTime() - start, e);
+				throw e;
+			}
+			this.listener.filtered(this.name, input.length(), rv.length(), System.nanoTime() - start);
+			return rv;
+		}
+
+		@Override
+		public boolean scansInput() {
+			return ((TextFilterStage) this.delegate).scansInput();
+		}
+	}
+
+	private static final class CountingReader extends FilterReader {
+
+		long count;
+
+		CountingReader(final Reader in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int rv = super.read();
+			if (rv != -1) {
+				++this.count;
+			}
+			return rv;
+		}
+
+		@Override
+		public int read(final char[] cbuf, final int off, final int len) throws IOException {
+			final int rv = super.read(cbuf, off, len);
+			if (rv > 0) {
+				this.count += rv;
+			}
+			return rv;
+		}
+
+		@Override
+		public long skip(final long n) throws IOException {
+			final long rv = super.skip(n);
+			this.count += rv;
+			return rv;
+		}
+
+		@Override
+		public boolean markSupported() {
+			// Counting reset characters twice would be wrong
+			return false;
+		}
+
+		@Override
+		public void close() {
+			// The stream belongs to the caller
+		}
+	}
+
+	private static final class CountingWriter extends FilterWriter {
+
+		long count;
+
+		CountingWriter(final Writer out) {
+			super(out);
+		}
+
+		@Override
+		public void write(final int c) throws IOException {
+			super.write(c);
+			++this.count;
+		}
+
+		@Override
+		public void write(final char[] cbuf, final int off, final int len) throws IOException {
+			super.write(cbuf, off, len);
+			this.count += len;
+		}
+
+		@Override
+		public void write(final String str, final int off, final int len) throws IOException {
+			super.write(str, off, len);
+			this.count += len;
+		}
+
+		@Override
+		public void close() throws IOException {
+			// The stream belongs to the caller
+			flush();
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * A lock free histogram of positive values with log-linear buckets in the style of HdrHistogram: Every power
+ * of two is divided into {@value #SUB_BUCKETS} buckets of equal width, so that the relative error of a recorded
+ * value is below 1/{@value #SUB_BUCKETS}, independent of its magnitude. Recording a value is one increment
+ * of an array element, the histogram has a fixed size of less than 8kb.
+ *
+ * @author Michael J. Simons, 2018-08-01
+ */
+final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Values below {@link #SUB_BUCKETS} have a bucket of their own, every further power of two up to 2^62 gets
+	 * {@link #SUB_BUCKETS} buckets.
+	 */
+	private static final int NUMBER_OF_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(NUMBER_OF_BUCKETS);
+
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * @param value The value to record, negative values are recorded as {@literal 0}
+	 */
+	void record(final long value) {
+		final long v = Math.max(0, value);
+		this.counts.incrementAndGet(indexOf(v));
+		this.max.accumulate(v);
+	}
+
+	/**
+	 * @return A copy of the current counts
+	 */
+	long[] getCounts() {
+		final long[] rv = new long[NUMBER_OF_BUCKETS];
+		for (int i = 0; i < rv.length; ++i) {
+			rv[i] = this.counts.get(i);
+		}
+		return rv;
+	}
+
+	long getMax() {
+		return this.max.get();
+	}
+
+	static int indexOf(final long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @param index The index of a bucket
+	 * @return The highest value recorded in the bucket
+	 */
+	static long highestValueOf(final int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		final long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+		return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Renders large Textile documents in parallel. A document is split into as many chunks of whole blocks as the pool
+ * has workers, each chunk is rendered by its own task with its own renderer and the markup of the chunks is joined
+ * in order. The output is the same as the output of {@link TextileFilter}, documents shorter than the minimum length
+ * are rendered by it directly.
+ * <br>
+ * Like with the {@link IncrementalTextileFilter}, chunks containing headings or footnotes are rendered after all
+ * previous headings, footnotes and lines with footnote references of the document, chunks with aliased links after
+ * all link definitions. The markup of those is cut off. It is rendered once, the headings and footnotes of each chunk
+ * after those of the previous chunks, while the chunks are rendered. Documents that can't be split are rendered as
+ * a whole.
+ *
+ * @author Michael J. Simons, 2018-08-03
+ */
+public final class ParallelTextileFilter implements TextFilter {
+
+	/**
+	 * Chunks are never shorter than this, smaller documents are split into less chunks.
+	 */
+	private static final int MINIMUM_CHUNK_LENGTH = 16 * 1024;
+
+	/**
+	 * Configures a {@link ParallelTextileFilter}.
+	 */
+	public static final class Builder {
+
+		private TextileFilter textileFilter;
+
+		private int minimumLength = 64 * 1024;
+
+		private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+		private Builder() {
+		}
+
+		/**
+		 * @param textileFilter The filter rendering the chunks, defaults to a new {@link TextileFilter}
+		 * @return This builder
+		 */
+		public Builder textileFilter(final TextileFilter textileFilter) {
+			this.textileFilter = Objects.requireNonNull(textileFilter, "Textile filter must not be null");
+			return this;
+		}
+
+		/**
+		 * @param minimumLength Minimum length of documents that are rendered in parallel, defaults to 64K
+		 * @return This builder
+		 */
+		public Builder minimumLength(final int minimumLength) {
+			if (minimumLength < 0) {
+				throw new IllegalArgumentException("The minimum length must not be negative.");
+			}
+			this.minimumLength = minimumLength;
+			return this;
+		}
+
+		/**
+		 * @param pool The pool rendering the chunks, defaults to the common pool
+		 * @return This builder
+		 */
+		public Builder pool(final ForkJoinPool pool) {
+			this.pool = Objects.requireNonNull(pool, "Pool must not be null");
+			return this;
+		}
+
+		/**
+		 * @return A new parallel filter
+		 */
+		public ParallelTextileFilter build() {
+			return new ParallelTextileFilter(this);
+		}
+	}
+
+	/**
+	 * Starts the configuration of a new parallel filter.
+	 *
+	 * @return A builder for a new parallel filter
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	private final TextileFilter textileFilter;
+
+	private final int minimumLength;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Number of documents that have been rendered in chunks.
+	 */
+	private final LongAdder chunkedCount = new LongAdder();
+
+	private ParallelTextileFilter(final Builder builder) {
+		this.textileFilter = builder.textileFilter == null ? new TextileFilter() : builder.textileFilter;
+		this.minimumLength = builder.minimumLength;
+		this.pool = builder.pool;
+	}
+
+	/**
+	 * Parses the incoming string as textile content and returns a formatted html document, rendering
+	 * large documents in parallel.
+	 *
+	 * @param textileContent Content in Textile format
+	 * @param baseUrl        An optional base url for resolving relative urls
+	 * @return Formatted document
+	 */
+	@Override
+	public String apply(final String textileContent, final String baseUrl) {
+		if (textileContent == null || TextFilterSupport.isBlank(textileContent)) {
+			return textileContent;
+		}
+
+		final int numberOfChunks = Math.min(this.pool.getParallelism(), textileContent.length() / MINIMUM_CHUNK_LENGTH);
+		if (textileContent.length() < this.minimumLength || numberOfChunks < 2) {
+			return this.textileFilter.apply(textileContent, baseUrl);
+		}
+
+		final TextileSegments segments = TextileSegments.split(textileContent);
+		final List<Chunk> chunks = segments == null ? null : split(segments, textileContent.length() / numberOfChunks);
+		if (chunks == null) {
+			return this.textileFilter.apply(textileContent, baseUrl);
+		}
+
+		final String linkDefinitions = segments.getLinkDefinitions();
+		final CompletableFuture<String> noContextOutput = CompletableFuture.completedFuture("");
+		final CompletableFuture<String> linkDefinitionsOutput = linkDefinitions.isEmpty()
+				? noContextOutput
+				: CompletableFuture.supplyAsync(() -> this.textileFilter.apply(linkDefinitions, null), this.pool);
+		// The markup of the context of the next chunk using document ids
+		CompletableFuture<String> idContextOutput = linkDefinitionsOutput;
+
+		@SuppressWarnings("unchecked")
+		final CompletableFuture<String>[] tasks = new CompletableFuture[chunks.size()];
+		for (int i = 0; i < tasks.length; ++i) {
+			final Chunk chunk = chunks.get(i);
+			final CompletableFuture<String> contextOutput = chunk.usesDocumentIds ? idContextOutput
+					: chunk.context.isEmpty() ? noContextOutput : linkDefinitionsOutput;
+			tasks[i] = contextOutput.thenApplyAsync(output -> chunk.render(this.textileFilter, output), this.pool);
+			if (chunk.usesDocumentIds && i < tasks.length - 1) {
+				idContextOutput = idContextOutput.thenApplyAsync(output -> chunk.extendContext(this.textileFilter, output), this.pool);
+			}
+		}
+		TextFilterBatch.join(CompletableFuture.allOf(tasks));
+
+		final StringBuilder rv = new StringBuilder(textileContent.length() * 2);
+		for (CompletableFuture<String> task : tasks) {
+			final String output = task.join();
+			if (output == null) {
+				return this.textileFilter.apply(textileContent, baseUrl);
+			}
+			TextileSegments.join(rv, output);
+		}
+		this.chunkedCount.increment();
+		return rv.toString();
+	}
+
+	/**
+	 * @return The number of documents that have been rendered in chunks instead of as a whole
+	 */
+	long getChunkedCount() {
+		return this.chunkedCount.sum();
+	}
+
+	/**
+	 * Groups the segments into chunks of at least {@code chunkLength} characters.
+	 *
+	 * @return The chunks or {@literal null}, if a chunk would be swallowed by an extended block of its context
+	 */
+	private static List<Chunk> split(final TextileSegments segments, final int chunkLength) {
+		final String linkDefinitions = segments.getLinkDefinitions();
+		// The text taking up ids of all segments so far
+		final StringBuilder idContext = new StringBuilder();
+		boolean idContextExtended = false;
+
+		final List<Chunk> rv = new ArrayList<>();
+		final StringBuilder text = new StringBuilder(chunkLength * 2);
+		final StringBuilder documentIdText = new StringBuilder();
+		String chunkIdContext = "";
+		boolean chunkIdContextExtended = false;
+		boolean usesDocumentIds = false;
+		boolean usesLinkDefinitions = false;
+		final List<TextileSegments.Segment> allSegments = segments.getSegments();
+		for (int i = 0; i < allSegments.size(); ++i) {
+			final TextileSegments.Segment segment = allSegments.get(i);
+			if (text.length() == 0) {
+				chunkIdContext = idContext.toString();
+				chunkIdContextExtended = idContextExtended;
+			} else {
+				text.append("\n\n");
+			}
+			text.append(segment.getText());
+			usesDocumentIds |= segment.usesDocumentIds();
+			usesLinkDefinitions |= !linkDefinitions.isEmpty() && (segment.usesLinkDefinitions() || segment.usesDocumentIds());
+			if (segment.usesDocumentIds()) {
+				idContext.append(idContext.length() == 0 ? "" : "\n\n").append(segment.getDocumentIdText());
+				documentIdText.append(documentIdText.length() == 0 ? "" : "\n\n").append(segment.getDocumentIdText());
+				idContextExtended = segment.isExtended();
+			}
+			if (text.length() < chunkLength && i < allSegments.size() - 1) {
+				continue;
+			}
+
+			if (usesDocumentIds && chunkIdContextExtended) {
+				return null;
+			}
+			rv.add(new Chunk(
+					context(usesLinkDefinitions ? linkDefinitions : "", usesDocumentIds ? chunkIdContext : ""),
+					text.toString(),
+					usesDocumentIds,
+					documentIdText.toString()
+			));
+			text.setLength(0);
+			documentIdText.setLength(0);
+			usesDocumentIds = false;
+			usesLinkDefinitions = false;
+		}
+		return rv;
+	}
+
+	private static String context(final String linkDefinitions, final String idContext) {
+		if (linkDefinitions.isEmpty() || idContext.isEmpty()) {
+			return linkDefinitions + idContext;
+		}
+		return linkDefinitions + "\n\n" + idContext;
+	}
+
+	/**
+	 * Contiguous segments of a document and the blocks they have to be rendered after.
+	 */
+	private static final class Chunk {
+
+		private final String context;
+
+		private final String text;
+
+		private final boolean usesDocumentIds;
+
+		/**
+		 * The text taking up ids of the segments of this chunk.
+		 */
+		private final String documentIdText;
+
+		Chunk(final String context, final String text, final boolean usesDocumentIds, final String documentIdText) {
+			this.context = context;
+			this.text = text;
+			this.usesDocumentIds = usesDocumentIds;
+			this.documentIdText = documentIdText;
+		}
+
+		/**
+		 * @param contextOutput The markup of the context, {@literal null} if it isn't the expected one
+		 * @return The markup of the chunk alone or {@literal null}, if the markup of the context isn't the expected one
+		 */
+		String render(final TextileFilter textileFilter, final String contextOutput) {
+			return renderInContext(textileFilter, contextOutput, this.text);
+		}
+
+		/**
+		 * @param contextOutput The markup of the context, {@literal null} if it isn't the expected one
+		 * @return The markup of the context of the next chunk using document ids or {@literal null}, if the markup of
+		 * the context isn't the expected one
+		 */
+		String extendContext(final TextileFilter textileFilter, final String contextOutput) {
+			final String output = renderInContext(textileFilter, contextOutput, this.documentIdText);
+			if (output == null) {
+				return null;
+			}
+			final StringBuilder rv = new StringBuilder(contextOutput.length() + output.length() + 1).append(contextOutput);
+			TextileSegments.join(rv, output);
+			return rv.toString();
+		}
+
+		private String renderInContext(final TextileFilter textileFilter, final String contextOutput, final String content) {
+			if (contextOutput == null) {
+				return null;
+			}
+			if (this.context.isEmpty()) {
+				return textileFilter.apply(content, null);
+			}
+			return TextileSegments.stripContext(textileFilter.apply(this.context + "\n\n" + content, null), contextOutput);
+		}
+	}
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * A size and weight bounded cache with segmented LRU eviction: New entries start in a probationary
+ * segment and are promoted to a protected segment on their first hit. Entries that are read only once
+ * - like a crawler walking through all old posts - therefore can't push out the hot entries.
+ * <br>
+ * The cache is split into stripes by the hash of the key, each with its own lock, so that
+ * concurrent writes of different keys rarely contend. Reads don't take the lock at all: Entries are
+ * looked up in a concurrent map and hits are recorded in a small lossy buffer per stripe, which is
+ * applied to the segments by whoever holds the lock next. Readers of a hot entry therefore never
+ * wait for each other, only the order of the segments may lag behind a few hits.
+ *
+ * @param <K> Type of the keys
+ * @param <V> Type of the values
+ * @author Michael J. Simons, 2018-07-24
+ */
+final class SegmentedLruCache<K, V> {
+
+	/**
+	 * Percentage of each stripe reserved for protected entries.
+	 */
+	private static final int PROTECTED_PERCENTAGE = 80;
+
+	private final Stripe<K, V>[] stripes;
+
+	private final ToIntBiFunction<K, V> weigher;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maximumSize   Maximum number of entries
+	 * @param maximumWeight Maximum sum of the weights of all entries
+	 * @param weigher       Computes the weight of an entry
+	 */
+	@SuppressWarnings("unchecked")
+	SegmentedLruCache(final int maximumSize, final long maximumWeight, final ToIntBiFunction<K, V> weigher) {
+		if (maximumSize <= 0 || maximumWeight <= 0) {
+			throw new IllegalArgumentException("Maximum size and weight must be greater than 0");
+		}
+
+		// A power of two near the number of processors, but no stripe should be smaller than 16 entries
+		int numberOfStripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2);
+		while (numberOfStripes > 1 && maximumSize / numberOfStripes < 16) {
+			numberOfStripes /= 2;
+		}
+
+		this.weigher = weigher;
+		this.stripes = new Stripe[numberOfStripes];
+		for (int i = 0; i < numberOfStripes; ++i) {
+			this.stripes[i] = new Stripe<>(
+					Math.max(1, maximumSize / numberOfStripes), Math.max(1, maximumWeight / numberOfStripes), this.evictions);
+		}
+	}
+
+	/**
+	 * @param key The key to look up
+	 * @return The cached value or {@literal null}
+	 */
+	V get(final K key) {
+		final V value = stripeFor(key).get(key);
+		(value == null ? this.misses : this.hits).increment();
+		return value;
+	}
+
+	/**
+	 * Caches {@code value} under {@code key}. Values heavier than a stripe are not cached at all.
+	 *
+	 * @param key   The key
+	 * @param value The value
+	 */
+	void put(final K key, final V value) {
+		stripeFor(key).put(key, value, this.weigher.applyAsInt(key, value));
+	}
+
+	void clear() {
+		for (Stripe<K, V> stripe : this.stripes) {
+			stripe.clear();
+		}
+	}
+
+	long getHitCount() {
+		return this.hits.sum();
+	}
+
+	long getMissCount() {
+		return this.misses.sum();
+	}
+
+	long getEvictionCount() {
+		return this.evictions.sum();
+	}
+
+	long getSize() {
+		long size = 0;
+		for (Stripe<K, V> stripe : this.stripes) {
+			size += stripe.getSize();
+		}
+		return size;
+	}
+
+	long getWeight() {
+		long weight = 0;
+		for (Stripe<K, V> stripe : this.stripes) {
+			weight += stripe.getWeight();
+		}
+		return weight;
+	}
+
+	private Stripe<K, V> stripeFor(final K key) {
+		final int h = key.hashCode();
+		return this.stripes[(h ^ (h >>> 16)) & (this.stripes.length - 1)];
+	}
+
+	private static final class Entry<K, V> {
+		final K key;
+
+		volatile V value;
+
+		int weight;
+
+		Entry(final K key, final V value, final int weight) {
+			this.key = key;
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	private static final class Stripe<K, V> {
+
+		/**
+		 * Number of hits recorded before they are applied, a power of two.
+		 */
+		private static final int READ_BUFFER_SIZE = 32;
+
+		private final ReentrantLock lock = new ReentrantLock();
+
+		private final int maximumSize;
+
+		private final long maximumWeight;
+
+		private final long maximumProtectedWeight;
+
+		private final LongAdder evictions;
+
+		/**
+		 * All entries of both segments for lookups without the lock, only changed while holding it.
+		 */
+		private final ConcurrentHashMap<K, Entry<K, V>> entries = new ConcurrentHashMap<>();
+
+		/**
+		 * Both segments are kept in access order, the eldest entry is the least recently used. They are
+		 * only accessed while holding the lock.
+		 */
+		private final LinkedHashMap<K, Entry<K, V>> probation = new LinkedHashMap<>(16, 0.75f, true);
+
+		private final LinkedHashMap<K, Entry<K, V>> protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+		private long probationWeight;
+
+		private long protectedWeight;
+
+		/**
+		 * Hits that have not been applied to the segments yet. Hits are dropped when the buffer is full.
+		 */
+		private final AtomicReferenceArray<Entry<K, V>> readBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+
+		private final AtomicLong readBufferWrites = new AtomicLong();
+
+		/**
+		 * Only written while holding the lock.
+		 */
+		private volatile long readBufferReads;
+
+		Stripe(final int maximumSize, final long maximumWeight, final LongAdder evictions) {
+			this.maximumSize = maximumSize;
+			this.maximumWeight = maximumWeight;
+			this.maximumProtectedWeight = maximumWeight * PROTECTED_PERCENTAGE / 100;
+			this.evictions = evictions;
+		}
+
+		/**
+		 * Looks up an entry without taking the lock. The hit is recorded in the read buffer and applied to the
+		 * segments later by the thread that holds the lock next or that finds the buffer half full, so that
+		 * readers of a hot entry don't wait for each other.
+		 */
+		V get(final K key) {
+			final Entry<K, V> entry = this.entries.get(key);
+			if (entry == null) {
+				return null;
+			}
+			recordHit(entry);
+			return entry.value;
+		}
+
+		private void recordHit(final Entry<K, V> entry) {
+			final long writes = this.readBufferWrites.get();
+			final long pending = writes - this.readBufferReads;
+			if (pending < READ_BUFFER_SIZE && this.readBufferWrites.compareAndSet(writes, writes + 1)) {
+				this.readBuffer.lazySet((int) writes & (READ_BUFFER_SIZE - 1), entry);
+			}
+			if (pending >= READ_BUFFER_SIZE / 2 && this.lock.tryLock()) {
+				try {
+					drainReadBuffer();
+				} finally {
+					this.lock.unlock();
+				}
+			}
+		}
+
+		/**
+		 * Applies the recorded hits, must be called while holding the lock.
+		 */
+		private void drainReadBuffer() {
+			final long writes = this.readBufferWrites.get();
+			long reads = this.readBufferReads;
+			while (reads < writes) {
+				final Entry<K, V> entry = this.readBuffer.getAndSet((int) reads & (READ_BUFFER_SIZE - 1), null);
+				if (entry == null) {
+					// The slot has been claimed, but not written yet
+					break;
+				}
+				applyHit(entry);
+				++reads;
+			}
+			this.readBufferReads = reads;
+		}
+
+		private void applyHit(final Entry<K, V> entry) {
+			// Entries that have been evicted in the meantime are ignored, a get moves protected entries to the end
+			if (this.protectedEntries.get(entry.key) == entry || this.probation.get(entry.key) != entry) {
+				return;
+			}
+
+			this.probation.remove(entry.key);
+			this.probationWeight -= entry.weight;
+			this.protectedEntries.put(entry.key, entry);
+			this.protectedWeight += entry.weight;
+
+			// Demote the least recently used protected entries back into probation
+			final Iterator<Map.Entry<K, Entry<K, V>>> eldest = this.protectedEntries.entrySet().iterator();
+			while (this.protectedWeight > this.maximumProtectedWeight && this.protectedEntries.size() > 1) {
+				final Map.Entry<K, Entry<K, V>> demoted = eldest.next();
+				eldest.remove();
+				this.protectedWeight -= demoted.getValue().weight;
+				this.probation.put(demoted.getKey(), demoted.getValue());
+				this.probationWeight += demoted.getValue().weight;
+			}
+		}
+
+		void put(final K key, final V value, final int weight) {
+			if (weight > this.maximumWeight) {
+				return;
+			}
+
+			lock.lock();
+			try {
+				drainReadBuffer();
+				Entry<K, V> entry = this.protectedEntries.get(key);
+				if (entry != null) {
+					this.protectedWeight += weight - entry.weight;
+				} else {
+					entry = this.probation.get(key);
+					if (entry != null) {
+						this.probationWeight += weight - entry.weight;
+					} else {
+						entry = new Entry<>(key, value, weight);
+						this.probation.put(key, entry);
+						this.entries.put(key, entry);
+						this.probationWeight += weight;
+					}
+				}
+				entry.value = value;
+				entry.weight = weight;
+
+				evict();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void evict() {
+			while (this.probation.size() + this.protectedEntries.size() > this.maximumSize
+					|| this.probationWeight + this.protectedWeight > this.maximumWeight) {
+				if (!this.probation.isEmpty()) {
+					this.probationWeight -= removeEldest(this.probation);
+				} else {
+					this.protectedWeight -= removeEldest(this.protectedEntries);
+				}
+				this.evictions.increment();
+			}
+		}
+
+		private int removeEldest(final LinkedHashMap<K, Entry<K, V>> segment) {
+			final Iterator<Entry<K, V>> eldest = segment.values().iterator();
+			final Entry<K, V> entry = eldest.next();
+			eldest.remove();
+			this.entries.remove(entry.key, entry);
+			return entry.weight;
+		}
+
+		void clear() {
+			lock.lock();
+			try {
+				drainReadBuffer();
+				this.entries.clear();
+				this.probation.clear();
+				this.protectedEntries.clear();
+				this.probationWeight = 0;
+				this.protectedWeight = 0;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		int getSize() {
+			lock.lock();
+			try {
+				return this.probation.size() + this.protectedEntries.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		long getWeight() {
+			lock.lock();
+			try {
+				return this.probationWeight + this.protectedWeight;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
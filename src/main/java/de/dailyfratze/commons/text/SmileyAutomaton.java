@@ -0,0 +1,429 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * An Aho-Corasick automaton over all codes of a smiley pack. It finds the same
+ * codes as the regular expression generated by {@link SmileyFilter#generateRegex()}
+ * in one linear scan over the input:
+ * <ul>
+ * <li>A code must start at the beginning of the input, after whitespace, a line terminator or a punctuation character other than {@code "}.</li>
+ * <li>A code must end at the end of the input or before whitespace, a line terminator or a punctuation character.</li>
+ * <li>Of all codes that fulfill those rules, the leftmost and then the longest is taken. Codes don't overlap.</li>
+ * <li>Only ASCII characters are matched case insensitive.</li>
+ * </ul>
+ * Instances are immutable and thread safe.
+ *
+ * @author Michael J. Simons, 2018-07-21
+ */
+final class SmileyAutomaton {
+
+	/**
+	 * Receives the matches found by {@link #scan(CharSequence, MatchHandler)}
+	 * in ascending order.
+	 */
+	@FunctionalInterface
+	interface MatchHandler {
+		/**
+		 * @param start Start of the match (inclusive)
+		 * @param end   End of the match (exclusive)
+		 * @param code  Index of the matched code
+		 */
+		void onMatch(int start, int end, int code);
+	}
+
+	private static final int ROOT = 0;
+
+	private static final int NONE = -1;
+
+	/**
+	 * All codes known to this automaton, lower cased.
+	 */
+	private final String[] codes;
+
+	private final int maximumCodeLength;
+
+	/**
+	 * Transitions of the root state for ASCII characters, the most common case.
+	 */
+	private final int[] rootTransitions;
+
+	/**
+	 * The transitions of state {@code s} are stored in {@link #labels} and {@link #targets}
+	 * from {@code firstTransition[s]} (inclusive) to {@code firstTransition[s + 1]} (exclusive),
+	 * sorted by label.
+	 */
+	private final int[] firstTransition;
+
+	private final char[] labels;
+
+	private final int[] targets;
+
+	private final int[] failure;
+
+	/**
+	 * The code recognized in a state or {@link #NONE}.
+	 */
+	private final int[] codeOf;
+
+	/**
+	 * The next state on the failure chain that recognizes a code or {@link #NONE}.
+	 */
+	private final int[] nextOutput;
+
+	SmileyAutomaton(final Collection<String> codes) {
+		this.codes = codes.stream().filter(code -> !code.isEmpty()).toArray(String[]::new);
+		this.maximumCodeLength = Arrays.stream(this.codes).mapToInt(String::length).max().orElse(0);
+
+		// Build a trie first
+		final List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+		final List<Integer> recognizedCodes = new ArrayList<>();
+		trie.add(new TreeMap<>());
+		recognizedCodes.add(NONE);
+		for (int i = 0; i < this.codes.length; ++i) {
+			int state = ROOT;
+			for (char c : this.codes[i].toCharArray()) {
+				final Integer next = trie.get(state).get(c);
+				if (next == null) {
+					trie.add(new TreeMap<>());
+					recognizedCodes.add(NONE);
+					trie.get(state).put(c, trie.size() - 1);
+					state = trie.size() - 1;
+				} else {
+					state = next;
+				}
+			}
+			recognizedCodes.set(state, i);
+		}
+
+		// Number the states breadth first, so that the failure links of a state are known before the state is visited
+		final int numberOfStates = trie.size();
+		final int[] newNumber = new int[numberOfStates];
+		final int[] oldNumber = new int[numberOfStates];
+		final Queue<Integer> queue = new ArrayDeque<>();
+		queue.add(ROOT);
+		int cnt = 0;
+		while (!queue.isEmpty()) {
+			final int state = queue.poll();
+			newNumber[state] = cnt;
+			oldNumber[cnt++] = state;
+			queue.addAll(trie.get(state).values());
+		}
+
+		this.firstTransition = new int[numberOfStates + 1];
+		this.labels = new char[numberOfStates - 1];
+		this.targets = new int[numberOfStates - 1];
+		this.codeOf = new int[numberOfStates];
+		int transition = 0;
+		for (int state = 0; state < numberOfStates; ++state) {
+			this.firstTransition[state] = transition;
+			this.codeOf[state] = recognizedCodes.get(oldNumber[state]);
+			for (var entry : trie.get(oldNumber[state]).entrySet()) {
+				this.labels[transition] = entry.getKey();
+				this.targets[transition++] = newNumber[entry.getValue()];
+			}
+		}
+		this.firstTransition[numberOfStates] = transition;
+
+		this.rootTransitions = new int[128];
+		Arrays.fill(this.rootTransitions, ROOT);
+		for (int i = this.firstTransition[ROOT]; i < this.firstTransition[ROOT + 1]; ++i) {
+			if (this.labels[i] < 128) {
+				this.rootTransitions[this.labels[i]] = this.targets[i];
+			}
+		}
+
+		this.failure = new int[numberOfStates];
+		this.nextOutput = new int[numberOfStates];
+		this.nextOutput[ROOT] = NONE;
+		for (int state = 0; state < numberOfStates; ++state) {
+			for (int i = this.firstTransition[state]; i < this.firstTransition[state + 1]; ++i) {
+				final int child = this.targets[i];
+				final int fallback = state == ROOT ? ROOT : next(this.failure[state], this.labels[i]);
+				this.failure[child] = fallback;
+				this.nextOutput[child] = this.codeOf[fallback] == NONE ? this.nextOutput[fallback] : fallback;
+			}
+		}
+	}
+
+	private SmileyAutomaton(final String[] codes, final int[] rootTransitions, final int[] firstTransition, final char[] labels,
+			final int[] targets, final int[] failure, final int[] codeOf, final int[] nextOutput) {
+		this.codes = codes;
+		this.maximumCodeLength = Arrays.stream(this.codes).mapToInt(String::length).max().orElse(0);
+		this.rootTransitions = rootTransitions;
+		this.firstTransition = firstTransition;
+		this.labels = labels;
+		this.targets = targets;
+		this.failure = failure;
+		this.codeOf = codeOf;
+		this.nextOutput = nextOutput;
+	}
+
+	/**
+	 * Reads an automaton written by {@link #writeTo(DataOutputStream)}, starting at the current position of {@code in}.
+	 * All lengths are checked against the remaining content before allocating anything and all states, transitions
+	 * and codes are checked to be in range, so that a corrupt automaton is rejected instead of failing while
+	 * scanning. Failure links and output links must lead to states with lower numbers, so that following them
+	 * always ends.
+	 *
+	 * @param in The compiled automaton
+	 * @return A new automaton
+	 * @throws IllegalArgumentException if the automaton is inconsistent
+	 */
+	static SmileyAutomaton read(final ByteBuffer in) {
+		final String[] codes = new String[SmileyPack.readLength(in, Integer.BYTES)];
+		for (int i = 0; i < codes.length; ++i) {
+			codes[i] = SmileyPack.readString(in);
+		}
+		final int[] rootTransitions = readInts(in);
+		final int[] firstTransition = readInts(in);
+		final char[] labels = new char[SmileyPack.readLength(in, Character.BYTES)];
+		in.asCharBuffer().get(labels);
+		in.position(in.position() + labels.length * Character.BYTES);
+		final int[] targets = readInts(in);
+		final int[] failure = readInts(in);
+		final int[] codeOf = readInts(in);
+		final int[] nextOutput = readInts(in);
+
+		final int numberOfStates = codeOf.length;
+		if (numberOfStates == 0 || rootTransitions.length != 128 || firstTransition.length != numberOfStates + 1 || targets.length != labels.length
+				|| failure.length != numberOfStates || nextOutput.length != numberOfStates || firstTransition[0] != 0 || firstTransition[numberOfStates] != labels.length) {
+			throw new IllegalArgumentException("Inconsistent automaton");
+		}
+		for (int target : rootTransitions) {
+			checkState(target, numberOfStates);
+		}
+		for (int target : targets) {
+			checkState(target, numberOfStates);
+		}
+		for (int state = 0; state < numberOfStates; ++state) {
+			if (firstTransition[state] > firstTransition[state + 1]) {
+				throw new IllegalArgumentException(String.format("Inconsistent transitions of state %d", state));
+			}
+			for (int i = firstTransition[state] + 1; i < firstTransition[state + 1]; ++i) {
+				if (labels[i - 1] >= labels[i]) {
+					throw new IllegalArgumentException(String.format("Unsorted transitions of state %d", state));
+				}
+			}
+			if (codeOf[state] < NONE || codeOf[state] >= codes.length) {
+				throw new IllegalArgumentException(String.format("Invalid code %d", codeOf[state]));
+			}
+			if (state != ROOT && (failure[state] < 0 || failure[state] >= state)) {
+				throw new IllegalArgumentException(String.format("Invalid failure link %d of state %d", failure[state], state));
+			}
+			final int output = nextOutput[state];
+			if (output != NONE && (output < 0 || output >= state || codeOf[output] == NONE)) {
+				throw new IllegalArgumentException(String.format("Invalid output link %d of state %d", output, state));
+			}
+		}
+		return new SmileyAutomaton(codes, rootTransitions, firstTransition, labels, targets, failure, codeOf, nextOutput);
+	}
+
+	private static void checkState(final int state, final int numberOfStates) {
+		if (state < 0 || state >= numberOfStates) {
+			throw new IllegalArgumentException(String.format("Invalid state %d", state));
+		}
+	}
+
+	/**
+	 * Writes all states of this automaton.
+	 *
+	 * @param out The target
+	 * @throws IOException When writing fails
+	 */
+	void writeTo(final DataOutputStream out) throws IOException {
+		out.writeInt(this.codes.length);
+		for (String code : this.codes) {
+			SmileyPack.writeString(out, code);
+		}
+		writeInts(out, this.rootTransitions);
+		writeInts(out, this.firstTransition);
+		out.writeInt(this.labels.length);
+		for (char label : this.labels) {
+			out.writeChar(label);
+		}
+		writeInts(out, this.targets);
+		writeInts(out, this.failure);
+		writeInts(out, this.codeOf);
+		writeInts(out, this.nextOutput);
+	}
+
+	private static int[] readInts(final ByteBuffer in) {
+		final int[] rv = new int[SmileyPack.readLength(in, Integer.BYTES)];
+		in.asIntBuffer().get(rv);
+		in.position(in.position() + rv.length * Integer.BYTES);
+		return rv;
+	}
+
+	private static void writeInts(final DataOutputStream out, final int[] values) throws IOException {
+		out.writeInt(values.length);
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	/**
+	 * @param code Index of a code
+	 * @return The code with the given index
+	 */
+	String getCode(final int code) {
+		return this.codes[code];
+	}
+
+	/**
+	 * @return The number of codes known to this automaton
+	 */
+	int getNumberOfCodes() {
+		return this.codes.length;
+	}
+
+	/**
+	 * Scans {@code input} for codes and reports all matches to {@code handler}.
+	 *
+	 * @param input   The input to scan
+	 * @param handler Receives the matches
+	 */
+	void scan(final CharSequence input, final MatchHandler handler) {
+		scan(input, null, handler);
+	}
+
+	/**
+	 * Scans {@code input} for a subset of the codes and reports all matches to {@code handler}. The
+	 * matches are the same as those of an automaton built from the subset only.
+	 *
+	 * @param input         The input to scan
+	 * @param acceptedCodes Flags for every code whether it is part of the subset, {@literal null} for all codes
+	 * @param handler       Receives the matches
+	 */
+	void scan(final CharSequence input, final boolean[] acceptedCodes, final MatchHandler handler) {
+		final int length = input.length();
+		final int window = this.maximumCodeLength;
+		if (window == 0 || length == 0) {
+			return;
+		}
+
+		// The best match for a start position is only final once no longer code starting there can be found.
+		// The candidates are kept in a ring buffer indexed by start position.
+		final int[] bestEnd = new int[window];
+		final int[] bestCode = new int[window];
+		int emittedUntil = 0;
+		int state = ROOT;
+		for (int i = 0; i < length; ++i) {
+			state = next(state, fold(input.charAt(i)));
+
+			final int end = i + 1;
+			for (int s = this.codeOf[state] == NONE ? this.nextOutput[state] : state; s != NONE; s = this.nextOutput[s]) {
+				final int code = this.codeOf[s];
+				if (acceptedCodes != null && !acceptedCodes[code]) {
+					continue;
+				}
+				final int start = end - this.codes[code].length();
+				if (start >= emittedUntil && bestEnd[start % window] < end && isStartBoundary(input, start) && isEndBoundary(input, end, length)) {
+					bestEnd[start % window] = end;
+					bestCode[start % window] = code;
+				}
+			}
+
+			if (end >= window) {
+				emittedUntil = emit(end - window, bestEnd, bestCode, emittedUntil, handler);
+			}
+		}
+		for (int start = Math.max(0, length - window + 1); start < length; ++start) {
+			emittedUntil = emit(start, bestEnd, bestCode, emittedUntil, handler);
+		}
+	}
+
+	private static int emit(final int start, final int[] bestEnd, final int[] bestCode, final int emittedUntil, final MatchHandler handler) {
+		final int slot = start % bestEnd.length;
+		final int end = bestEnd[slot];
+		if (end == 0) {
+			return emittedUntil;
+		}
+		bestEnd[slot] = 0;
+		if (start < emittedUntil) {
+			return emittedUntil;
+		}
+		handler.onMatch(start, end, bestCode[slot]);
+		return end;
+	}
+
+	private int next(final int state, final char c) {
+		int current = state;
+		while (true) {
+			if (current == ROOT) {
+				return c < 128 ? this.rootTransitions[c] : transition(ROOT, c);
+			}
+			final int target = transition(current, c);
+			if (target != NONE) {
+				return target;
+			}
+			current = this.failure[current];
+		}
+	}
+
+	private int transition(final int state, final char c) {
+		final int i = Arrays.binarySearch(this.labels, this.firstTransition[state], this.firstTransition[state + 1], c);
+		return i < 0 ? (state == ROOT ? ROOT : NONE) : this.targets[i];
+	}
+
+	/**
+	 * Mimics {@link java.util.regex.Pattern#CASE_INSENSITIVE} without unicode case.
+	 */
+	static char fold(final char c) {
+		return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+	}
+
+	static boolean isStartBoundary(final CharSequence input, final int start) {
+		if (start == 0) {
+			return true;
+		}
+		final char c = input.charAt(start - 1);
+		return isWhitespaceOrLineTerminator(c) || (isPunctuation(c) && c != '"');
+	}
+
+	static boolean isEndBoundary(final CharSequence input, final int end, final int length) {
+		if (end == length) {
+			return true;
+		}
+		final char c = input.charAt(end);
+		return isWhitespaceOrLineTerminator(c) || isPunctuation(c);
+	}
+
+	/**
+	 * @return True for characters in {@code \s} and all line terminators recognized by {@code ^} and {@code $}
+	 */
+	private static boolean isWhitespaceOrLineTerminator(final char c) {
+		return c == ' ' || (c >= '\t' && c <= '\r') || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	/**
+	 * @return True for characters in {@code \p{Punct}}
+	 */
+	private static boolean isPunctuation(final char c) {
+		return (c >= '!' && c <= '/') || (c >= ':' && c <= '@') || (c >= '[' && c <= '`') || (c >= '{' && c <= '~');
+	}
+}
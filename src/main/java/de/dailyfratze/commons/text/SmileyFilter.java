@@ -17,103 +17,244 @@ package de.dailyfratze.commons.text;
 
 import static java.lang.String.format;
 import static java.util.stream.Collectors.collectingAndThen;
-import static java.util.stream.Collectors.groupingBy;
-import static java.util.stream.Collectors.mapping;
-import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
 
-import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-import java.util.AbstractMap;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
-import java.util.stream.Stream.Builder;
 
 import org.jsoup.nodes.Entities;
 
 /**
  * @author Michael J. Simons, 2014-12-25
  */
-public final class SmileyFilter implements TextFilter {
+public final class SmileyFilter implements TextFilter, TextFilterStage {
 
 	/**
-	 * Pattern used to separate different smiley codes for one smilie in the pak
-	 * file.
+	 * The engines available for finding smiley codes.
 	 */
-	private static final String CODE_SEPARATOR_PATTERN = Pattern.quote("=+:");
+	public enum Engine {
+		/**
+		 * One regular expression that ors all codes of the pack.
+		 */
+		REGEX,
+		/**
+		 * An Aho-Corasick automaton that finds all codes in one linear scan, regardless of the size of the pack.
+		 */
+		AHO_CORASICK
+	}
 
 	/**
-	 * The name of the current smileyPack.
+	 * The engine used for all packs of this filter.
 	 */
-	private String smileyPack;
+	private final Engine engine;
 
 	/**
-	 * The current smiley index. This map contains the smiley codes (like :*) as
-	 * keys and the corresponding image file as value. This is an unmodifiable
-	 * map.
+	 * The current pack. Every call reads it once and uses it until it is done, so that
+	 * reloading a pack never affects calls in progress.
 	 */
-	private Map<String, String> index;
+	private volatile Snapshot snapshot;
 
 	/**
-	 * The current reversed smiley index. This index contains the name of the
-	 * image file as key and the list of all codes available for this image as
-	 * value. This is an unmodifiable map.
+	 * An optional listener for the number of replaced codes.
 	 */
-	private Map<String, List<String>> reverseIndex;
+	private volatile TextFilterListener listener;
 
 	/**
-	 * The regular expression for processing texts and adding smilies to them.
+	 * Initialises a smiley service with the given smileyPack, using an {@link Engine#AHO_CORASICK} engine.
+	 *
+	 * @param smileyPack        The smiley pack in use
+	 * @param smileyPackContent The content of the pack
 	 */
-	private Pattern regex;
+	public SmileyFilter(final String smileyPack, final InputStream smileyPackContent) {
+		this(smileyPack, smileyPackContent, Engine.AHO_CORASICK);
+	}
 
 	/**
 	 * Initialises a smiley service with the given smileyPack.
 	 *
 	 * @param smileyPack        The smiley pack in use
 	 * @param smileyPackContent The content of the pack
+	 * @param engine            The engine used for finding smiley codes
 	 */
-	public SmileyFilter(final String smileyPack, final InputStream smileyPackContent) {
-		try (BufferedReader reader = new BufferedReader(new InputStreamReader(smileyPackContent, StandardCharsets.UTF_8))) {
-			this.index = reader
-					.lines()
-					.map(String::trim)
-					.filter(line -> !line.startsWith("#"))
-					.map(line -> line.split(CODE_SEPARATOR_PATTERN))
-					.filter(values -> values.length >= 2)
-					.flatMap(values -> {
-						final Builder<Map.Entry<String, String>> streamBuilder = Stream.builder();
-						for (int i = 1; i < values.length; ++i) {
-							streamBuilder.add(new AbstractMap.SimpleImmutableEntry<>(values[i].trim().toLowerCase(), values[0]));
-						}
-						return streamBuilder.build();
-					})
-					.collect(collectingAndThen(
-							toMap(Map.Entry::getKey, Map.Entry::getValue),
-							Collections::unmodifiableMap
-					));
+	public SmileyFilter(final String smileyPack, final InputStream smileyPackContent, final Engine engine) {
+		this(smileyPack, SmileyPack.parse(smileyPack, smileyPackContent), engine);
+	}
 
-			// Create the reverse index by grouping all codes by their filename
-			this.reverseIndex = index.entrySet().stream()
-					.collect(collectingAndThen(
-							groupingBy(Map.Entry::getValue, mapping(Map.Entry::getKey, toList())),
-							Collections::unmodifiableMap
-					));
+	/**
+	 * Used by {@link SmileyFilterRegistry} for packs whose automaton is shared with other packs.
+	 */
+	SmileyFilter(final String smileyPack, final SmileyPack pack, final Engine engine) {
+		this.engine = engine;
+		this.snapshot = new Snapshot(smileyPack, pack, engine);
+	}
+
+	/**
+	 * Creates a filter with an {@link Engine#AHO_CORASICK} engine from a pack compiled by
+	 * {@link #compile(InputStream, OutputStream)}. The file is mapped into memory and read without parsing.
+	 *
+	 * @param smileyPack   The smiley pack in use
+	 * @param compiledPack The file containing the compiled pack
+	 * @return A new filter
+	 * @throws IOException When the file cannot be read
+	 */
+	public static SmileyFilter fromCompiledPack(final String smileyPack, final Path compiledPack) throws IOException {
+		return new SmileyFilter(smileyPack, readCompiledPack(smileyPack, compiledPack), Engine.AHO_CORASICK);
+	}
+
+	/**
+	 * Creates a filter with an {@link Engine#AHO_CORASICK} engine from a pack compiled by
+	 * {@link #compile(InputStream, OutputStream)}, for example one packaged as a resource.
+	 *
+	 * @param smileyPack          The smiley pack in use
+	 * @param compiledPackContent The compiled pack
+	 * @return A new filter
+	 * @throws IOException When the content cannot be read
+	 */
+	public static SmileyFilter fromCompiledPack(final String smileyPack, final InputStream compiledPackContent) throws IOException {
+		try (InputStream in = compiledPackContent) {
+			return fromCompiledPack(smileyPack, ByteBuffer.wrap(in.readAllBytes()));
+		}
+	}
+
+	/**
+	 * Creates a filter with an {@link Engine#AHO_CORASICK} engine from a pack compiled by
+	 * {@link #compile(InputStream, OutputStream)}. The pack is read from the current position of
+	 * {@code compiledPack}, the position itself is not changed.
+	 *
+	 * @param smileyPack   The smiley pack in use
+	 * @param compiledPack The compiled pack
+	 * @return A new filter
+	 * @throws IllegalArgumentException if the content is not a compiled pack
+	 */
+	public static SmileyFilter fromCompiledPack(final String smileyPack, final ByteBuffer compiledPack) {
+		return new SmileyFilter(smileyPack, SmileyPack.read(smileyPack, compiledPack), Engine.AHO_CORASICK);
+	}
+
+	/**
+	 * Compiles the content of a smiley pack into a binary form containing the index, the reverse index and
+	 * the automaton used by the {@link Engine#AHO_CORASICK} engine. The compiled form is independent of the name of the pack.
+	 *
+	 * @param smileyPackContent The content of the pack
+	 * @param out               Receives the compiled pack, is not closed
+	 * @throws IOException When writing fails
+	 * @see SmileyPackCompiler
+	 */
+	public static void compile(final InputStream smileyPackContent, final OutputStream out) throws IOException {
+		SmileyPack.parse("compiled", smileyPackContent).writeTo(out);
+	}
+
+	/**
+	 * Replaces the pack of this filter with the content of a pack in text format. Calls in progress finish
+	 * with the previous pack, all calls starting after this method returns use the new one. Readers are never blocked.
+	 *
+	 * @param smileyPackContent The new content of the pack
+	 * @throws IllegalArgumentException if the content is not readable, the previous pack stays in use then
+	 */
+	public void reload(final InputStream smileyPackContent) {
+		final String smileyPack = this.snapshot.smileyPack;
+		this.snapshot = new Snapshot(smileyPack, SmileyPack.parse(smileyPack, smileyPackContent), this.engine);
+	}
 
-			this.regex = this.generateRegex();
-		} catch (Exception ex) {
-			throw new IllegalArgumentException(format("Unreadable smiley pack '%s': %s", smileyPack, ex.getMessage()));
+	/**
+	 * Replaces the pack of this filter with the content of a file like {@link #reload(InputStream)} does.
+	 * Files ending with {@value SmileyPackCompiler#EXTENSION} are read as compiled packs.
+	 *
+	 * @param smileyPackFile The file containing the new pack
+	 * @throws IOException              When the file cannot be read
+	 * @throws IllegalArgumentException if the content is not readable, the previous pack stays in use then
+	 */
+	public void reload(final Path smileyPackFile) throws IOException {
+		final String smileyPack = this.snapshot.smileyPack;
+		final SmileyPack pack;
+		if (smileyPackFile.getFileName().toString().endsWith(SmileyPackCompiler.EXTENSION)) {
+			pack = readCompiledPack(smileyPack, smileyPackFile);
+		} else {
+			try (InputStream in = Files.newInputStream(smileyPackFile)) {
+				pack = SmileyPack.parse(smileyPack, in);
+			}
 		}
+		this.snapshot = new Snapshot(smileyPack, pack, this.engine);
+	}
+
+	/**
+	 * Watches a file and {@link #reload(Path) reloads} it whenever it is created or modified. The watching
+	 * is done by a daemon thread. Content that is not readable, for example because the file is only partially
+	 * written, is ignored and the current pack stays in use until the next change. This includes the internal error
+	 * thrown when a mapped file is truncated while it is read. All other errors end the watching.
+	 *
+	 * @param smileyPackFile The file containing the pack
+	 * @return A handle that stops watching when closed
+	 * @throws IOException When the directory of the file cannot be watched
+	 */
+	public Closeable watch(final Path smileyPackFile) throws IOException {
+		final Path file = smileyPackFile.toAbsolutePath();
+		final WatchService watchService = file.getFileSystem().newWatchService();
+		file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
 
-		this.smileyPack = smileyPack;
+		final Thread watcher = new Thread(() -> {
+			try {
+				WatchKey key;
+				do {
+					key = watchService.take();
+					boolean changed = false;
+					for (WatchEvent<?> event : key.pollEvents()) {
+						changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context());
+					}
+					if (changed) {
+						try {
+							reload(file);
+						} catch (IOException | RuntimeException | InternalError e) {
+							// Keep the current pack until the next change. Reading a file that is truncated
+							// while it is mapped throws an InternalError.
+						}
+					}
+				} while (key.reset());
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				// Watching has been stopped
+			}
+		}, "smiley-pack-watcher-" + file.getFileName());
+		watcher.setDaemon(true);
+		watcher.start();
+		return watchService;
+	}
+
+	/**
+	 * Reports the number of replaced codes of every document to {@code listener}.
+	 *
+	 * @param listener The new listener or {@literal null} to stop reporting
+	 */
+	public void setListener(final TextFilterListener listener) {
+		this.listener = listener;
+	}
+
+	private static SmileyPack readCompiledPack(final String smileyPack, final Path compiledPack) throws IOException {
+		try (FileChannel channel = FileChannel.open(compiledPack, StandardOpenOption.READ)) {
+			return SmileyPack.read(smileyPack, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
 	}
 
 	/**
@@ -125,6 +266,10 @@ public final class SmileyFilter implements TextFilter {
 	 * @return A regex for all smilies in the index
 	 */
 	Pattern generateRegex() {
+		return generateRegex(this.snapshot.index);
+	}
+
+	private static Pattern generateRegex(final Map<String, String> index) {
 		return Pattern.compile(format("(?im)((?:\\s|^)+?|(?<=[\\p{Punct}&&[^\\\"]]+))(%s)(?=\\s|\\p{Punct}|$)+?",
 				index
 						.keySet()
@@ -146,13 +291,12 @@ public final class SmileyFilter implements TextFilter {
 	 */
 	String generateHtmlTagFor(final String code) {
 		final String trimmedLowerCode = code.trim().toLowerCase();
-		if (!this.index.containsKey(trimmedLowerCode)) {
+		final HtmlTag htmlTag = this.snapshot.htmlTags.get(trimmedLowerCode);
+		if (htmlTag == null) {
 			throw new IllegalArgumentException(format("Unknown smiley code: %s", trimmedLowerCode));
 		}
 
-		final String file = this.index.get(trimmedLowerCode);
-		final String title = Entities.escape(code);
-		return format("<img class=\"dfs\" src=\"/images/smilies/%s/%s\" alt=\"%s\" title=\"%s\" />", this.smileyPack, file, file, title);
+		return code.equals(trimmedLowerCode) ? htmlTag.complete : htmlTag.start + Entities.escape(code) + HtmlTag.END;
 	}
 
 	/**
@@ -172,27 +316,413 @@ public final class SmileyFilter implements TextFilter {
 		if (in == null) {
 			return null;
 		}
-		final StringBuffer rv = new StringBuffer();
-		final Matcher m = this.regex.matcher(in);
-		while (m.find()) {
 
-			final StringBuffer replacement = new StringBuffer();
-			final Optional<String> g1 = Optional.ofNullable(m.group(1));
-			final Optional<String> g2 = Optional.of(m.group(2));
+		final Snapshot currentSnapshot = this.snapshot;
+		final Replacement replacement = replaceCodes(currentSnapshot, in, null);
+		report(currentSnapshot, replacement.count);
+		return replacement.finish().toString();
+	}
 
-			// Start of a smilie: Blank or the beginning of a line
-			if (g1.isPresent() && !g1.get().isEmpty()) {
-				replacement.append(g1.get());
+	/**
+	 * Replaces all smiley codes read from {@code in} and writes the result to {@code out}. Codes
+	 * can't span lines, so the input is processed line by line and never held completely in memory.
+	 *
+	 * @param in      The text in which smilies should be generated
+	 * @param out     Receives the text with images instead of smilie codes
+	 * @param baseUrl An optional base url for resolving relative urls
+	 * @throws IOException When reading or writing fails
+	 */
+	@Override
+	public void apply(final Reader in, final Writer out, final String baseUrl) throws IOException {
+		final Snapshot currentSnapshot = this.snapshot;
+		char[] buffer = new char[8192];
+		final char[] scratch = new char[8192];
+		final StringBuilder replaced = new StringBuilder();
+		int matches = 0;
+		int length = 0;
+		int read;
+		while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+			final int previousLength = length;
+			length += read;
+
+			int endOfLines = length;
+			while (endOfLines > previousLength && buffer[endOfLines - 1] != '\n') {
+				--endOfLines;
+			}
+			if (endOfLines == previousLength) {
+				// No complete line in the buffer yet, so it must be grown if it's full
+				if (length == buffer.length) {
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				}
+				continue;
 			}
 
-			// The smilie code itself
-			if (!g2.get().isEmpty()) {
-				replacement.append(generateHtmlTagFor(g2.get()));
+			matches += replaceCodes(currentSnapshot, buffer, endOfLines, out, replaced, scratch);
+			System.arraycopy(buffer, endOfLines, buffer, 0, length - endOfLines);
+			length -= endOfLines;
+		}
+		matches += replaceCodes(currentSnapshot, buffer, length, out, replaced, scratch);
+		out.flush();
+		report(currentSnapshot, matches);
+	}
+
+	/**
+	 * @return The number of replaced codes
+	 */
+	private static int replaceCodes(final Snapshot snapshot, final char[] lines, final int length, final Writer out, final StringBuilder buffer, final char[] scratch) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		buffer.setLength(0);
+		final Replacement replacement = replaceCodes(snapshot, CharBuffer.wrap(lines, 0, length), buffer);
+		if (replacement.finish() == buffer) {
+			TextFilterSupport.write(buffer, out, scratch);
+		} else {
+			out.write(lines, 0, length);
+		}
+		return replacement.count;
+	}
+
+	@Override
+	public CharSequence applyStage(final CharSequence input, final String baseUrl, final StringBuilder buffer) {
+		final Snapshot currentSnapshot = this.snapshot;
+		// The image tags are spliced into the input instead of copying it
+		final Replacement replacement = spliceCodes(currentSnapshot, input, new SplicedText(input));
+		report(currentSnapshot, replacement.count);
+		return replacement.finish();
+	}
+
+	@Override
+	public boolean scansInput() {
+		return true;
+	}
+
+	private void report(final Snapshot currentSnapshot, final int matches) {
+		final TextFilterListener currentListener = this.listener;
+		if (currentListener != null && currentListener.isEnabled()) {
+			currentListener.smileysReplaced(currentSnapshot.smileyPack, matches);
+		}
+	}
+
+	/**
+	 * Replaces all codes in {@code in}.
+	 *
+	 * @param snapshot The pack to use
+	 * @param in       The text in which smilies should be generated
+	 * @param out      An optional buffer for the output
+	 * @return The replacements, which yield {@code in} itself if there are no codes, otherwise the buffer with the replaced text
+	 */
+	private static Replacement replaceCodes(final Snapshot snapshot, final CharSequence in, final StringBuilder out) {
+		return replaceCodes(snapshot, new Replacement(in, out, null));
+	}
+
+	/**
+	 * Replaces all codes in {@code in}, recording the image tags as splices.
+	 *
+	 * @param snapshot The pack to use
+	 * @param in       The text in which smilies should be generated
+	 * @param out      Receives the image tags
+	 * @return The replacements, which yield {@code in} itself if there are no codes, otherwise {@code out}
+	 */
+	private static Replacement spliceCodes(final Snapshot snapshot, final CharSequence in, final SplicedText out) {
+		return replaceCodes(snapshot, new Replacement(in, null, out));
+	}
+
+	private static Replacement replaceCodes(final Snapshot snapshot, final Replacement replacement) {
+		final CharSequence in = replacement.in;
+		if (!snapshot.firstCharacters.matchesAny(in)) {
+			// No code can start anywhere in the input
+			return replacement;
+		}
+		if (snapshot.automaton != null) {
+			snapshot.automaton.scan(in, snapshot.acceptedCodes, (start, end, code) -> replacement.replace(start, end, snapshot.automatonHtmlTags[code]));
+		} else {
+			final Matcher m = snapshot.regex.matcher(in);
+			while (m.find()) {
+				// Group 1 is the start of a smilie (blank or the beginning of a line) and stays as it is
+				if (m.end(2) > m.start(2)) {
+					replacement.replace(m.start(2), m.end(2), snapshot.regexHtmlTag(in, m.start(2), m.end(2)));
+				}
 			}
+		}
+		return replacement;
+	}
 
-			m.appendReplacement(rv, replacement.toString());
+	/**
+	 * An immutable state of a loaded pack with everything needed for replacing its codes.
+	 */
+	private static final class Snapshot {
+
+		/**
+		 * The name of the smiley pack.
+		 */
+		final String smileyPack;
+
+		/**
+		 * The smiley index. This map contains the smiley codes (like :*) as
+		 * keys and the corresponding image file as value. This is an unmodifiable
+		 * map.
+		 */
+		final Map<String, String> index;
+
+		/**
+		 * The reversed smiley index. This index contains the name of the
+		 * image file as key and the list of all codes available for this image as
+		 * value. This is an unmodifiable map.
+		 */
+		final Map<String, List<String>> reverseIndex;
+
+		/**
+		 * Precomputed image tags for all codes in the index.
+		 */
+		final Map<String, HtmlTag> htmlTags;
+
+		/**
+		 * The first characters of all codes in the index in upper and lower case, for a pre-scan of the input.
+		 */
+		final CharacterMask firstCharacters;
+
+		/**
+		 * The regular expression for processing texts and adding smilies to them. Only
+		 * present when using {@link Engine#REGEX}.
+		 */
+		final Pattern regex;
+
+		/**
+		 * All codes of the index in their natural order, for finding the code matched by the {@link #regex}
+		 * without creating a string. Only present when using {@link Engine#REGEX}.
+		 */
+		final String[] regexCodes;
+
+		/**
+		 * Precomputed image tags for the {@link #regexCodes}, indexed like the codes.
+		 */
+		final HtmlTag[] regexHtmlTags;
+
+		/**
+		 * The automaton for processing texts and adding smilies to them. Only present
+		 * when using {@link Engine#AHO_CORASICK}.
+		 */
+		final SmileyAutomaton automaton;
+
+		/**
+		 * Precomputed image tags for the codes of the {@link #automaton}, indexed like the codes.
+		 */
+		final HtmlTag[] automatonHtmlTags;
+
+		/**
+		 * Flags the codes of the {@link #automaton} that are part of this pack. {@literal null} if
+		 * the automaton has been built for this pack alone.
+		 */
+		final boolean[] acceptedCodes;
+
+		Snapshot(final String smileyPack, final SmileyPack pack, final Engine engine) {
+			this.smileyPack = smileyPack;
+			this.index = pack.getIndex();
+			this.reverseIndex = pack.getReverseIndex();
+			this.htmlTags = index.entrySet().stream()
+					.collect(collectingAndThen(
+							toMap(Map.Entry::getKey, entry -> new HtmlTag(smileyPack, entry.getValue(), entry.getKey())),
+							Collections::unmodifiableMap
+					));
+			this.firstCharacters = CharacterMask.of(index.keySet().stream()
+					.filter(code -> !code.isEmpty())
+					.map(code -> code.substring(0, 1))
+					.map(firstCharacter -> firstCharacter.toLowerCase(Locale.ROOT) + firstCharacter.toUpperCase(Locale.ROOT))
+					.collect(Collectors.joining()));
+
+			if (engine == Engine.REGEX) {
+				this.regex = generateRegex(this.index);
+				this.regexCodes = this.index.keySet().toArray(new String[0]);
+				Arrays.sort(this.regexCodes);
+				this.regexHtmlTags = Arrays.stream(this.regexCodes).map(this.htmlTags::get).toArray(HtmlTag[]::new);
+				this.automaton = null;
+				this.automatonHtmlTags = null;
+				this.acceptedCodes = null;
+			} else {
+				this.regex = null;
+				this.regexCodes = null;
+				this.regexHtmlTags = null;
+				this.automaton = pack.getAutomaton();
+				this.automatonHtmlTags = new HtmlTag[this.automaton.getNumberOfCodes()];
+				final boolean[] accepted = new boolean[this.automatonHtmlTags.length];
+				boolean sharedAutomaton = false;
+				for (int i = 0; i < this.automatonHtmlTags.length; ++i) {
+					this.automatonHtmlTags[i] = this.htmlTags.get(this.automaton.getCode(i));
+					accepted[i] = this.automatonHtmlTags[i] != null;
+					sharedAutomaton |= !accepted[i];
+				}
+				this.acceptedCodes = sharedAutomaton ? accepted : null;
+			}
+		}
+
+		/**
+		 * Finds the code the {@link #regex} matched between {@code start} and {@code end} by a binary search,
+		 * folding the case like the case insensitive regex does.
+		 *
+		 * @return The image tag of the code or {@literal null}, if there is no such code
+		 */
+		HtmlTag regexHtmlTag(final CharSequence in, final int start, final int end) {
+			int low = 0;
+			int high = this.regexCodes.length - 1;
+			while (low <= high) {
+				final int middle = (low + high) >>> 1;
+				final int comparison = compare(this.regexCodes[middle], in, start, end);
+				if (comparison < 0) {
+					low = middle + 1;
+				} else if (comparison > 0) {
+					high = middle - 1;
+				} else {
+					return this.regexHtmlTags[middle];
+				}
+			}
+			return null;
+		}
+
+		private static int compare(final String code, final CharSequence in, final int start, final int end) {
+			final int length = Math.min(code.length(), end - start);
+			for (int i = 0; i < length; ++i) {
+				final int comparison = code.charAt(i) - SmileyAutomaton.fold(in.charAt(start + i));
+				if (comparison != 0) {
+					return comparison;
+				}
+			}
+			return code.length() - (end - start);
+		}
+	}
+
+	/**
+	 * A precomputed image tag for one code.
+	 */
+	private static final class HtmlTag {
+
+		private static final String END = "\" />";
+
+		/**
+		 * The tag up to and including the opening quote of the title.
+		 */
+		final String start;
+
+		/**
+		 * The complete tag with the code itself as title.
+		 */
+		final String complete;
+
+		/**
+		 * The code itself.
+		 */
+		final String code;
+
+		HtmlTag(final String smileyPack, final String file, final String code) {
+			this.start = format("<img class=\"dfs\" src=\"/images/smilies/%s/%s\" alt=\"%s\" title=\"", smileyPack, file, file);
+			this.complete = this.start + Entities.escape(code) + END;
+			this.code = code;
+		}
+
+		/**
+		 * Appends this tag for a code as it appears in {@code in} to {@code out}. The title
+		 * is escaped the same way {@link Entities#escape(String)} does.
+		 */
+		void appendTo(final StringBuilder out, final CharSequence in, final int start, final int end) {
+			if (isCodeAt(in, start)) {
+				out.append(this.complete);
+				return;
+			}
+
+			out.append(this.start);
+			for (int i = start; i < end; ++i) {
+				final char c = in.charAt(i);
+				switch (c) {
+					case '&':
+						out.append("&amp;");
+						break;
+					case '<':
+						out.append("&lt;");
+						break;
+					case '>':
+						out.append("&gt;");
+						break;
+					case '\u00a0':
+						out.append("&nbsp;");
+						break;
+					default:
+						out.append(c);
+				}
+			}
+			out.append(END);
+		}
+
+		/**
+		 * @return This tag for a code as it appears in {@code in}
+		 */
+		String toString(final CharSequence in, final int start, final int end) {
+			if (isCodeAt(in, start)) {
+				return this.complete;
+			}
+			final StringBuilder rv = new StringBuilder(this.complete.length() + 8);
+			appendTo(rv, in, start, end);
+			return rv.toString();
+		}
+
+		private boolean isCodeAt(final CharSequence in, final int start) {
+			for (int i = 0; i < this.code.length(); ++i) {
+				if (in.charAt(start + i) != this.code.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Collects the replacements of one call to {@link #replaceCodes(Snapshot, Replacement)}, either
+	 * by copying the input with the image tags or by splicing the tags into the input. The output is only
+	 * created if there are any replacements at all.
+	 */
+	private static final class Replacement {
+
+		final CharSequence in;
+
+		private StringBuilder out;
+
+		private final SplicedText splicedText;
+
+		private int last;
+
+		int count;
+
+		Replacement(final CharSequence in, final StringBuilder out, final SplicedText splicedText) {
+			this.in = in;
+			this.out = out;
+			this.splicedText = splicedText;
+		}
+
+		void replace(final int start, final int end, final HtmlTag htmlTag) {
+			if (this.splicedText != null) {
+				this.splicedText.splice(start, end, htmlTag.toString(in, start, end));
+				++this.count;
+				return;
+			}
+			if (this.out == null) {
+				this.out = new StringBuilder(in.length() + 8 * htmlTag.complete.length());
+			}
+			this.out.append(in, this.last, start);
+			htmlTag.appendTo(this.out, in, start, end);
+			this.last = end;
+			++this.count;
+		}
+
+		/**
+		 * Completes the output, must be called only once.
+		 *
+		 * @return {@code in} itself if there are no replacements, otherwise the buffer with the replaced text
+		 * or the spliced text
+		 */
+		CharSequence finish() {
+			if (this.count == 0) {
+				return this.in;
+			}
+			return this.splicedText != null ? this.splicedText : this.out.append(in, this.last, in.length());
 		}
-		m.appendTail(rv);
-		return rv.toString();
 	}
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import static java.lang.String.format;
+
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Holds the {@link SmileyFilter filters} of many smiley packs. All packs share one automaton over the
+ * codes of all packs, the image of a code is resolved for the requested pack when a code is found. Each pack only
+ * adds its index and an array of precomputed image tags, codes that are common to many packs are stored once.
+ * <br>
+ * The filters of a registry use the {@link SmileyFilter.Engine#AHO_CORASICK} engine and find exactly the
+ * same codes as a filter created for one pack alone. A filter that is {@link SmileyFilter#reload(InputStream) reloaded}
+ * gets an automaton of its own.
+ * <br>
+ * Create registries through {@link #builder()}:
+ * <pre>
+ * SmileyFilterRegistry.builder()
+ *     .add("standard2.0", standard20Content)
+ *     .add("xmas2007", xmas2007Content)
+ *     .build();
+ * </pre>
+ *
+ * @author Michael J. Simons, 2018-07-29
+ */
+public final class SmileyFilterRegistry {
+
+	/**
+	 * Collects the packs of a registry.
+	 */
+	public static final class Builder {
+
+		private final Map<String, Map<String, String>> indexes = new LinkedHashMap<>();
+
+		Builder() {
+		}
+
+		/**
+		 * Adds a pack in text format. The content is read immediately.
+		 *
+		 * @param smileyPack        The name of the pack
+		 * @param smileyPackContent The content of the pack
+		 * @return This builder
+		 * @throws IllegalArgumentException if the content is not readable or a pack with the same name has already been added
+		 */
+		public Builder add(final String smileyPack, final InputStream smileyPackContent) {
+			Objects.requireNonNull(smileyPack, "Smiley pack must not be null");
+			if (this.indexes.containsKey(smileyPack)) {
+				throw new IllegalArgumentException(format("Duplicate smiley pack '%s'", smileyPack));
+			}
+			this.indexes.put(smileyPack, SmileyPack.parseIndex(smileyPack, smileyPackContent));
+			return this;
+		}
+
+		/**
+		 * @return A new registry with all packs added so far
+		 */
+		public SmileyFilterRegistry build() {
+			final Set<String> codes = new LinkedHashSet<>();
+			this.indexes.values().forEach(index -> codes.addAll(index.keySet()));
+			final SmileyAutomaton automaton = new SmileyAutomaton(codes);
+
+			final Map<String, SmileyFilter> filters = new HashMap<>();
+			this.indexes.forEach((smileyPack, index) ->
+					filters.put(smileyPack, new SmileyFilter(smileyPack, SmileyPack.of(index, automaton), SmileyFilter.Engine.AHO_CORASICK)));
+			return new SmileyFilterRegistry(Collections.unmodifiableMap(filters));
+		}
+	}
+
+	/**
+	 * Starts a new registry.
+	 *
+	 * @return A builder for a new registry
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	private final Map<String, SmileyFilter> filters;
+
+	private SmileyFilterRegistry(final Map<String, SmileyFilter> filters) {
+		this.filters = filters;
+	}
+
+	/**
+	 * Replaces all codes of {@code smileyPack} inside {@code in}, like {@link SmileyFilter#apply(String, String)} does.
+	 *
+	 * @param in         The text in which smilies should be generated
+	 * @param baseUrl    An optional base url for resolving relative urls
+	 * @param smileyPack The name of the pack
+	 * @return A text with images instead of smilie codes
+	 * @throws IllegalArgumentException if the pack is unknown
+	 */
+	public String apply(final String in, final String baseUrl, final String smileyPack) {
+		return get(smileyPack).apply(in, baseUrl);
+	}
+
+	/**
+	 * @param smileyPack The name of the pack
+	 * @return The filter of the pack, for use in pipelines
+	 * @throws IllegalArgumentException if the pack is unknown
+	 */
+	public SmileyFilter get(final String smileyPack) {
+		final SmileyFilter rv = this.filters.get(smileyPack);
+		if (rv == null) {
+			throw new IllegalArgumentException(format("Unknown smiley pack '%s'", smileyPack));
+		}
+		return rv;
+	}
+
+	/**
+	 * @return The names of all packs
+	 */
+	public Set<String> getSmileyPacks() {
+		return this.filters.keySet();
+	}
+}
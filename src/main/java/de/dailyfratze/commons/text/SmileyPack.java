@@ -0,0 +1,263 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import static java.lang.String.format;
+import static java.util.stream.Collectors.collectingAndThen;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.mapping;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.Stream.Builder;
+
+/**
+ * The loaded content of a smiley pack: the index of codes, the reverse index and the automaton over all codes.
+ * Packs are read from the text format of {@code .pak} files or from the compiled binary format written
+ * by {@link #writeTo(OutputStream)}. The binary format contains everything in its final form, so reading it
+ * only copies arrays and strings. Instances are immutable and thread safe.
+ *
+ * @author Michael J. Simons, 2018-07-28
+ */
+final class SmileyPack {
+
+	/**
+	 * "DFSP", the first bytes of every compiled pack.
+	 */
+	private static final int MAGIC = 0x44465350;
+
+	private static final int VERSION = 1;
+
+	/**
+	 * Pattern used to separate different smiley codes for one smilie in the pak
+	 * file.
+	 */
+	private static final String CODE_SEPARATOR_PATTERN = Pattern.quote("=+:");
+
+	/**
+	 * Maps the smiley codes (like :*) to the corresponding image file. This is an unmodifiable map.
+	 */
+	private final Map<String, String> index;
+
+	/**
+	 * Maps the name of the image files to the list of all codes available for this image. This is an unmodifiable map.
+	 */
+	private final Map<String, List<String>> reverseIndex;
+
+	private final SmileyAutomaton automaton;
+
+	private SmileyPack(final Map<String, String> index, final Map<String, List<String>> reverseIndex, final SmileyAutomaton automaton) {
+		this.index = index;
+		this.reverseIndex = reverseIndex;
+		this.automaton = automaton;
+	}
+
+	/**
+	 * Reads a pack in the text format.
+	 *
+	 * @param smileyPack        The name of the pack, used for error messages
+	 * @param smileyPackContent The content of the pack
+	 * @return The loaded pack
+	 * @throws IllegalArgumentException if the content is not readable
+	 */
+	static SmileyPack parse(final String smileyPack, final InputStream smileyPackContent) {
+		final Map<String, String> index = parseIndex(smileyPack, smileyPackContent);
+		return of(index, new SmileyAutomaton(index.keySet()));
+	}
+
+	/**
+	 * Creates a pack from an index and an automaton, which must know at least all codes of the index.
+	 *
+	 * @param index     Maps the codes to their image files, must be unmodifiable
+	 * @param automaton An automaton over all codes of the index
+	 * @return A new pack
+	 */
+	static SmileyPack of(final Map<String, String> index, final SmileyAutomaton automaton) {
+		// Create the reverse index by grouping all codes by their filename
+		final Map<String, List<String>> reverseIndex = index.entrySet().stream()
+				.collect(collectingAndThen(
+						groupingBy(Map.Entry::getValue, mapping(Map.Entry::getKey, toList())),
+						Collections::unmodifiableMap
+				));
+		return new SmileyPack(index, reverseIndex, automaton);
+	}
+
+	/**
+	 * Reads only the index of a pack in the text format.
+	 *
+	 * @param smileyPack        The name of the pack, used for error messages
+	 * @param smileyPackContent The content of the pack
+	 * @return Maps the codes of the pack to their image files
+	 * @throws IllegalArgumentException if the content is not readable
+	 */
+	static Map<String, String> parseIndex(final String smileyPack, final InputStream smileyPackContent) {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(smileyPackContent, StandardCharsets.UTF_8))) {
+			return reader
+					.lines()
+					.map(String::trim)
+					.filter(line -> !line.startsWith("#"))
+					.map(line -> line.split(CODE_SEPARATOR_PATTERN))
+					.filter(values -> values.length >= 2)
+					.flatMap(values -> {
+						final Builder<Map.Entry<String, String>> streamBuilder = Stream.builder();
+						for (int i = 1; i < values.length; ++i) {
+							streamBuilder.add(new AbstractMap.SimpleImmutableEntry<>(values[i].trim().toLowerCase(), values[0]));
+						}
+						return streamBuilder.build();
+					})
+					.collect(collectingAndThen(
+							toMap(Map.Entry::getKey, Map.Entry::getValue),
+							Collections::unmodifiableMap
+					));
+		} catch (Exception ex) {
+			throw new IllegalArgumentException(format("Unreadable smiley pack '%s': %s", smileyPack, ex.getMessage()));
+		}
+	}
+
+	/**
+	 * Reads a pack in the binary format, starting at the current position of {@code compiledPack}.
+	 *
+	 * @param smileyPack   The name of the pack, used for error messages
+	 * @param compiledPack The compiled pack, for example a mapped file
+	 * @return The loaded pack
+	 * @throws IllegalArgumentException if the content is not a compiled pack of a supported version
+	 */
+	static SmileyPack read(final String smileyPack, final ByteBuffer compiledPack) {
+		final ByteBuffer in = compiledPack.duplicate();
+		try {
+			if (in.getInt() != MAGIC) {
+				throw new IllegalArgumentException("Not a compiled smiley pack");
+			}
+			final int version = in.getInt();
+			if (version != VERSION) {
+				throw new IllegalArgumentException(format("Unsupported version %d", version));
+			}
+
+			// Every entry consists of at least two lengths
+			final int numberOfCodes = readLength(in, 2 * Integer.BYTES);
+			final Map<String, String> index = new HashMap<>(numberOfCodes * 4 / 3 + 1);
+			for (int i = 0; i < numberOfCodes; ++i) {
+				index.put(readString(in), readString(in));
+			}
+
+			final int numberOfFiles = readLength(in, 2 * Integer.BYTES);
+			final Map<String, List<String>> reverseIndex = new HashMap<>(numberOfFiles * 4 / 3 + 1);
+			for (int i = 0; i < numberOfFiles; ++i) {
+				final String file = readString(in);
+				final int numberOfFileCodes = readLength(in, Integer.BYTES);
+				final List<String> codes = new ArrayList<>(numberOfFileCodes);
+				for (int j = 0; j < numberOfFileCodes; ++j) {
+					codes.add(readString(in));
+				}
+				reverseIndex.put(file, Collections.unmodifiableList(codes));
+			}
+
+			return new SmileyPack(Collections.unmodifiableMap(index), Collections.unmodifiableMap(reverseIndex), SmileyAutomaton.read(in));
+		} catch (BufferUnderflowException ex) {
+			throw new IllegalArgumentException(format("Unreadable compiled smiley pack '%s': Truncated content", smileyPack));
+		} catch (RuntimeException ex) {
+			throw new IllegalArgumentException(format("Unreadable compiled smiley pack '%s': %s", smileyPack, ex.getMessage()));
+		}
+	}
+
+	/**
+	 * Writes this pack in the binary format that is read by {@link #read(String, ByteBuffer)}.
+	 *
+	 * @param out The target, which is not closed
+	 * @throws IOException When writing fails
+	 */
+	void writeTo(final OutputStream out) throws IOException {
+		final DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+
+		data.writeInt(this.index.size());
+		for (Map.Entry<String, String> entry : this.index.entrySet()) {
+			writeString(data, entry.getKey());
+			writeString(data, entry.getValue());
+		}
+
+		data.writeInt(this.reverseIndex.size());
+		for (Map.Entry<String, List<String>> entry : this.reverseIndex.entrySet()) {
+			writeString(data, entry.getKey());
+			data.writeInt(entry.getValue().size());
+			for (String code : entry.getValue()) {
+				writeString(data, code);
+			}
+		}
+
+		this.automaton.writeTo(data);
+		data.flush();
+	}
+
+	Map<String, String> getIndex() {
+		return this.index;
+	}
+
+	Map<String, List<String>> getReverseIndex() {
+		return this.reverseIndex;
+	}
+
+	SmileyAutomaton getAutomaton() {
+		return this.automaton;
+	}
+
+	static void writeString(final DataOutputStream out, final String value) throws IOException {
+		out.writeInt(value.length());
+		out.writeChars(value);
+	}
+
+	static String readString(final ByteBuffer in) {
+		final char[] value = new char[readLength(in, Character.BYTES)];
+		in.asCharBuffer().get(value);
+		in.position(in.position() + value.length * Character.BYTES);
+		return new String(value);
+	}
+
+	/**
+	 * Reads the number of elements that follow, which must fit into the remaining content. The length is checked
+	 * before anything is allocated for the elements.
+	 *
+	 * @param in              The compiled pack
+	 * @param bytesPerElement The minimum number of bytes of one element
+	 * @return The number of elements
+	 * @throws IllegalArgumentException if the length is negative or larger than the remaining content
+	 */
+	static int readLength(final ByteBuffer in, final int bytesPerElement) {
+		final int length = in.getInt();
+		if (length < 0 || length > in.remaining() / bytesPerElement) {
+			throw new IllegalArgumentException(format("Invalid length %d with %d bytes remaining", length, in.remaining()));
+		}
+		return length;
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Compiles all smiley packs ({@code *.pak}) of a directory into their binary form ({@code *.pakc}), which is
+ * loaded by {@link SmileyFilter#fromCompiledPack(String, Path)}. The build runs this for the packs in
+ * {@code src/main/resources/smilies}. Usage:
+ * <pre>
+ * java de.dailyfratze.commons.text.SmileyPackCompiler &lt;source directory&gt; [&lt;target directory&gt;]
+ * </pre>
+ * The target directory defaults to the source directory.
+ *
+ * @author Michael J. Simons, 2018-07-28
+ */
+public final class SmileyPackCompiler {
+
+	/**
+	 * Extension of the compiled packs.
+	 */
+	public static final String EXTENSION = ".pakc";
+
+	/**
+	 * @param args The source directory and an optional target directory
+	 * @throws IOException              When a pack can't be read or written
+	 * @throws IllegalArgumentException When there are too few or too many arguments
+	 */
+	public static void main(final String... args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			throw new IllegalArgumentException("Usage: SmileyPackCompiler <source directory> [<target directory>]");
+		}
+
+		final Path source = Paths.get(args[0]);
+		final Path target = Paths.get(args.length == 2 ? args[1] : args[0]);
+		Files.createDirectories(target);
+		try (DirectoryStream<Path> packs = Files.newDirectoryStream(source, "*.pak")) {
+			for (Path pack : packs) {
+				final String name = pack.getFileName().toString();
+				final Path compiledPack = target.resolve(name.substring(0, name.length() - ".pak".length()) + EXTENSION);
+				try (InputStream in = Files.newInputStream(pack); OutputStream out = new BufferedOutputStream(Files.newOutputStream(compiledPack))) {
+					SmileyFilter.compile(in, out);
+				}
+			}
+		}
+	}
+
+	private SmileyPackCompiler() {
+	}
+}
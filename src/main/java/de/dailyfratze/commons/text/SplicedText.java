@@ -0,0 +1,229 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.util.Arrays;
+
+/**
+ * A piece table: A text given as a base text and splices that replace ranges of it. Filters that only insert or
+ * replace a few short pieces, like the {@link SmileyFilter} and {@link TextFilter#AUTO_BR}, record their changes
+ * in a spliced text instead of copying their input. The base may be a spliced text itself, so that the characters
+ * of the original input are copied only once, when the final output is created by {@link #toString()}.
+ * <br>
+ * Reading characters in ascending order is cheap, random access needs a binary search over the splices. Instances
+ * keep the position of the last access and are meant to be confined to one thread. The base must not change
+ * while the spliced text is in use.
+ *
+ * @author Michael J. Simons, 2018-08-06
+ */
+final class SplicedText implements CharSequence {
+
+	private static final int[] NO_POSITIONS = new int[0];
+
+	private static final String[] NO_REPLACEMENTS = new String[0];
+
+	private final CharSequence base;
+
+	/**
+	 * End (exclusive) of the replaced range in the base for every splice, ascending.
+	 */
+	private int[] ends = NO_POSITIONS;
+
+	/**
+	 * Position of the replacement in this text for every splice.
+	 */
+	private int[] positions = NO_POSITIONS;
+
+	private String[] replacements = NO_REPLACEMENTS;
+
+	private int numberOfSplices;
+
+	private int length;
+
+	/**
+	 * The splice before the last character accessed, {@code -1} if there is none.
+	 */
+	private int current = -1;
+
+	/**
+	 * @param base The text to splice, not changed itself
+	 */
+	SplicedText(final CharSequence base) {
+		this.base = base;
+		this.length = base.length();
+	}
+
+	/**
+	 * Replaces a range of the base. Ranges must be spliced in ascending order and must not overlap.
+	 *
+	 * @param start       Start of the range in the base (inclusive)
+	 * @param end         End of the range in the base (exclusive)
+	 * @param replacement The replacement of the range
+	 */
+	void splice(final int start, final int end, final String replacement) {
+		final int previousEnd = this.numberOfSplices == 0 ? 0 : this.ends[this.numberOfSplices - 1];
+		if (start < previousEnd || start > end || end > this.base.length()) {
+			throw new IndexOutOfBoundsException(String.format("Splice %d, %d doesn't follow %d within length %d", start, end, previousEnd, this.base.length()));
+		}
+		if (this.numberOfSplices == this.ends.length) {
+			final int capacity = Math.max(8, this.numberOfSplices * 2);
+			this.ends = Arrays.copyOf(this.ends, capacity);
+			this.positions = Arrays.copyOf(this.positions, capacity);
+			this.replacements = Arrays.copyOf(this.replacements, capacity);
+		}
+		final int i = this.numberOfSplices++;
+		this.ends[i] = end;
+		this.positions[i] = start + this.length - this.base.length();
+		this.replacements[i] = replacement;
+		this.length += replacement.length() - (end - start);
+	}
+
+	/**
+	 * @return True, if nothing has been spliced
+	 */
+	boolean isEmpty() {
+		return this.numberOfSplices == 0;
+	}
+
+	/**
+	 * @param text Any text
+	 * @return The base at the bottom of {@code text} if it is a spliced text or a budgeted view, otherwise {@code text} itself
+	 */
+	static CharSequence originalOf(final CharSequence text) {
+		CharSequence rv = text;
+		while (true) {
+			if (rv instanceof SplicedText) {
+				rv = ((SplicedText) rv).base;
+			} else if (rv instanceof BudgetedCharSequence) {
+				rv = ((BudgetedCharSequence) rv).content();
+			} else {
+				return rv;
+			}
+		}
+	}
+
+	@Override
+	public int length() {
+		return this.length;
+	}
+
+	@Override
+	public char charAt(final int index) {
+		if (index < 0 || index >= this.length) {
+			throw new IndexOutOfBoundsException(String.format("index %d, length %d", index, this.length));
+		}
+		final int splice = spliceBefore(index);
+		if (splice < 0) {
+			return this.base.charAt(index);
+		}
+		final int offset = index - this.positions[splice];
+		final String replacement = this.replacements[splice];
+		if (offset < replacement.length()) {
+			return replacement.charAt(offset);
+		}
+		return this.base.charAt(this.ends[splice] + offset - replacement.length());
+	}
+
+	@Override
+	public CharSequence subSequence(final int start, final int end) {
+		if (start < 0 || start > end || end > this.length) {
+			throw new IndexOutOfBoundsException(String.format("begin %d, end %d, length %d", start, end, this.length));
+		}
+		final StringBuilder rv = new StringBuilder(end - start);
+		appendTo(rv, start, end);
+		return rv.toString();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder rv = new StringBuilder(this.length);
+		appendTo(rv, 0, this.length);
+		return rv.toString();
+	}
+
+	/**
+	 * Appends a range of this text to {@code out}, copying runs of the base at once.
+	 *
+	 * @param out   Receives the characters
+	 * @param start Start of the range (inclusive)
+	 * @param end   End of the range (exclusive)
+	 */
+	void appendTo(final StringBuilder out, final int start, final int end) {
+		int position = start;
+		int splice = spliceBefore(Math.min(start, this.length - 1));
+		while (position < end) {
+			final int runEnd = splice + 1 < this.numberOfSplices ? Math.min(end, this.positions[splice + 1]) : end;
+			if (splice < 0) {
+				appendBase(out, position, runEnd);
+			} else {
+				final int offset = position - this.positions[splice];
+				final String replacement = this.replacements[splice];
+				final int replacementEnd = Math.min(replacement.length(), offset + runEnd - position);
+				if (offset < replacementEnd) {
+					out.append(replacement, offset, replacementEnd);
+				}
+				final int baseStart = this.ends[splice] + Math.max(0, offset - replacement.length());
+				appendBase(out, baseStart, baseStart + runEnd - position - Math.max(0, replacementEnd - offset));
+			}
+			position = runEnd;
+			++splice;
+		}
+	}
+
+	private void appendBase(final StringBuilder out, final int start, final int end) {
+		if (start == end) {
+			return;
+		}
+		if (this.base instanceof SplicedText) {
+			((SplicedText) this.base).appendTo(out, start, end);
+		} else {
+			out.append(this.base, start, end);
+		}
+	}
+
+	/**
+	 * @return The last splice whose replacement starts at or before {@code index}, {@code -1} if there is none
+	 */
+	private int spliceBefore(final int index) {
+		int splice = this.current;
+		if (splice >= 0 && this.positions[splice] > index) {
+			splice = -1;
+		}
+		// Sequential access moves on by at most a few splices
+		for (int steps = 0; splice + 1 < this.numberOfSplices && this.positions[splice + 1] <= index; ++steps) {
+			if (steps == 4) {
+				splice = binarySearch(index);
+				break;
+			}
+			++splice;
+		}
+		this.current = splice;
+		return splice;
+	}
+
+	private int binarySearch(final int index) {
+		final int i = Arrays.binarySearch(this.positions, 0, this.numberOfSplices, index);
+		if (i >= 0) {
+			// Replacements may be empty, so that several splices start at the same position
+			int rv = i;
+			while (rv + 1 < this.numberOfSplices && this.positions[rv + 1] == index) {
+				++rv;
+			}
+			return rv;
+		}
+		return -i - 2;
+	}
+}
@@ -0,0 +1,774 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.jsoup.helper.StringUtil;
+import org.jsoup.parser.Parser;
+
+/**
+ * Cleans html while reading it, without building a document. The input is tokenized like the html parser does
+ * it, tags and attributes allowed by a {@link CompiledWhitelist} are written as they are found, everything else but
+ * text is dropped. The only state that grows with the input is the stack of open allowed elements.
+ * <br>
+ * The output is the same as with the other engines of the {@link HtmlFilter} as long as the input is
+ * well formed. The tree construction rules of html that move or implicitly close elements are not applied,
+ * open elements are closed when their end tag or the end of the input is reached.
+ * <br>
+ * Instead of cleaning, an input can be {@linkplain #isClean(String) checked} for already being clean. This is
+ * stricter than comparing the output to the input, so that the other engines are guaranteed to produce the
+ * input, too.
+ * <br>
+ * An instance cleans or checks exactly one input and is not thread safe. An optional {@link TextFilterBudget} is
+ * charged with every chunk of input the tokenizer reads.
+ *
+ * @author Michael J. Simons, 2018-07-26
+ */
+final class StreamingHtmlSanitizer {
+
+	/**
+	 * Elements whose content is read as raw data, which is only kept when the element is allowed.
+	 */
+	private static final Set<String> DATA_ELEMENTS = Set.of("script", "style");
+
+	/**
+	 * Elements whose content is read as raw text, which is always kept as it is.
+	 */
+	private static final Set<String> RAW_TEXT_ELEMENTS = Set.of("iframe", "noembed", "noframes", "xmp");
+
+	/**
+	 * Elements whose content is read as text with character references, but without tags.
+	 */
+	private static final Set<String> RCDATA_ELEMENTS = Set.of("textarea", "title");
+
+	/**
+	 * No named character reference is longer than this.
+	 */
+	private static final int MAX_CHARACTER_REFERENCE_LENGTH = 32;
+
+	private static final int FLUSH_THRESHOLD = 8192;
+
+	/**
+	 * Elements that can be nested in each other and in the elements of {@link #CONTAINER_ELEMENTS} without the parser
+	 * moving or closing anything. Anchors must not be nested in anchors, though.
+	 */
+	private static final Set<String> PHRASING_ELEMENTS = Set.of(
+			"a", "abbr", "b", "bdi", "bdo", "big", "br", "cite", "code", "del", "dfn", "em", "font", "i", "img", "ins",
+			"kbd", "mark", "q", "s", "samp", "small", "span", "strike", "strong", "sub", "sup", "tt", "u", "var", "wbr");
+
+	/**
+	 * Elements that can contain all block elements.
+	 */
+	private static final Set<String> CONTAINER_ELEMENTS = Set.of(
+			"article", "aside", "blockquote", "center", "dd", "div", "footer", "header", "li", "nav", "section");
+
+	/**
+	 * Block elements that must be children of an element of {@link #CONTAINER_ELEMENTS} or of the body. The parser
+	 * closes paragraphs and headings before them, list items and definitions need their list as parent.
+	 */
+	private static final Set<String> BLOCK_ELEMENTS = Set.of(
+			"article", "aside", "blockquote", "center", "div", "dl", "footer", "h1", "h2", "h3", "h4", "h5", "h6",
+			"header", "hr", "nav", "ol", "p", "pre", "section", "ul");
+
+	private final CompiledWhitelist compiledWhitelist;
+
+	private final String baseUri;
+
+	/**
+	 * Names of the allowed elements that have been written, but not yet closed.
+	 */
+	private final Deque<String> openElements = new ArrayDeque<>();
+
+	/**
+	 * Names and values of the attributes of the current tag as they appear in the input.
+	 * Values of attributes without value are {@literal null}.
+	 */
+	private final List<String> attributeNames = new ArrayList<>();
+
+	private final List<String> attributeValues = new ArrayList<>();
+
+	/**
+	 * The allowed attributes of the current tag by their lower case name.
+	 */
+	private final Map<String, String> allowedAttributes = new LinkedHashMap<>();
+
+	private final StringBuilder token = new StringBuilder();
+
+	/**
+	 * Blanks are only written when something else follows, so that the output is trimmed like with the other engines.
+	 */
+	private final StringBuilder pendingBlanks = new StringBuilder();
+
+	private final TextFilterBudget budget;
+
+	private Input in;
+
+	private StringBuilder out;
+
+	private Writer target;
+
+	private boolean selfClosing;
+
+	/**
+	 * True as soon as anything but blanks has been written.
+	 */
+	private boolean started;
+
+	/**
+	 * The input that is checked for being clean, all output is compared to it instead of being written.
+	 */
+	private String expected;
+
+	/**
+	 * Number of characters of {@link #expected} that matched the output so far.
+	 */
+	private int matched;
+
+	/**
+	 * @param compiledWhitelist The allowed tags and attributes
+	 * @param baseUrl           An optional base url for resolving relative urls
+	 */
+	StreamingHtmlSanitizer(final CompiledWhitelist compiledWhitelist, final String baseUrl) {
+		this(compiledWhitelist, baseUrl, null);
+	}
+
+	/**
+	 * @param compiledWhitelist The allowed tags and attributes
+	 * @param baseUrl           An optional base url for resolving relative urls
+	 * @param budget            Charged with the input read, {@literal null} if unlimited
+	 */
+	StreamingHtmlSanitizer(final CompiledWhitelist compiledWhitelist, final String baseUrl, final TextFilterBudget budget) {
+		this.compiledWhitelist = compiledWhitelist;
+		this.baseUri = baseUrl == null ? "" : baseUrl;
+		this.budget = budget;
+	}
+
+	/**
+	 * @param dirtyText The dirty text
+	 * @return The cleaned text
+	 */
+	String sanitize(final String dirtyText) {
+		this.in = new Input(new StringReader(dirtyText), this.budget);
+		this.out = new StringBuilder(dirtyText.length());
+		try {
+			sanitize();
+		} catch (IOException e) {
+			// Neither reading a string nor writing to a builder fails
+			throw new UncheckedIOException(e);
+		}
+		return this.out.toString();
+	}
+
+	/**
+	 * Checks whether {@code text} is already clean. That is the case if cleaning it would produce exactly the same text
+	 * and the html parser wouldn't restructure it. The check stops at the first difference.
+	 *
+	 * @param text The text to check
+	 * @return True if all engines return {@code text} unchanged
+	 */
+	boolean isClean(final String text) {
+		this.in = new Input(new StringReader(text), this.budget);
+		this.expected = text;
+		try {
+			sanitize();
+		} catch (NotCleanException e) {
+			return false;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return this.matched == text.length();
+	}
+
+	/**
+	 * Cleans everything from {@code dirtyContent} and writes it to {@code cleanContent} in chunks.
+	 *
+	 * @param dirtyContent The dirty content
+	 * @param cleanContent Receives the cleaned content
+	 * @throws IOException When reading or writing fails
+	 */
+	void sanitize(final Reader dirtyContent, final Writer cleanContent) throws IOException {
+		this.in = new Input(dirtyContent, this.budget);
+		this.out = new StringBuilder(FLUSH_THRESHOLD + MAX_CHARACTER_REFERENCE_LENGTH);
+		this.target = cleanContent;
+		sanitize();
+		this.target.append(this.out);
+	}
+
+	private void sanitize() throws IOException {
+		int c;
+		while ((c = in.read()) != -1) {
+			if (c == '<') {
+				readMarkup();
+			} else if (c == '&') {
+				writeCharacterReference();
+			} else {
+				write((char) c);
+			}
+			if (this.target != null && this.out.length() >= FLUSH_THRESHOLD) {
+				this.target.append(this.out);
+				this.out.setLength(0);
+			}
+		}
+		while (!openElements.isEmpty()) {
+			writeEndTag(openElements.pop());
+		}
+	}
+
+	/**
+	 * Reads whatever follows a {@code <}, which is only text if it doesn't start a tag, comment or declaration.
+	 */
+	private void readMarkup() throws IOException {
+		final int c = in.peek();
+		if (isAsciiLetter(c)) {
+			readStartTag();
+		} else if (c == '/') {
+			in.read();
+			final int next = in.peek();
+			if (isAsciiLetter(next)) {
+				readEndTag();
+			} else if (next == '>') {
+				in.read();
+			} else if (next == -1) {
+				write("</");
+			} else {
+				skipBogusComment();
+			}
+		} else if (c == '!') {
+			in.read();
+			readMarkupDeclaration();
+		} else if (c == '?') {
+			skipBogusComment();
+		} else {
+			write('<');
+		}
+	}
+
+	private void readStartTag() throws IOException {
+		final String name = readTagName();
+		if (!readAttributes()) {
+			// Tags cut off by the end of the input are dropped
+			return;
+		}
+
+		final CompiledWhitelist.AllowedTag allowedTag = compiledWhitelist.getAllowedTag(name);
+		if (allowedTag != null) {
+			if (this.expected != null) {
+				checkStructure(name);
+			}
+			writeStartTag(name, allowedTag);
+			if (selfClosing && !allowedTag.isEmpty()) {
+				writeEndTag(name);
+			} else if (!allowedTag.isEmpty()) {
+				openElements.push(name);
+			}
+		}
+		if (selfClosing) {
+			return;
+		}
+
+		if (DATA_ELEMENTS.contains(name)) {
+			readRawText(name, allowedTag != null, true);
+		} else if (RAW_TEXT_ELEMENTS.contains(name)) {
+			readRawText(name, true, false);
+		} else if (RCDATA_ELEMENTS.contains(name)) {
+			readRawText(name, true, true);
+		} else if ("plaintext".equals(name)) {
+			int c;
+			while ((c = in.read()) != -1) {
+				write((char) c);
+			}
+		}
+	}
+
+	private void readEndTag() throws IOException {
+		final String name = readTagName();
+		if (!readAttributes()) {
+			return;
+		}
+
+		if ("br".equals(name)) {
+			// The parser treats an end tag of a line break as a start tag
+			final CompiledWhitelist.AllowedTag allowedTag = compiledWhitelist.getAllowedTag(name);
+			if (allowedTag != null) {
+				attributeNames.clear();
+				attributeValues.clear();
+				writeStartTag(name, allowedTag);
+			}
+		} else {
+			closeElement(name);
+		}
+	}
+
+	/**
+	 * Closes {@code name} and all elements opened after it, if it is open at all.
+	 */
+	private void closeElement(final String name) throws IOException {
+		if (compiledWhitelist.getAllowedTag(name) == null || !openElements.contains(name)) {
+			return;
+		}
+
+		String openElement;
+		do {
+			openElement = openElements.pop();
+			writeEndTag(openElement);
+		} while (!openElement.equals(name));
+	}
+
+	/**
+	 * Makes sure the parser would neither move nor close anything when opening {@code name}, at least for the
+	 * conservative subset of html known here.
+	 */
+	private void checkStructure(final String name) throws IOException {
+		final String parent = openElements.peek();
+		final boolean allowed;
+		if (PHRASING_ELEMENTS.contains(name)) {
+			allowed = !("a".equals(name) && openElements.contains(name));
+		} else if ("li".equals(name)) {
+			allowed = "ul".equals(parent) || "ol".equals(parent);
+		} else if ("dt".equals(name) || "dd".equals(name)) {
+			allowed = "dl".equals(parent);
+		} else {
+			allowed = BLOCK_ELEMENTS.contains(name) && (parent == null || CONTAINER_ELEMENTS.contains(parent));
+		}
+		// The parser drops a line break directly after the start of a pre element
+		if (!allowed || "pre".equals(name) && (in.peek() == '\n' || in.peek() == '\r')) {
+			throw NotCleanException.INSTANCE;
+		}
+	}
+
+	private String readTagName() throws IOException {
+		token.setLength(0);
+		int c;
+		while ((c = in.peek()) != -1 && !isWhitespace(c) && c != '/' && c != '>') {
+			token.append(Character.toLowerCase((char) c));
+			in.read();
+		}
+		return token.toString();
+	}
+
+	/**
+	 * Reads the attributes of a tag up to and including the closing {@code >}.
+	 *
+	 * @return False if the input ended before the tag was complete
+	 */
+	private boolean readAttributes() throws IOException {
+		attributeNames.clear();
+		attributeValues.clear();
+		selfClosing = false;
+		while (true) {
+			int c = in.read();
+			if (c == -1) {
+				return false;
+			} else if (c == '>') {
+				return true;
+			} else if (c == '/') {
+				if (in.peek() == '>') {
+					in.read();
+					selfClosing = true;
+					return true;
+				}
+			} else if (!isWhitespace(c)) {
+				token.setLength(0);
+				token.append((char) c);
+				while ((c = in.peek()) != -1 && !isWhitespace(c) && c != '/' && c != '>' && c != '=') {
+					token.append((char) c);
+					in.read();
+				}
+				final String name = token.toString();
+
+				String value = null;
+				skipWhitespace();
+				if (in.peek() == '=') {
+					in.read();
+					skipWhitespace();
+					value = readAttributeValue();
+				}
+				putAttribute(name, value);
+			}
+		}
+	}
+
+	private String readAttributeValue() throws IOException {
+		token.setLength(0);
+		int c = in.peek();
+		if (c == '"' || c == '\'') {
+			final int quote = in.read();
+			while ((c = in.read()) != quote && c != -1) {
+				token.append((char) c);
+			}
+		} else {
+			while ((c = in.peek()) != -1 && !isWhitespace(c) && c != '>') {
+				token.append((char) c);
+				in.read();
+			}
+		}
+		return token.indexOf("&") < 0 ? token.toString() : Parser.unescapeEntities(token.toString(), true);
+	}
+
+	/**
+	 * Like the parser, the last value of attributes with exactly the same name wins.
+	 */
+	private void putAttribute(final String name, final String value) {
+		final int index = attributeNames.indexOf(name);
+		if (index < 0) {
+			attributeNames.add(name);
+			attributeValues.add(value);
+		} else {
+			attributeValues.set(index, value);
+		}
+	}
+
+	/**
+	 * Reads the content of an element that can't contain tags up to its end tag.
+	 *
+	 * @param name                The name of the element
+	 * @param write               True if the content is kept
+	 * @param characterReferences True if character references in the content are resolved
+	 */
+	private void readRawText(final String name, final boolean write, final boolean characterReferences) throws IOException {
+		int c;
+		while ((c = in.read()) != -1) {
+			if (c == '<' && in.peek() == '/') {
+				in.read();
+				if (readEndTagName(name)) {
+					if (readAttributes()) {
+						closeElement(name);
+					}
+					return;
+				}
+				// Only the letters of the name have been read, which are just text
+				if (write) {
+					write("</");
+					write(token);
+				}
+			} else if (!write) {
+				continue;
+			} else if (c == '&' && characterReferences) {
+				writeCharacterReference();
+			} else {
+				write((char) c);
+			}
+		}
+	}
+
+	/**
+	 * Reads as much of {@code name} as matches the input into {@link #token}.
+	 *
+	 * @return True if the complete name has been read and is followed by something that ends a tag name
+	 */
+	private boolean readEndTagName(final String name) throws IOException {
+		token.setLength(0);
+		int c;
+		while (token.length() < name.length() && (c = in.peek()) != -1 && Character.toLowerCase((char) c) == name.charAt(token.length())) {
+			token.append((char) c);
+			in.read();
+		}
+		c = in.peek();
+		return token.length() == name.length() && (c == -1 || isWhitespace(c) || c == '/' || c == '>');
+	}
+
+	/**
+	 * Reads whatever follows a {@code <!}. Character data sections are text, everything else is dropped.
+	 */
+	private void readMarkupDeclaration() throws IOException {
+		if (in.peek() == '-') {
+			in.read();
+			if (in.peek() == '-') {
+				in.read();
+				skipComment();
+				return;
+			}
+		} else if (in.peek() == '[' && readLiterally("[CDATA[")) {
+			readCharacterData();
+			return;
+		}
+		skipBogusComment();
+	}
+
+	/**
+	 * Reads as much of {@code literal} as matches the input.
+	 *
+	 * @return True if the complete literal has been read
+	 */
+	private boolean readLiterally(final String literal) throws IOException {
+		for (int i = 0; i < literal.length(); ++i) {
+			if (in.peek() != literal.charAt(i)) {
+				return false;
+			}
+			in.read();
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the content of a character data section as text up to and excluding its end {@code ]]>}.
+	 */
+	private void readCharacterData() throws IOException {
+		int brackets = 0;
+		int c;
+		while ((c = in.read()) != -1) {
+			if (c == '>' && brackets >= 2) {
+				return;
+			} else if (c == ']') {
+				if (++brackets > 2) {
+					write(']');
+				}
+				continue;
+			}
+			for (; brackets > 0; --brackets) {
+				write(']');
+			}
+			write((char) c);
+		}
+		for (; brackets > 0; --brackets) {
+			write(']');
+		}
+	}
+
+	/**
+	 * Skips a comment up to its end. {@code <!-->} and {@code <!--->} are complete comments, too.
+	 */
+	private void skipComment() throws IOException {
+		int dashes = 2;
+		int c;
+		while ((c = in.read()) != -1) {
+			if (c == '>' && dashes >= 2) {
+				return;
+			}
+			dashes = c == '-' ? dashes + 1 : 0;
+		}
+	}
+
+	private void skipBogusComment() throws IOException {
+		int c;
+		do {
+			c = in.read();
+		} while (c != -1 && c != '>');
+	}
+
+	private void skipWhitespace() throws IOException {
+		while (isWhitespace(in.peek())) {
+			in.read();
+		}
+	}
+
+	/**
+	 * Writes a character reference starting after the {@code &} resolved like in text outside of attributes.
+	 */
+	private void writeCharacterReference() throws IOException {
+		token.setLength(0);
+		token.append('&');
+		int c;
+		while (token.length() <= MAX_CHARACTER_REFERENCE_LENGTH && isCharacterReferencePart(c = in.peek())) {
+			token.append((char) c);
+			in.read();
+		}
+		if (token.length() == 1) {
+			write('&');
+			return;
+		}
+		if (in.peek() == ';') {
+			token.append(';');
+			in.read();
+		}
+		write(Parser.unescapeEntities(token.toString(), false));
+	}
+
+	/**
+	 * Writes the allowed attributes in the same way the {@link HtmlFilter.Engine#COMPILED} engine does.
+	 */
+	private void writeStartTag(final String name, final CompiledWhitelist.AllowedTag allowedTag) throws IOException {
+		for (int i = 0; i < attributeNames.size(); ++i) {
+			final String key = attributeNames.get(i).toLowerCase(Locale.ENGLISH);
+			final String[] protocols = allowedTag.getProtocols(key);
+			if (protocols == null) {
+				continue;
+			}
+
+			String value = attributeValues.get(i);
+			if (protocols.length != 0) {
+				final String absoluteValue = absoluteUrl(key);
+				if (!absoluteValue.isEmpty()) {
+					value = absoluteValue;
+				}
+				if (value == null || !CompiledWhitelist.hasAllowedProtocol(value, protocols)) {
+					continue;
+				}
+			}
+			allowedAttributes.put(key, value);
+		}
+
+		write('<');
+		write(name);
+		for (Map.Entry<String, String> attribute : allowedAttributes.entrySet()) {
+			write(' ');
+			write(attribute.getKey());
+			if (attribute.getValue() != null) {
+				write("=\"");
+				write(attribute.getValue());
+				write('"');
+			}
+		}
+		allowedAttributes.clear();
+		write('>');
+	}
+
+	/**
+	 * Resolves the first attribute named {@code key} regardless of case, like {@link org.jsoup.nodes.Element#absUrl(String)} does.
+	 */
+	private String absoluteUrl(final String key) {
+		for (int i = 0; i < attributeNames.size(); ++i) {
+			if (attributeNames.get(i).equalsIgnoreCase(key)) {
+				final String value = attributeValues.get(i);
+				return StringUtil.resolve(this.baseUri, value == null ? "" : value);
+			}
+		}
+		return "";
+	}
+
+	private void writeEndTag(final String name) throws IOException {
+		write("</");
+		write(name);
+		write('>');
+	}
+
+	private void write(final CharSequence content) {
+		for (int i = 0, length = content.length(); i < length; ++i) {
+			write(content.charAt(i));
+		}
+	}
+
+	private void write(final char c) {
+		if (c <= ' ') {
+			if (this.started) {
+				this.pendingBlanks.append(c);
+			}
+			return;
+		}
+		if (this.pendingBlanks.length() != 0) {
+			if (this.expected == null) {
+				this.out.append(this.pendingBlanks);
+			} else {
+				compare(this.pendingBlanks);
+			}
+			this.pendingBlanks.setLength(0);
+		}
+		this.started = true;
+		if (this.expected == null) {
+			this.out.append(c);
+		} else {
+			compare(c);
+		}
+	}
+
+	private void compare(final CharSequence content) {
+		for (int i = 0, length = content.length(); i < length; ++i) {
+			compare(content.charAt(i));
+		}
+	}
+
+	/**
+	 * Characters the parser doesn't keep as they are, like null characters, are never clean.
+	 */
+	private void compare(final char c) {
+		if (HtmlFilter.UNKEPT_CHARACTERS.contains(c) || this.matched == this.expected.length() || this.expected.charAt(this.matched) != c) {
+			throw NotCleanException.INSTANCE;
+		}
+		++this.matched;
+	}
+
+	private static boolean isAsciiLetter(final int c) {
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+	}
+
+	private static boolean isCharacterReferencePart(final int c) {
+		return isAsciiLetter(c) || c >= '0' && c <= '9' || c == '#';
+	}
+
+	private static boolean isWhitespace(final int c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+	}
+
+	/**
+	 * Stops checking an input at the first difference. There is only one instance without a stack trace.
+	 */
+	private static final class NotCleanException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		static final NotCleanException INSTANCE = new NotCleanException();
+
+		private NotCleanException() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * A buffered reader that can look at the next character without consuming it.
+	 */
+	private static final class Input {
+
+		private final Reader reader;
+
+		private final TextFilterBudget budget;
+
+		private final char[] buffer = new char[8192];
+
+		private int position;
+
+		private int limit;
+
+		Input(final Reader reader, final TextFilterBudget budget) {
+			this.reader = reader;
+			this.budget = budget;
+		}
+
+		int peek() throws IOException {
+			if (this.position == this.limit) {
+				this.position = 0;
+				this.limit = Math.max(0, this.reader.read(this.buffer, 0, this.buffer.length));
+				if (this.limit == 0) {
+					return -1;
+				}
+				if (this.budget != null) {
+					this.budget.charge(this.limit);
+				}
+			}
+			return this.buffer[this.position];
+		}
+
+		int read() throws IOException {
+			final int rv = peek();
+			if (rv != -1) {
+				++this.position;
+			}
+			return rv;
+		}
+	}
+}
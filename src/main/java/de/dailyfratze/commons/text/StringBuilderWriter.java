@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.io.Writer;
+
+/**
+ * A writer collecting its output in a {@link StringBuilder}. Other than the {@link java.io.StringWriter}, which is
+ * backed by a {@link StringBuffer}, it doesn't enter a monitor for every write. It is meant to be confined to one thread.
+ *
+ * @author Michael J. Simons, 2018-08-03
+ */
+final class StringBuilderWriter extends Writer {
+
+	private final StringBuilder builder;
+
+	/**
+	 * @param initialCapacity The initial capacity of the builder
+	 */
+	StringBuilderWriter(final int initialCapacity) {
+		this.builder = new StringBuilder(initialCapacity);
+	}
+
+	@Override
+	public void write(final int c) {
+		this.builder.append((char) c);
+	}
+
+	@Override
+	public void write(final char[] cbuf, final int off, final int len) {
+		this.builder.append(cbuf, off, len);
+	}
+
+	@Override
+	public void write(final String str) {
+		this.builder.append(str);
+	}
+
+	@Override
+	public void write(final String str, final int off, final int len) {
+		this.builder.append(str, off, off + len);
+	}
+
+	@Override
+	public Writer append(final CharSequence csq) {
+		this.builder.append(csq);
+		return this;
+	}
+
+	@Override
+	public Writer append(final CharSequence csq, final int start, final int end) {
+		this.builder.append(csq, start, end);
+		return this;
+	}
+
+	@Override
+	public Writer append(final char c) {
+		this.builder.append(c);
+		return this;
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * @return Everything written so far
+	 */
+	@Override
+	public String toString() {
+		return this.builder.toString();
+	}
+}
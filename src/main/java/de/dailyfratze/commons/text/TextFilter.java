@@ -15,7 +15,16 @@
  */
 package de.dailyfratze.commons.text;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiFunction;
 
 /**
@@ -27,7 +36,118 @@ import java.util.function.BiFunction;
 public interface TextFilter extends BiFunction<String, String, String> {
 
 	/**
-	 * Replaces all line breaks with {@code <br />} tags.
+	 * Replaces all line breaks ({@code \r\n} and {@code \n}) with {@code <br />} tags.
 	 */
-	TextFilter AUTO_BR = (input, baseUrl) -> input == null || input.trim().isEmpty() ? input : input.replaceAll("(?:\r\n|\n)", "<br />");
+	TextFilter AUTO_BR = new AutoBrFilter();
+
+	/**
+	 * Filters everything from {@code in} and writes the result to {@code out}. This default implementation
+	 * reads the whole input into memory, filters implementing a real streaming variant override it.
+	 * Neither {@code in} nor {@code out} is closed.
+	 *
+	 * @param in      The input
+	 * @param out     Receives the filtered output
+	 * @param baseUrl An optional base url for resolving relative urls
+	 * @throws IOException When reading or writing fails
+	 */
+	default void apply(final Reader in, final Writer out, final String baseUrl) throws IOException {
+		final String rv = apply(TextFilterSupport.read(in), baseUrl);
+		if (rv != null) {
+			out.write(rv);
+		}
+	}
+
+	/**
+	 * Filters {@code input} and writes the result encoded as UTF-8 to {@code out}, which is flushed but not closed.
+	 * This default implementation encodes the filtered string in chunks, without creating an array of all bytes.
+	 * The {@link TextileFilter} encodes while rendering, without creating a string at all.
+	 *
+	 * @param input   The input
+	 * @param out     Receives the filtered output encoded as UTF-8
+	 * @param baseUrl An optional base url for resolving relative urls
+	 * @throws IOException When writing fails
+	 */
+	default void applyUtf8(final String input, final OutputStream out, final String baseUrl) throws IOException {
+		final String rv = apply(input, baseUrl);
+		if (rv != null) {
+			final Utf8Encoder encoder = new Utf8Encoder(out);
+			encoder.encode(rv, 0, rv.length());
+			encoder.finish();
+		}
+	}
+
+	/**
+	 * Applies this filter to all {@code inputs} in parallel on the common fork join pool.
+	 *
+	 * @param inputs  The documents to filter
+	 * @param baseUrl An optional base url for resolving relative urls
+	 * @return The filtered documents in the same order as {@code inputs}
+	 * @see #applyAll(List, String, Executor)
+	 */
+	default List<String> applyAll(final List<String> inputs, final String baseUrl) {
+		return applyAll(inputs, baseUrl, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Applies this filter to all {@code inputs} in parallel. The inputs are split into contiguous chunks,
+	 * each filtered by one task on {@code executor}. The filter must be thread safe, which all filters of
+	 * this package are. This method blocks until all documents are filtered, the first exception thrown by
+	 * the filter is rethrown.
+	 *
+	 * @param inputs   The documents to filter
+	 * @param baseUrl  An optional base url for resolving relative urls
+	 * @param executor The executor running the tasks
+	 * @return The filtered documents in the same order as {@code inputs}
+	 */
+	default List<String> applyAll(final List<String> inputs, final String baseUrl, final Executor executor) {
+		return TextFilterBatch.applyAll(this, inputs, baseUrl, executor);
+	}
+
+	/**
+	 * Applies this filter asynchronously on the common fork join pool.
+	 *
+	 * @param input   The document to filter
+	 * @param baseUrl An optional base url for resolving relative urls
+	 * @return A stage completing with the filtered document
+	 * @see #applyAsync(String, String, Executor)
+	 */
+	default CompletionStage<String> applyAsync(final String input, final String baseUrl) {
+		return applyAsync(input, baseUrl, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Applies this filter asynchronously on {@code executor}. The returned stage completes with the filtered
+	 * document or exceptionally with the exception thrown by the filter. The filters of this package don't
+	 * hold any monitor while they work, so {@code executor} may as well run its tasks on virtual threads.
+	 *
+	 * @param input    The document to filter
+	 * @param baseUrl  An optional base url for resolving relative urls
+	 * @param executor The executor running the filter
+	 * @return A stage completing with the filtered document
+	 */
+	default CompletionStage<String> applyAsync(final String input, final String baseUrl, final Executor executor) {
+		return CompletableFuture.supplyAsync(() -> apply(input, baseUrl), executor);
+	}
+
+	/**
+	 * Measures every call of this filter and reports the sizes and the duration to {@code listener}. Filters
+	 * that are not instrumented are not measured at all.
+	 *
+	 * @param name     The name under which the calls are reported
+	 * @param listener Receives the measurements
+	 * @return An instrumented variant of this filter
+	 * @see TextFilterMetrics
+	 */
+	default TextFilter instrumented(final String name, final TextFilterListener listener) {
+		return InstrumentedTextFilter.of(name, this, listener);
+	}
+
+	/**
+	 * Starts a new pipeline of filters, that are applied one after another.
+	 *
+	 * @return A builder for a new pipeline
+	 */
+	static TextFilterPipeline.Builder pipeline() {
+		return new TextFilterPipeline.Builder();
+	}
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Applies a filter to many documents in parallel. The documents are split into contiguous chunks, a few
+ * more chunks than there are workers, so that uneven documents don't leave workers idle. Every chunk
+ * is filtered by one task, which reuses the buffers of a {@link TextFilterPipeline} for all of its documents.
+ *
+ * @author Michael J. Simons, 2018-07-27
+ */
+final class TextFilterBatch {
+
+	/**
+	 * Number of chunks per worker.
+	 */
+	private static final int CHUNKS_PER_WORKER = 4;
+
+	/**
+	 * @param filter   The filter to apply
+	 * @param inputs   The documents
+	 * @param baseUrl  An optional base url for resolving relative urls
+	 * @param executor Runs the tasks
+	 * @return The filtered documents in the order of {@code inputs}
+	 */
+	static List<String> applyAll(final TextFilter filter, final List<String> inputs, final String baseUrl, final Executor executor) {
+		final String[] rv = new String[inputs.size()];
+		if (rv.length == 0) {
+			return Collections.emptyList();
+		}
+
+		final int workers = executor instanceof ForkJoinPool ? ((ForkJoinPool) executor).getParallelism() : Runtime.getRuntime().availableProcessors();
+		final int numberOfChunks = Math.min(rv.length, Math.max(1, workers) * CHUNKS_PER_WORKER);
+		final CompletableFuture<?>[] chunks = new CompletableFuture<?>[numberOfChunks];
+		for (int i = 0; i < numberOfChunks; ++i) {
+			final int from = (int) ((long) rv.length * i / numberOfChunks);
+			final int to = (int) ((long) rv.length * (i + 1) / numberOfChunks);
+			chunks[i] = CompletableFuture.runAsync(() -> applyChunk(filter, inputs, baseUrl, rv, from, to), executor);
+		}
+
+		join(CompletableFuture.allOf(chunks));
+		return Collections.unmodifiableList(Arrays.asList(rv));
+	}
+
+	/**
+	 * Waits for {@code task} to complete. Unchecked exceptions thrown by the task are rethrown as they are.
+	 *
+	 * @param task The task to wait for
+	 * @param <T>  Type of the result
+	 * @return The result of the task
+	 */
+	static <T> T join(final CompletableFuture<T> task) {
+		try {
+			return task.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			} else if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private static void applyChunk(final TextFilter filter, final List<String> inputs, final String baseUrl, final String[] rv, final int from, final int to) {
+		if (filter instanceof TextFilterPipeline) {
+			final TextFilterPipeline pipeline = (TextFilterPipeline) filter;
+			final StringBuilder[] buffers = new StringBuilder[2];
+			for (int i = from; i < to; ++i) {
+				rv[i] = pipeline.apply(inputs.get(i), baseUrl, buffers);
+			}
+		} else {
+			for (int i = from; i < to; ++i) {
+				rv[i] = filter.apply(inputs.get(i), baseUrl);
+			}
+		}
+	}
+
+	private TextFilterBatch() {
+	}
+}
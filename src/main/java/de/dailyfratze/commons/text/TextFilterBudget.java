@@ -0,0 +1,51 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+/**
+ * Internal contract between the {@link GuardedTextFilter} and the filters in this package that can't be checked
+ * through their input or output, because they hand the whole input to a parser. Those filters charge their work
+ * to the budget of the current document while they render or clean it.
+ *
+ * @author Michael J. Simons, 2018-08-07
+ */
+interface TextFilterBudget {
+
+	/**
+	 * Charges work to the budget. The time is only checked every so many steps, so that this can be called
+	 * for every single character.
+	 *
+	 * @param steps Number of characters examined
+	 * @throws TextFilterLimitExceededException When the budget of steps or time is exhausted
+	 */
+	void step(long steps);
+
+	/**
+	 * Charges work to the budget and checks all limits, including the time.
+	 *
+	 * @param steps Number of characters examined or written since the last call
+	 * @throws TextFilterLimitExceededException When the budget of steps or time is exhausted
+	 */
+	void charge(long steps);
+
+	/**
+	 * Checks the output of the current filter against the maximum expansion while it is produced.
+	 *
+	 * @param length Number of characters the current filter has written so far
+	 * @throws TextFilterLimitExceededException When the output exceeds the maximum expansion
+	 */
+	void checkOutput(long length);
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+/**
+ * Thrown by a {@link GuardedTextFilter} when a document exceeds one of its limits.
+ *
+ * @author Michael J. Simons, 2018-08-02
+ */
+public final class TextFilterLimitExceededException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The limits of a {@link GuardedTextFilter}.
+	 */
+	public enum Limit {
+		/**
+		 * The input is longer than the maximum input length.
+		 */
+		INPUT_LENGTH,
+		/**
+		 * The output is longer than allowed by the maximum expansion.
+		 */
+		EXPANSION,
+		/**
+		 * The filter examined more characters than the maximum number of steps.
+		 */
+		STEPS,
+		/**
+		 * The filter took longer than the timeout.
+		 */
+		TIME
+	}
+
+	private final Limit limit;
+
+	TextFilterLimitExceededException(final Limit limit, final String message) {
+		super(message);
+		this.limit = limit;
+	}
+
+	/**
+	 * @return The limit that has been exceeded
+	 */
+	public Limit getLimit() {
+		return limit;
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+/**
+ * Receives measurements of filters that are {@link TextFilter#instrumented(String, TextFilterListener) instrumented}
+ * and the number of smilies replaced by a {@link SmileyFilter#setListener(TextFilterListener) SmileyFilter}.
+ * {@link TextFilterMetrics} records them in memory, adapters for other metric libraries can implement this
+ * interface directly. Listeners are called on the thread that applied the filter and must be thread safe.
+ *
+ * @author Michael J. Simons, 2018-08-01
+ */
+@FunctionalInterface
+public interface TextFilterListener {
+
+	/**
+	 * Called after a filter has been applied to a document.
+	 *
+	 * @param filter        The name of the filter
+	 * @param inputLength   Number of characters of the input
+	 * @param outputLength  Number of characters of the output
+	 * @param durationNanos Duration of the call in nanoseconds
+	 */
+	void filtered(String filter, long inputLength, long outputLength, long durationNanos);
+
+	/**
+	 * Called when a filter threw an exception.
+	 *
+	 * @param filter        The name of the filter
+	 * @param durationNanos Duration of the call in nanoseconds
+	 * @param cause         The exception thrown by the filter
+	 */
+	default void failed(final String filter, final long durationNanos, final Throwable cause) {
+	}
+
+	/**
+	 * Called after a {@link SmileyFilter} has been applied to a document.
+	 *
+	 * @param smileyPack The name of the smiley pack
+	 * @param matches    Number of codes replaced
+	 */
+	default void smileysReplaced(final String smileyPack, final int matches) {
+	}
+
+	/**
+	 * Checked before every call, a disabled listener costs the instrumented filters one call to this method.
+	 *
+	 * @return True, if this listener wants to receive measurements
+	 */
+	default boolean isEnabled() {
+		return true;
+	}
+}
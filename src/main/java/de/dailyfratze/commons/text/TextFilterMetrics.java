@@ -0,0 +1,247 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import static java.lang.String.format;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the measurements of instrumented filters in memory: Number of calls and failures, number of characters
+ * read and written and a histogram of the latencies per filter, as well as the number of replaced smilies per
+ * smiley pack. The current values are read as {@link Statistics snapshots}, for example by a gauge
+ * of a metrics library or a JMX bean. Use one instance for all filters:
+ * <pre>
+ * TextFilterMetrics metrics = new TextFilterMetrics();
+ * smileyFilter.setListener(metrics);
+ * TextFilter.pipeline()
+ *     .then(new TextileFilter().instrumented("textile", metrics))
+ *     .then(smileyFilter.instrumented("smilies", metrics))
+ *     .build();
+ * </pre>
+ * Recording can be switched off at runtime, which reduces the cost of instrumented filters to reading a
+ * volatile field.
+ *
+ * @author Michael J. Simons, 2018-08-01
+ */
+public final class TextFilterMetrics implements TextFilterListener {
+
+	/**
+	 * A snapshot of the measurements of one filter.
+	 */
+	public static final class Statistics {
+
+		private final long count;
+
+		private final long failureCount;
+
+		private final long inputLength;
+
+		private final long outputLength;
+
+		private final long[] latencies;
+
+		private final long maxLatency;
+
+		Statistics(final long count, final long failureCount, final long inputLength, final long outputLength, final long[] latencies, final long maxLatency) {
+			this.count = count;
+			this.failureCount = failureCount;
+			this.inputLength = inputLength;
+			this.outputLength = outputLength;
+			this.latencies = latencies;
+			this.maxLatency = maxLatency;
+		}
+
+		/**
+		 * @return Number of successful calls
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return Number of calls that threw an exception
+		 */
+		public long getFailureCount() {
+			return failureCount;
+		}
+
+		/**
+		 * @return Number of characters read by successful calls
+		 */
+		public long getInputLength() {
+			return inputLength;
+		}
+
+		/**
+		 * @return Number of characters written by successful calls
+		 */
+		public long getOutputLength() {
+			return outputLength;
+		}
+
+		/**
+		 * Returns the latency below or at which {@code percentile} percent of all calls completed. The value
+		 * is the upper bound of a bucket and at most {@literal 1/16} above the real latency.
+		 *
+		 * @param percentile The percentile between {@literal 0} and {@literal 100}
+		 * @param unit       The unit of the returned latency
+		 * @return The latency of the given percentile or {@literal 0} if there haven't been any calls
+		 */
+		public double getLatency(final double percentile, final TimeUnit unit) {
+			if (percentile < 0.0 || percentile > 100.0) {
+				throw new IllegalArgumentException("The percentile must be between 0 and 100.");
+			}
+
+			long total = 0;
+			for (long c : this.latencies) {
+				total += c;
+			}
+			if (total == 0) {
+				return 0.0;
+			}
+
+			final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+			long seen = 0;
+			int index = 0;
+			while (index < this.latencies.length - 1 && (seen += this.latencies[index]) < rank) {
+				++index;
+			}
+			return toUnit(Math.min(LatencyHistogram.highestValueOf(index), this.maxLatency), unit);
+		}
+
+		/**
+		 * @param unit The unit of the returned latency
+		 * @return The highest latency of all calls
+		 */
+		public double getMaxLatency(final TimeUnit unit) {
+			return toUnit(this.maxLatency, unit);
+		}
+
+		private static double toUnit(final long nanos, final TimeUnit unit) {
+			return (double) nanos / unit.toNanos(1);
+		}
+
+		@Override
+		public String toString() {
+			return format("Statistics{count=%d, failureCount=%d, inputLength=%d, outputLength=%d, p50=%.3fms, p99=%.3fms, max=%.3fms}",
+					count, failureCount, inputLength, outputLength,
+					getLatency(50, TimeUnit.MILLISECONDS), getLatency(99, TimeUnit.MILLISECONDS), getMaxLatency(TimeUnit.MILLISECONDS));
+		}
+	}
+
+	/**
+	 * The measurements of one filter.
+	 */
+	private static final class Recorder {
+
+		final LongAdder count = new LongAdder();
+
+		final LongAdder failureCount = new LongAdder();
+
+		final LongAdder inputLength = new LongAdder();
+
+		final LongAdder outputLength = new LongAdder();
+
+		final LatencyHistogram latencies = new LatencyHistogram();
+
+		Statistics snapshot() {
+			return new Statistics(this.count.sum(), this.failureCount.sum(), this.inputLength.sum(), this.outputLength.sum(),
+					this.latencies.getCounts(), this.latencies.getMax());
+		}
+	}
+
+	private final Map<String, Recorder> recorders = new ConcurrentHashMap<>();
+
+	private final Map<String, LongAdder> smileyMatches = new ConcurrentHashMap<>();
+
+	private volatile boolean enabled = true;
+
+	@Override
+	public void filtered(final String filter, final long inputLength, final long outputLength, final long durationNanos) {
+		final Recorder recorder = recorderFor(filter);
+		recorder.count.increment();
+		recorder.inputLength.add(inputLength);
+		recorder.outputLength.add(outputLength);
+		recorder.latencies.record(durationNanos);
+	}
+
+	@Override
+	public void failed(final String filter, final long durationNanos, final Throwable cause) {
+		final Recorder recorder = recorderFor(filter);
+		recorder.failureCount.increment();
+		recorder.latencies.record(durationNanos);
+	}
+
+	@Override
+	public void smileysReplaced(final String smileyPack, final int matches) {
+		this.smileyMatches.computeIfAbsent(smileyPack, k -> new LongAdder()).add(matches);
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * @param enabled False to stop recording, true to continue
+	 */
+	public void setEnabled(final boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return The names of all filters that have been measured so far
+	 */
+	public Set<String> getFilters() {
+		return Collections.unmodifiableSet(this.recorders.keySet());
+	}
+
+	/**
+	 * @param filter The name of a filter
+	 * @return A snapshot of the measurements of the filter, empty if it hasn't been measured yet
+	 */
+	public Statistics getStatistics(final String filter) {
+		final Recorder recorder = this.recorders.get(filter);
+		return (recorder == null ? new Recorder() : recorder).snapshot();
+	}
+
+	/**
+	 * @param smileyPack The name of a smiley pack
+	 * @return Number of smilies of the pack replaced so far
+	 */
+	public long getSmileyMatches(final String smileyPack) {
+		final LongAdder matches = this.smileyMatches.get(smileyPack);
+		return matches == null ? 0 : matches.sum();
+	}
+
+	/**
+	 * @return The names of all smiley packs that have been used so far
+	 */
+	public Set<String> getSmileyPacks() {
+		return Collections.unmodifiableSet(this.smileyMatches.keySet());
+	}
+
+	private Recorder recorderFor(final String filter) {
+		final Recorder recorder = this.recorders.get(filter);
+		return recorder == null ? this.recorders.computeIfAbsent(filter, k -> new Recorder()) : recorder;
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Applies several filters one after another. {@literal null} and blank input is returned as is
+ * without calling any filter. The filters of this package pass their intermediate results
+ * through two reused buffers instead of creating a string after each step, only the final
+ * result is turned into a string. Filters that only insert tags, like the {@link SmileyFilter}
+ * and {@link TextFilter#AUTO_BR}, don't copy their input at all but splice the tags into it.
+ * <br>
+ * Create pipelines through {@link TextFilter#pipeline()}:
+ * <pre>
+ * TextFilter.pipeline()
+ *     .then(new TextileFilter())
+ *     .then(new HtmlFilter("a", "p"))
+ *     .then(smileyFilter)
+ *     .then(TextFilter.AUTO_BR)
+ *     .build();
+ * </pre>
+ *
+ * @author Michael J. Simons, 2018-07-23
+ */
+public final class TextFilterPipeline implements TextFilter {
+
+	/**
+	 * Collects the filters of a pipeline.
+	 */
+	public static final class Builder {
+
+		private final List<TextFilter> filters = new ArrayList<>();
+
+		Builder() {
+		}
+
+		/**
+		 * Adds a filter to the end of the pipeline.
+		 *
+		 * @param filter The filter to add
+		 * @return This builder
+		 */
+		public Builder then(final TextFilter filter) {
+			this.filters.add(Objects.requireNonNull(filter, "Filter must not be null"));
+			return this;
+		}
+
+		/**
+		 * @return A new pipeline with all filters added so far
+		 */
+		public TextFilterPipeline build() {
+			return new TextFilterPipeline(this.filters.toArray(new TextFilter[0]));
+		}
+	}
+
+	private final TextFilter[] filters;
+
+	private TextFilterPipeline(final TextFilter[] filters) {
+		this.filters = filters;
+	}
+
+	@Override
+	public String apply(final String input, final String baseUrl) {
+		return apply(input, baseUrl, new StringBuilder[2]);
+	}
+
+	/**
+	 * Applies all filters, using and keeping the intermediate buffers in {@code buffers}, so that
+	 * subsequent calls on the same thread can reuse them.
+	 *
+	 * @param input   The input
+	 * @param baseUrl An optional base url for resolving relative urls
+	 * @param buffers Two buffers, which may be {@literal null} and are created on demand
+	 * @return The filtered input
+	 */
+	String apply(final String input, final String baseUrl, final StringBuilder[] buffers) {
+		return apply(input, baseUrl, buffers, null);
+	}
+
+	/**
+	 * Applies all filters like {@link #apply(String, String, StringBuilder[])} and charges their work to
+	 * {@code budget}. Filters of this package check the budget while they work, other filters are charged with
+	 * their whole input before they are applied. The output of every filter is checked against the maximum expansion
+	 * before it is handed to the next one.
+	 *
+	 * @param input   The input
+	 * @param baseUrl An optional base url for resolving relative urls
+	 * @param buffers Two buffers, which may be {@literal null} and are created on demand
+	 * @param budget  The budget of the current document, {@literal null} if unlimited
+	 * @return The filtered input
+	 */
+	String apply(final String input, final String baseUrl, final StringBuilder[] buffers, final TextFilterBudget budget) {
+		if (input == null || TextFilterSupport.isBlank(input)) {
+			return input;
+		}
+
+		CharSequence current = input;
+		StringBuilder buffer1 = buffers[0];
+		StringBuilder buffer2 = buffers[1];
+		for (TextFilter filter : this.filters) {
+			if (filter instanceof TextFilterStage) {
+				// The filters of this package don't change blank input,
+				// which only needs to be checked if a previous filter removed everything
+				if (TextFilterSupport.isBlank(current)) {
+					continue;
+				}
+				final StringBuilder buffer;
+				// Spliced text still refers to the buffer it has been spliced into
+				if (SplicedText.originalOf(current) == buffer1) {
+					buffer2 = buffer2 == null ? new StringBuilder(current.length()) : buffer2;
+					buffer = buffer2;
+				} else {
+					buffer1 = buffer1 == null ? new StringBuilder(current.length()) : buffer1;
+					buffer = buffer1;
+				}
+				buffer.setLength(0);
+				buffers[0] = buffer1;
+				buffers[1] = buffer2;
+				current = budget == null
+						? ((TextFilterStage) filter).applyStage(current, baseUrl, buffer)
+						: ((TextFilterStage) filter).applyStage(current, baseUrl, buffer, budget);
+			} else {
+				if (budget != null) {
+					budget.charge(current.length());
+				}
+				current = filter.apply(current.toString(), baseUrl);
+				if (current == null) {
+					return null;
+				}
+			}
+			if (budget != null) {
+				budget.checkOutput(current.length());
+			}
+		}
+		return current.toString();
+	}
+}
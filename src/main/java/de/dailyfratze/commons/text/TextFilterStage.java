@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+/**
+ * Internal contract of the filters in this package that lets a {@link TextFilterPipeline}
+ * hand intermediate results from one filter to the next without turning them into strings.
+ *
+ * @author Michael J. Simons, 2018-07-23
+ */
+interface TextFilterStage {
+
+	/**
+	 * Applies a filter to an input that has already been checked by the pipeline. Filters that
+	 * build their output piece by piece append it to {@code buffer} and return the buffer.
+	 * Filters that don't change the input may return it as is.
+	 *
+	 * @param input   The input, neither {@literal null} nor blank
+	 * @param baseUrl An optional base url for resolving relative urls
+	 * @param buffer  An empty buffer that may be used for the output
+	 * @return The filtered input
+	 */
+	CharSequence applyStage(CharSequence input, String baseUrl, StringBuilder buffer);
+
+	/**
+	 * Applies a filter like {@link #applyStage(CharSequence, String, StringBuilder)} and charges its work to
+	 * {@code budget}. By default, filters that {@link #scansInput() scan their input} get a view on it that charges
+	 * every character they examine, the other filters are charged with the whole input before they are applied.
+	 * Filters that hand their input to a parser check the budget while they work.
+	 *
+	 * @param input   The input, neither {@literal null} nor blank
+	 * @param baseUrl An optional base url for resolving relative urls
+	 * @param buffer  An empty buffer that may be used for the output
+	 * @param budget  The budget of the current document
+	 * @return The filtered input
+	 * @throws TextFilterLimitExceededException When the budget is exhausted
+	 */
+	default CharSequence applyStage(final CharSequence input, final String baseUrl, final StringBuilder buffer, final TextFilterBudget budget) {
+		if (scansInput()) {
+			final BudgetedCharSequence budgetedInput = new BudgetedCharSequence(input, budget);
+			final CharSequence rv = applyStage(budgetedInput, baseUrl, buffer);
+			return rv == budgetedInput ? input : rv;
+		}
+		budget.charge(input.length());
+		return applyStage(input, baseUrl, buffer);
+	}
+
+	/**
+	 * @return True, if {@link #applyStage(CharSequence, String, StringBuilder)} examines the input character by
+	 * character instead of turning it into a string first
+	 */
+	default boolean scansInput() {
+		return false;
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Helper shared by the filters in this package.
+ *
+ * @author Michael J. Simons, 2018-07-23
+ */
+final class TextFilterSupport {
+
+	/**
+	 * Checks whether {@code input} is blank in the sense of {@code input.trim().isEmpty()},
+	 * without creating a trimmed copy. In most cases only the first character has to be looked at.
+	 *
+	 * @param input The input to check, must not be {@literal null}
+	 * @return True, if the input consists only of characters less than or equal to a space
+	 */
+	static boolean isBlank(final CharSequence input) {
+		for (int i = 0, length = input.length(); i < length; ++i) {
+			if (input.charAt(i) > ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads everything from {@code in}.
+	 *
+	 * @param in The reader to read from
+	 * @return The content of the reader
+	 * @throws IOException When reading fails
+	 */
+	static String read(final Reader in) throws IOException {
+		final StringBuilder rv = new StringBuilder();
+		final char[] buffer = new char[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			rv.append(buffer, 0, read);
+		}
+		return rv.toString();
+	}
+
+	/**
+	 * Reads the leading characters of {@code in} up to the first one that is not blank. Blank input
+	 * is copied to {@code out} as is, as the filters leave it untouched.
+	 *
+	 * @param in  The reader to check
+	 * @param out The writer receiving blank input
+	 * @return {@literal null} if {@code in} has been blank and was copied, otherwise a reader that still returns all characters
+	 * @throws IOException When reading or writing fails
+	 */
+	static Reader copyIfBlank(final Reader in, final Writer out) throws IOException {
+		final StringBuilder leadingBlanks = new StringBuilder();
+		int c;
+		while ((c = in.read()) != -1 && c <= ' ') {
+			leadingBlanks.append((char) c);
+		}
+		if (c == -1) {
+			out.append(leadingBlanks);
+			return null;
+		}
+
+		leadingBlanks.append((char) c);
+		return new PrefixedReader(leadingBlanks.toString(), in);
+	}
+
+	/**
+	 * Writes {@code content} to {@code out} without turning it into a string first.
+	 *
+	 * @param content The content to write
+	 * @param out     The target
+	 * @param scratch A buffer that can be used for copying
+	 * @throws IOException When writing fails
+	 */
+	static void write(final CharSequence content, final Writer out, final char[] scratch) throws IOException {
+		if (content instanceof String) {
+			out.write((String) content);
+			return;
+		}
+		for (int i = 0, length = content.length(); i < length; i += scratch.length) {
+			final int end = Math.min(length, i + scratch.length);
+			if (content instanceof StringBuilder) {
+				((StringBuilder) content).getChars(i, end, scratch, 0);
+			} else {
+				for (int j = i; j < end; ++j) {
+					scratch[j - i] = content.charAt(j);
+				}
+			}
+			out.write(scratch, 0, end - i);
+		}
+	}
+
+	private TextFilterSupport() {
+	}
+
+	/**
+	 * Returns characters that have already been read before the rest of a reader. Other than a
+	 * {@link java.io.PushbackReader}, it doesn't hold a monitor while reading from the underlying reader.
+	 */
+	private static final class PrefixedReader extends Reader {
+
+		private final String prefix;
+
+		private final Reader in;
+
+		private int position;
+
+		PrefixedReader(final String prefix, final Reader in) {
+			this.prefix = prefix;
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return this.position < this.prefix.length() ? this.prefix.charAt(this.position++) : this.in.read();
+		}
+
+		@Override
+		public int read(final char[] cbuf, final int off, final int len) throws IOException {
+			if (this.position == this.prefix.length()) {
+				return this.in.read(cbuf, off, len);
+			}
+			final int read = Math.min(len, this.prefix.length() - this.position);
+			this.prefix.getChars(this.position, this.position + read, cbuf, off);
+			this.position += read;
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.in.close();
+		}
+	}
+}
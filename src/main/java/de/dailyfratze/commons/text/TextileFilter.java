@@ -16,8 +16,13 @@
 package de.dailyfratze.commons.text;
 
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.eclipse.mylyn.wikitext.core.parser.MarkupParser;
 import org.eclipse.mylyn.wikitext.core.parser.builder.HtmlDocumentBuilder;
@@ -31,7 +36,39 @@ import org.eclipse.mylyn.wikitext.textile.core.TextileLanguage;
  *
  * @author Michael J. Simons, 2014-12-27
  */
-public final class TextileFilter implements TextFilter {
+public final class TextileFilter implements TextFilter, TextFilterStage {
+
+	/**
+	 * Default number of pooled renderers, enough for every cpu to render a document.
+	 */
+	public static final int DEFAULT_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Idle renderers or {@literal null} if every call creates its own.
+	 */
+	private final BlockingQueue<Renderer> renderers;
+
+	/**
+	 * Creates a new filter that reuses up to {@link #DEFAULT_POOL_SIZE} renderers.
+	 */
+	public TextileFilter() {
+		this(DEFAULT_POOL_SIZE);
+	}
+
+	/**
+	 * Creates a new filter. A renderer consists of the Textile language, the parser and the xml writer.
+	 * Initializing the language is expensive, so renderers are reused by subsequent calls. Renderers are
+	 * pooled instead of being held in thread locals, so that executors creating a thread per task don't create a
+	 * renderer per thread. Any thread may use any idle renderer. A call that finds no idle renderer creates a new one.
+	 *
+	 * @param poolSize Maximum number of idle renderers kept for reuse, {@literal 0} creates a new renderer for every call
+	 */
+	public TextileFilter(final int poolSize) {
+		if (poolSize < 0) {
+			throw new IllegalArgumentException("The pool size must not be negative.");
+		}
+		this.renderers = poolSize == 0 ? null : new ArrayBlockingQueue<>(poolSize);
+	}
 
 	/**
 	 * Parses the incoming string as textile content and returns a formatted
@@ -44,24 +81,235 @@ public final class TextileFilter implements TextFilter {
 	@Override
 	public String apply(final String textileContent, final String baseUrl) {
 		String rv = textileContent;
-		if (!(rv == null || rv.trim().isEmpty())) {
-			try (final StringWriter out = new StringWriter()) {
-				final MarkupParser textileParser = new MarkupParser(new TextileLanguage(), new HtmlDocumentBuilder(
-						new FormattingXMLStreamWriter(new DefaultUTF84bAwareXmlStreamWriter(out)) {
-							@Override
-							protected boolean preserveWhitespace(final String elementName) {
-								return elementName.equals("pre") || elementName.equals("code");
-							}
-						}
-				));
-				textileParser.parse(rv, false);
-				out.flush();
-				rv = out.toString();
-			} catch (IOException e) {
-				// I'm pretty sure that the StringWriter won't cause any problems
-			}
+		if (!(rv == null || TextFilterSupport.isBlank(rv))) {
+			rv = render(rv);
 		}
 
 		return rv;
 	}
+
+	/**
+	 * Parses Textile content from {@code in} and writes the formatted document directly to {@code out}.
+	 *
+	 * @param in      Content in Textile format
+	 * @param out     Receives the formatted document
+	 * @param baseUrl An optional base url for resolving relative urls
+	 * @throws IOException When reading or writing fails
+	 */
+	@Override
+	public void apply(final Reader in, final Writer out, final String baseUrl) throws IOException {
+		final Reader textileContent = TextFilterSupport.copyIfBlank(in, out);
+		if (textileContent != null) {
+			final Renderer renderer = acquire();
+			renderer.render(textileContent, out);
+			release(renderer);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Parses the incoming string as textile content and writes the formatted document encoded as UTF-8
+	 * directly to {@code out}. The document is encoded while it is rendered, without creating a string.
+	 *
+	 * @param textileContent Content in Textile format
+	 * @param out            Receives the formatted document
+	 * @param baseUrl        An optional base url for resolving relative urls
+	 * @throws IOException When writing fails
+	 */
+	@Override
+	public void applyUtf8(final String textileContent, final OutputStream out, final String baseUrl) throws IOException {
+		if (textileContent == null || TextFilterSupport.isBlank(textileContent) || isPlainParagraph(textileContent)) {
+			TextFilter.super.applyUtf8(textileContent, out, baseUrl);
+			return;
+		}
+
+		final Renderer renderer = acquire();
+		renderer.render(textileContent, out);
+		release(renderer);
+	}
+
+	@Override
+	public CharSequence applyStage(final CharSequence input, final String baseUrl, final StringBuilder buffer) {
+		return render(input.toString());
+	}
+
+	/**
+	 * Renders the input and charges every element and text written to {@code budget}, before they are buffered.
+	 */
+	@Override
+	public CharSequence applyStage(final CharSequence input, final String baseUrl, final StringBuilder buffer, final TextFilterBudget budget) {
+		return render(input.toString(), budget);
+	}
+
+	private String render(final String textileContent) {
+		return render(textileContent, null);
+	}
+
+	private String render(final String textileContent, final TextFilterBudget budget) {
+		if (budget != null) {
+			budget.charge(textileContent.length());
+		}
+		if (isPlainParagraph(textileContent)) {
+			return "<p>" + textileContent + "</p>";
+		}
+
+		final StringBuilderWriter out = new StringBuilderWriter(textileContent.length() * 2);
+		final Renderer renderer = acquire();
+		renderer.render(textileContent, out, budget);
+		release(renderer);
+		return out.toString();
+	}
+
+	/**
+	 * A cheap pre-scan for content that is rendered as a single paragraph without any markup: One line of words
+	 * made of letters and digits, separated by single spaces and punctuated with characters that don't start any
+	 * Textile block, phrase or glyph on their own. The words must not need escaping. A dot ending the first word
+	 * could be a block signature, {@code x} between digits is a dimension, {@code ...} an ellipsis, two question
+	 * marks start a citation and two exclamation marks an image.
+	 *
+	 * @param textileContent Content in Textile format
+	 * @return True, if the content is rendered as it is inside a paragraph
+	 */
+	static boolean isPlainParagraph(final String textileContent) {
+		final int length = textileContent.length();
+		if (length == 0 || textileContent.charAt(0) == ' ' || textileContent.charAt(length - 1) == ' ') {
+			return false;
+		}
+
+		boolean firstWord = true;
+		boolean exclamationMark = false;
+		for (int i = 0; i < length; ++i) {
+			final char c = textileContent.charAt(i);
+			final char previous = i == 0 ? ' ' : textileContent.charAt(i - 1);
+			if (Character.isLetterOrDigit(c)) {
+				if (!DefaultUTF84bAwareXmlStreamWriter.isLiteralInText(c) || ((c == 'x' || c == 'X') && isDimension(textileContent, i))) {
+					return false;
+				}
+				continue;
+			}
+			switch (c) {
+				case ' ':
+					if (previous == ' ') {
+						return false;
+					}
+					firstWord = false;
+					break;
+				case '.':
+					if (firstWord || previous == '.') {
+						return false;
+					}
+					break;
+				case '?':
+					if (previous == '?') {
+						return false;
+					}
+					break;
+				case '!':
+					if (exclamationMark) {
+						return false;
+					}
+					exclamationMark = true;
+					break;
+				case ',':
+				case ';':
+				case ':':
+					break;
+				default:
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return True, if the {@code x} at {@code index} is surrounded by digits, optionally separated by one space
+	 */
+	private static boolean isDimension(final String text, final int index) {
+		int before = index - 1;
+		if (before >= 0 && text.charAt(before) == ' ') {
+			--before;
+		}
+		int after = index + 1;
+		if (after < text.length() && text.charAt(after) == ' ') {
+			++after;
+		}
+		return before >= 0 && after < text.length() && Character.isDigit(text.charAt(before)) && Character.isDigit(text.charAt(after));
+	}
+
+	private Renderer acquire() {
+		final Renderer renderer = this.renderers == null ? null : this.renderers.poll();
+		return renderer == null ? new Renderer() : renderer;
+	}
+
+	/**
+	 * Returns a renderer to the pool. Renderers that threw an exception are not released but dropped.
+	 */
+	private void release(final Renderer renderer) {
+		if (this.renderers != null) {
+			this.renderers.offer(renderer);
+		}
+	}
+
+	/**
+	 * The reusable infrastructure to render one document at a time. The Textile language compiles its
+	 * syntax on first use and keeps it, the state of a document is kept by the builder, which is
+	 * created for every document. Closing the xml writer after a document releases the target writer
+	 * or stream, so that idle renderers don't keep it reachable.
+	 */
+	private static final class Renderer {
+
+		private final MarkupParser parser = new MarkupParser(new TextileLanguage());
+
+		private final DefaultUTF84bAwareXmlStreamWriter xmlStreamWriter = new DefaultUTF84bAwareXmlStreamWriter();
+
+		void render(final String textileContent, final Writer out, final TextFilterBudget budget) {
+			this.xmlStreamWriter.reset(out);
+			this.xmlStreamWriter.setBudget(budget);
+			prepare();
+			try {
+				this.parser.parse(textileContent, false);
+				this.xmlStreamWriter.close();
+			} finally {
+				this.xmlStreamWriter.setBudget(null);
+				this.parser.setBuilder(null);
+			}
+		}
+
+		void render(final Reader textileContent, final Writer out) throws IOException {
+			this.xmlStreamWriter.reset(out);
+			prepare();
+			try {
+				this.parser.parse(textileContent, false);
+				this.xmlStreamWriter.close();
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			} finally {
+				this.parser.setBuilder(null);
+			}
+		}
+
+		void render(final String textileContent, final OutputStream out) throws IOException {
+			this.xmlStreamWriter.reset(out);
+			prepare();
+			try {
+				this.parser.parse(textileContent, false);
+				this.xmlStreamWriter.close();
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			} finally {
+				this.parser.setBuilder(null);
+			}
+		}
+
+		private void prepare() {
+			this.parser.setBuilder(new HtmlDocumentBuilder(
+					new FormattingXMLStreamWriter(this.xmlStreamWriter) {
+						@Override
+						protected boolean preserveWhitespace(final String elementName) {
+							return elementName.equals("pre") || elementName.equals("code");
+						}
+					}
+			));
+		}
+	}
 }
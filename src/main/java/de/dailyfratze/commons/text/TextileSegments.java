@@ -0,0 +1,354 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits Textile content into segments of whole blocks, which render to the same markup on their own as
+ * inside the document. Segments are separated by empty lines, with three exceptions that keep lines together:
+ * Extended blocks ({@code bc..}, {@code bq..} and so on) continue until the next explicit block signature,
+ * lists continue after an empty line and open {@code <pre>} or {@code <notextile>} tags continue until
+ * they are closed. When in doubt, lines are kept together.
+ * <br>
+ * Some blocks depend on the rest of the document: Headings and footnotes get ids that are unique within the document,
+ * aliased links are resolved against the link definitions anywhere in the document. Segments record whether they
+ * use either. Documents with a table of contents or a glossary can't be split at all.
+ *
+ * @author Michael J. Simons, 2018-07-31
+ */
+final class TextileSegments {
+
+	/**
+	 * One or more blocks of a document.
+	 */
+	static final class Segment {
+
+		private final String text;
+
+		private final boolean usesDocumentIds;
+
+		private final boolean usesLinkDefinitions;
+
+		private final boolean extended;
+
+		private final String documentIdText;
+
+		Segment(final String text, final boolean usesDocumentIds, final boolean usesLinkDefinitions, final boolean extended, final String documentIdText) {
+			this.text = text;
+			this.usesDocumentIds = usesDocumentIds;
+			this.usesLinkDefinitions = usesLinkDefinitions;
+			this.extended = extended;
+			this.documentIdText = documentIdText;
+		}
+
+		String getText() {
+			return text;
+		}
+
+		/**
+		 * @return True, if the segment contains headings or footnotes
+		 */
+		boolean usesDocumentIds() {
+			return usesDocumentIds;
+		}
+
+		/**
+		 * @return True, if the segment may contain aliased links
+		 */
+		boolean usesLinkDefinitions() {
+			return usesLinkDefinitions;
+		}
+
+		/**
+		 * @return True, if the segment contains an extended block, which would swallow following paragraphs
+		 */
+		boolean isExtended() {
+			return extended;
+		}
+
+		/**
+		 * Following segments must be rendered after this text to get the same ids as inside the document. It
+		 * contains the headings and footnotes of the segment and the lines with footnote references as paragraphs
+		 * of their own, or the whole segment, if it can't be taken apart.
+		 *
+		 * @return The text of the segment taking up ids, empty if the segment doesn't use document ids
+		 */
+		String getDocumentIdText() {
+			return documentIdText;
+		}
+	}
+
+	private static final String ATTRIBUTES = "(?:\\([^)\\n]*\\)|\\{[^}\\n]*\\}|\\[[^\\]\\n]*\\]|[<>=()])*";
+
+	private static final Pattern EXTENDED_BLOCK = Pattern.compile("(?:bc|bq|pre|notextile|p|###|fn\\d+)" + ATTRIBUTES + "\\.\\.(?:\\s|$)");
+
+	private static final Pattern EXPLICIT_BLOCK = Pattern.compile("(?:h[1-6]|bc|bq|pre|notextile|p|fn\\d+)" + ATTRIBUTES + "\\.\\.?(?:\\s|$)");
+
+	private static final Pattern CODE_BLOCK = Pattern.compile("(?:bc|pre|notextile|###)" + ATTRIBUTES + "\\.\\.?(?:\\s|$)");
+
+	private static final Pattern LIST_ITEM = Pattern.compile("[*#]+(?:_|\\d+)?" + ATTRIBUTES + "\\s");
+
+	private static final Pattern HTML_BLOCK_TAG = Pattern.compile("<(/?)(?:pre|notextile)(?=[\\s>])", Pattern.CASE_INSENSITIVE);
+
+	private static final Pattern LINK_DEFINITION = Pattern.compile("\\s*\\[[^\\]\\n]+\\]\\S+\\s*");
+
+	private static final Pattern DOCUMENT_ID = Pattern.compile("^(?:h[1-6]|fn\\d+)" + ATTRIBUTES + "\\.", Pattern.MULTILINE);
+
+	private static final Pattern FOOTNOTE_REFERENCE = Pattern.compile("\\[\\d+\\]");
+
+	private static final Pattern WHOLE_DOCUMENT_MACRO = Pattern.compile("\\{(?:toc|glossary)");
+
+	/**
+	 * Splits {@code textileContent} into segments.
+	 *
+	 * @param textileContent Content in Textile format
+	 * @return The segments or {@literal null}, if the content must be rendered as a whole
+	 */
+	static TextileSegments split(final String textileContent) {
+		if (WHOLE_DOCUMENT_MACRO.matcher(textileContent).find()) {
+			return null;
+		}
+
+		final Splitter splitter = new Splitter(textileContent);
+		final int length = textileContent.length();
+		int position = 0;
+		while (position < length) {
+			int lineEnd = position;
+			while (lineEnd < length && textileContent.charAt(lineEnd) != '\n' && textileContent.charAt(lineEnd) != '\r') {
+				++lineEnd;
+			}
+			splitter.line(position, lineEnd);
+
+			position = lineEnd;
+			if (position < length) {
+				position += textileContent.startsWith("\r\n", position) ? 2 : 1;
+			}
+		}
+		splitter.endSegment();
+
+		return new TextileSegments(Collections.unmodifiableList(splitter.segments), splitter.linkDefinitions.toString());
+	}
+
+	private final List<Segment> segments;
+
+	private final String linkDefinitions;
+
+	private TextileSegments(final List<Segment> segments, final String linkDefinitions) {
+		this.segments = segments;
+		this.linkDefinitions = linkDefinitions;
+	}
+
+	/**
+	 * @return The segments in order of the document
+	 */
+	List<Segment> getSegments() {
+		return segments;
+	}
+
+	/**
+	 * @return All link definitions of the document, one per line, or an empty string
+	 */
+	String getLinkDefinitions() {
+		return linkDefinitions;
+	}
+
+	/**
+	 * Extracts the blocks of a segment that take up ids. Blocks starting with a heading or footnote are kept whole,
+	 * other lines are only kept if they contain a footnote reference. Extended blocks, code and html blocks change
+	 * how their lines are parsed, segments containing them are kept whole, as are segments with a heading in the
+	 * middle of a block or lines of whitespace.
+	 *
+	 * @param text      The text of a segment using document ids
+	 * @param wholeText True, if the segment can't be taken apart
+	 * @return The text taking up ids
+	 */
+	private static String documentIdText(final String text, final boolean wholeText) {
+		if (wholeText) {
+			return text;
+		}
+
+		final StringBuilder rv = new StringBuilder();
+		boolean blockStart = true;
+		boolean insideIdBlock = false;
+		for (String line : text.split("\r\n|\r|\n", -1)) {
+			if (line.isEmpty()) {
+				blockStart = true;
+				insideIdBlock = false;
+				continue;
+			}
+			if (TextFilterSupport.isBlank(line)) {
+				return text;
+			}
+			if (DOCUMENT_ID.matcher(line).lookingAt()) {
+				if (!blockStart) {
+					return text;
+				}
+				insideIdBlock = true;
+				rv.append(rv.length() == 0 ? "" : "\n\n");
+			} else if (insideIdBlock) {
+				rv.append('\n');
+			} else if (FOOTNOTE_REFERENCE.matcher(line).find()) {
+				rv.append(rv.length() == 0 ? "" : "\n\n").append("p. ");
+			} else {
+				blockStart = false;
+				continue;
+			}
+			rv.append(line);
+			blockStart = false;
+		}
+		return rv.toString();
+	}
+
+	/**
+	 * Cuts off the markup of the blocks a segment has been rendered after.
+	 *
+	 * @param output        The markup of the context and the segment
+	 * @param contextOutput The markup of the context alone
+	 * @return The markup of the segment alone or {@literal null}, if the markup of the context isn't the expected one
+	 */
+	static String stripContext(final String output, final CharSequence contextOutput) {
+		final int prefixLength = contextOutput.length();
+		if (!output.startsWith(contextOutput.toString())) {
+			return null;
+		}
+		if (prefixLength == 0 || output.length() == prefixLength) {
+			return output.substring(prefixLength);
+		} else if (output.charAt(prefixLength) == '\n') {
+			return output.substring(prefixLength + 1);
+		}
+		return null;
+	}
+
+	/**
+	 * Appends the markup of a segment. Top level elements are separated by a line break, segments without markup
+	 * like link definitions don't add anything.
+	 *
+	 * @param target The markup of the previous segments
+	 * @param output The markup to append
+	 */
+	static void join(final StringBuilder target, final CharSequence output) {
+		if (output.length() == 0) {
+			return;
+		}
+		if (target.length() > 0) {
+			target.append('\n');
+		}
+		target.append(output);
+	}
+
+	/**
+	 * The state of one split. Only empty lines separate blocks, lines containing whitespace are kept, because a
+	 * segment that is too large renders correctly, but one that is too small does not.
+	 */
+	private static final class Splitter {
+
+		private final String content;
+
+		private final List<Segment> segments = new ArrayList<>();
+
+		private final StringBuilder linkDefinitions = new StringBuilder();
+
+		private int segmentStart = -1;
+
+		private int segmentEnd;
+
+		private int previousSegmentStart;
+
+		/**
+		 * True as long as the current segment contains only whitespace, it isn't ended by an empty line.
+		 */
+		private boolean segmentBlank;
+
+		private boolean previousLineEmpty;
+
+		private boolean previousLineListItem;
+
+		private boolean extended;
+
+		private boolean insideHtmlBlock;
+
+		Splitter(final String content) {
+			this.content = content;
+		}
+
+		void line(final int start, final int end) {
+			if (start == end) {
+				this.previousLineEmpty = true;
+				return;
+			}
+
+			final String line = this.content.substring(start, end);
+			if (this.segmentStart >= 0 && this.previousLineEmpty && !this.segmentBlank && !continuesSegment(line)) {
+				endSegment();
+			}
+			if (this.segmentStart < 0) {
+				this.segmentStart = start;
+				this.segmentBlank = true;
+			}
+			this.segmentEnd = end;
+			this.segmentBlank &= TextFilterSupport.isBlank(line);
+
+			this.extended |= EXTENDED_BLOCK.matcher(line).lookingAt();
+			this.previousLineListItem = LIST_ITEM.matcher(line).lookingAt();
+			this.previousLineEmpty = false;
+			final Matcher htmlBlockTag = HTML_BLOCK_TAG.matcher(line);
+			while (htmlBlockTag.find()) {
+				this.insideHtmlBlock = htmlBlockTag.group(1).isEmpty();
+			}
+			if (LINK_DEFINITION.matcher(line).matches()) {
+				this.linkDefinitions.append(line).append('\n');
+			}
+		}
+
+		private boolean continuesSegment(final String line) {
+			return this.insideHtmlBlock
+					|| (this.extended && !EXPLICIT_BLOCK.matcher(line).lookingAt())
+					|| (this.previousLineListItem && LIST_ITEM.matcher(line).lookingAt());
+		}
+
+		void endSegment() {
+			if (this.segmentStart < 0) {
+				return;
+			}
+			// Lines of whitespace at the end render to nothing in a document, but not on their own
+			if (this.segmentBlank && !this.segments.isEmpty()) {
+				this.extended |= this.segments.remove(this.segments.size() - 1).isExtended();
+				this.segmentStart = this.previousSegmentStart;
+			}
+
+			final String text = this.content.substring(this.segmentStart, this.segmentEnd);
+			final boolean code = CODE_BLOCK.matcher(text).lookingAt();
+			final boolean usesDocumentIds = DOCUMENT_ID.matcher(text).find() || (!code && FOOTNOTE_REFERENCE.matcher(text).find());
+			this.segments.add(new Segment(
+					text,
+					usesDocumentIds,
+					text.contains("\":") || text.contains("!:"),
+					this.extended,
+					usesDocumentIds ? documentIdText(text, code || this.extended || HTML_BLOCK_TAG.matcher(text).find()) : ""
+			));
+
+			this.previousSegmentStart = this.segmentStart;
+			this.segmentStart = -1;
+			this.extended = false;
+			this.insideHtmlBlock = false;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes characters to UTF-8 into a buffer of bytes, that is written to the target stream when full. Surrogate pairs
+ * may be split between two calls. Like {@link String#getBytes(java.nio.charset.Charset)}, unpaired surrogates are
+ * encoded as {@code ?}. An encoder is meant to be confined to one thread.
+ *
+ * @author Michael J. Simons, 2018-08-04
+ */
+final class Utf8Encoder {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * No character needs more bytes than this, a surrogate pair following an unpaired surrogate neither.
+	 */
+	private static final int MAX_BYTES_PER_CHAR = 4;
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	private int position;
+
+	private OutputStream out;
+
+	/**
+	 * The high surrogate of a pair that has not been completed yet or {@code 0}.
+	 */
+	private char highSurrogate;
+
+	/**
+	 * Creates an encoder without target, {@link #reset(OutputStream)} must be called before encoding.
+	 */
+	Utf8Encoder() {
+	}
+
+	/**
+	 * @param out The target of the encoded bytes
+	 */
+	Utf8Encoder(final OutputStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Prepares this encoder for new output to {@code out}, discarding everything not yet written.
+	 *
+	 * @param out The target of the encoded bytes, {@literal null} releases the previous target
+	 */
+	void reset(final OutputStream out) {
+		this.out = out;
+		this.position = 0;
+		this.highSurrogate = 0;
+	}
+
+	/**
+	 * @param chars  The characters to encode
+	 * @param offset Index of the first character
+	 * @param length Number of characters
+	 * @throws IOException When writing a full buffer fails
+	 */
+	void encode(final char[] chars, final int offset, final int length) throws IOException {
+		for (int i = offset, end = offset + length; i < end; ++i) {
+			encode(chars[i]);
+		}
+	}
+
+	/**
+	 * @param s      The characters to encode
+	 * @param offset Index of the first character
+	 * @param length Number of characters
+	 * @throws IOException When writing a full buffer fails
+	 */
+	void encode(final CharSequence s, final int offset, final int length) throws IOException {
+		for (int i = offset, end = offset + length; i < end; ++i) {
+			encode(s.charAt(i));
+		}
+	}
+
+	/**
+	 * Writes the encoded bytes to the target and flushes it. An incomplete surrogate pair is kept.
+	 *
+	 * @throws IOException When writing fails
+	 */
+	void flush() throws IOException {
+		writeBuffer();
+		this.out.flush();
+	}
+
+	/**
+	 * Completes the output: An incomplete surrogate pair is encoded as {@code ?}, everything is written and the
+	 * target is flushed.
+	 *
+	 * @throws IOException When writing fails
+	 */
+	void finish() throws IOException {
+		if (this.highSurrogate != 0) {
+			this.highSurrogate = 0;
+			this.buffer[this.position++] = '?';
+		}
+		flush();
+	}
+
+	private void encode(final char c) throws IOException {
+		if (this.position > BUFFER_SIZE - MAX_BYTES_PER_CHAR) {
+			writeBuffer();
+		}
+		final byte[] bytes = this.buffer;
+		if (this.highSurrogate != 0) {
+			final char high = this.highSurrogate;
+			this.highSurrogate = 0;
+			if (Character.isLowSurrogate(c)) {
+				final int codePoint = Character.toCodePoint(high, c);
+				bytes[this.position++] = (byte) (0xf0 | codePoint >> 18);
+				bytes[this.position++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+				bytes[this.position++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+				bytes[this.position++] = (byte) (0x80 | codePoint & 0x3f);
+				return;
+			}
+			bytes[this.position++] = '?';
+		}
+
+		if (c < 0x80) {
+			bytes[this.position++] = (byte) c;
+		} else if (c < 0x800) {
+			bytes[this.position++] = (byte) (0xc0 | c >> 6);
+			bytes[this.position++] = (byte) (0x80 | c & 0x3f);
+		} else if (Character.isHighSurrogate(c)) {
+			this.highSurrogate = c;
+		} else if (Character.isLowSurrogate(c)) {
+			bytes[this.position++] = '?';
+		} else {
+			bytes[this.position++] = (byte) (0xe0 | c >> 12);
+			bytes[this.position++] = (byte) (0x80 | c >> 6 & 0x3f);
+			bytes[this.position++] = (byte) (0x80 | c & 0x3f);
+		}
+	}
+
+	private void writeBuffer() throws IOException {
+		if (this.position == 0) {
+			return;
+		}
+		try {
+			this.out.write(this.buffer, 0, this.position);
+		} finally {
+			this.position = 0;
+		}
+	}
+}
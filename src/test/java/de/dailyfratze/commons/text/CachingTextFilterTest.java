@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Michael J. Simons, 2018-07-24
+ */
+@DisplayName("CachingTextFilter")
+class CachingTextFilterTest {
+
+	private final AtomicInteger invocations = new AtomicInteger();
+
+	private final TextFilter countingFilter = (input, baseUrl) -> {
+		invocations.incrementAndGet();
+		return input == null ? null : input.toUpperCase() + baseUrl;
+	};
+
+	@Test
+	@DisplayName("should pass null and empty input to the delegate")
+	public void shouldHandleNullAndEmptyInput() {
+		var cachingFilter = CachingTextFilter.builder(TextFilter.AUTO_BR).build();
+
+		assertAll(
+				() -> assertNull(cachingFilter.apply(null, null)),
+				() -> assertEquals("", cachingFilter.apply("", null)),
+				() -> assertEquals(" ", cachingFilter.apply(" ", null))
+		);
+	}
+
+	@Test
+	@DisplayName("should cache by input and base url")
+	public void shouldCacheByInputAndBaseUrl() {
+		var cachingFilter = CachingTextFilter.builder(countingFilter).build();
+
+		assertAll(
+				() -> assertEquals("A1", cachingFilter.apply("a", "1")),
+				() -> assertEquals("A1", cachingFilter.apply("a", "1")),
+				() -> assertEquals("A2", cachingFilter.apply("a", "2")),
+				() -> assertEquals("Anull", cachingFilter.apply("a", null)),
+				() -> assertEquals("Anull", cachingFilter.apply("a", null))
+		);
+		assertEquals(3, invocations.get());
+
+		var statistics = cachingFilter.getStatistics();
+		assertAll(
+				() -> assertEquals(2, statistics.getHitCount()),
+				() -> assertEquals(3, statistics.getMissCount()),
+				() -> assertEquals(3, statistics.getSize()),
+				() -> assertEquals(0.4, statistics.getHitRate(), 0.001)
+		);
+	}
+
+	@Test
+	@DisplayName("should cache large inputs by their hash")
+	public void shouldCacheLargeInputsByHash() {
+		var cachingFilter = CachingTextFilter.builder(countingFilter).hashThreshold(8).build();
+
+		var input = "a long input";
+		assertEquals("A LONG INPUTnull", cachingFilter.apply(input, null));
+		assertEquals("A LONG INPUTnull", cachingFilter.apply(new String(input.toCharArray()), null));
+		assertEquals("A LONG INPUT!null", cachingFilter.apply(input + "!", null));
+		assertEquals(2, invocations.get());
+		assertEquals(2 * ContentHash.SIZE + 33, cachingFilter.getStatistics().getWeight());
+	}
+
+	@Test
+	@DisplayName("should evict entries")
+	public void shouldEvictEntries() {
+		var cachingFilter = CachingTextFilter.builder(countingFilter).maximumSize(16).build();
+		for (int i = 0; i < 100; ++i) {
+			cachingFilter.apply(Integer.toString(i), null);
+		}
+
+		var statistics = cachingFilter.getStatistics();
+		assertTrue(statistics.getSize() <= 16);
+		assertEquals(100, statistics.getEvictionCount() + statistics.getSize());
+	}
+
+	@Test
+	@DisplayName("should protect entries that have been hit")
+	public void shouldProtectEntriesThatHaveBeenHit() {
+		var cachingFilter = CachingTextFilter.builder(countingFilter).maximumSize(16).build();
+		cachingFilter.apply("hot", null);
+		cachingFilter.apply("hot", null);
+		for (int i = 0; i < 100; ++i) {
+			cachingFilter.apply(Integer.toString(i), null);
+		}
+		cachingFilter.apply("hot", null);
+
+		assertEquals(101, invocations.get());
+	}
+
+	@Test
+	@DisplayName("should serve concurrent hits of a hot entry")
+	public void shouldServeConcurrentHits() {
+		var cachingFilter = CachingTextFilter.builder(countingFilter).maximumSize(16).build();
+		cachingFilter.apply("hot", null);
+
+		var inputs = Collections.nCopies(10_000, "hot");
+		assertAll(
+				() -> assertTrue(cachingFilter.applyAll(inputs, null).stream().allMatch("HOTnull"::equals)),
+				() -> assertEquals(1, invocations.get()),
+				() -> assertEquals(10_000, cachingFilter.getStatistics().getHitCount())
+		);
+		for (int i = 0; i < 100; ++i) {
+			cachingFilter.apply(Integer.toString(i), null);
+		}
+		cachingFilter.apply("hot", null);
+		assertEquals(101, invocations.get());
+	}
+
+	@Test
+	@DisplayName("should not cache entries heavier than the cache")
+	public void shouldNotCacheHeavyEntries() {
+		var cachingFilter = CachingTextFilter.builder(countingFilter).maximumWeight(10).build();
+		cachingFilter.apply("a heavy entry", null);
+		cachingFilter.apply("a heavy entry", null);
+
+		assertEquals(2, invocations.get());
+		assertEquals(0, cachingFilter.getStatistics().getSize());
+	}
+}
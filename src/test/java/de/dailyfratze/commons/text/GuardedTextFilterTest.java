@@ -0,0 +1,192 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.Duration;
+import java.util.Collections;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * @author Michael J. Simons, 2018-08-02
+ */
+@DisplayName("GuardedTextFilter")
+class GuardedTextFilterTest {
+
+	private static String repeat(final String s, final int n) {
+		return String.join("", Collections.nCopies(n, s));
+	}
+
+	private static TextFilterLimitExceededException.Limit limitExceeded(final TextFilter filter, final String input) {
+		return assertThrows(TextFilterLimitExceededException.class, () -> filter.apply(input, null)).getLimit();
+	}
+
+	private SmileyFilter smileyFilter(final SmileyFilter.Engine engine) {
+		return new SmileyFilter("standard2.0", this.getClass().getResourceAsStream("/smilies/standard2.0.pak"), engine);
+	}
+
+	@ParameterizedTest
+	@EnumSource(SmileyFilter.Engine.class)
+	@DisplayName("should filter like the delegate within the limits")
+	public void shouldFilterLikeTheDelegate(final SmileyFilter.Engine engine) {
+		var smileyFilter = smileyFilter(engine);
+		var guardedSmileyFilter = GuardedTextFilter.builder(smileyFilter).maximumInputLength(100).maximumExpansion(2).maximumSteps(10_000).build();
+		var guardedAutoBr = GuardedTextFilter.builder(TextFilter.AUTO_BR).maximumInputLength(100).build();
+		var guardedLambda = GuardedTextFilter.builder((input, baseUrl) -> input.toUpperCase()).timeout(Duration.ofSeconds(10)).build();
+
+		var in = "Hallo :) und :D\nnoch eine Zeile :p";
+		assertAll(
+				() -> assertNull(guardedSmileyFilter.apply(null, null)),
+				() -> assertEquals(" ", guardedSmileyFilter.apply(" ", null)),
+				() -> assertEquals(smileyFilter.apply(in, null), guardedSmileyFilter.apply(in, null)),
+				() -> assertEquals("keine smilies", guardedSmileyFilter.apply("keine smilies", null)),
+				() -> assertEquals(TextFilter.AUTO_BR.apply(in, null), guardedAutoBr.apply(in, null)),
+				() -> assertEquals(in.toUpperCase(), guardedLambda.apply(in, null))
+		);
+	}
+
+	@ParameterizedTest
+	@EnumSource(SmileyFilter.Engine.class)
+	@DisplayName("should abort pathological documents")
+	public void shouldAbortPathologicalDocuments(final SmileyFilter.Engine engine) {
+		var smileyFilter = smileyFilter(engine);
+		var pipeline = TextFilter.pipeline().then(TextFilter.AUTO_BR).then(smileyFilter).build();
+		var smilies = repeat(":) ", 500);
+
+		assertAll(
+				() -> assertEquals(TextFilterLimitExceededException.Limit.INPUT_LENGTH, limitExceeded(GuardedTextFilter.builder(smileyFilter).maximumInputLength(1000).build(), smilies)),
+				() -> assertEquals(TextFilterLimitExceededException.Limit.EXPANSION, limitExceeded(GuardedTextFilter.builder(smileyFilter).maximumExpansion(2).build(), smilies)),
+				() -> assertEquals(TextFilterLimitExceededException.Limit.STEPS, limitExceeded(GuardedTextFilter.builder(smileyFilter).maximumSteps(1000).build(), smilies)),
+				// More than both filters would be charged with their whole input
+				() -> assertEquals(TextFilterLimitExceededException.Limit.STEPS, limitExceeded(GuardedTextFilter.builder(pipeline).maximumSteps(3 * smilies.length()).build(), smilies)),
+				() -> assertEquals(TextFilterLimitExceededException.Limit.EXPANSION, limitExceeded(GuardedTextFilter.builder(TextFilter.AUTO_BR).maximumExpansion(2).build(), repeat("a\n", 1000))),
+				() -> assertEquals(TextFilterLimitExceededException.Limit.STEPS, limitExceeded(GuardedTextFilter.builder(TextFilter.AUTO_BR).maximumSteps(1000).build(), repeat("a", 2000)))
+		);
+	}
+
+	@Test
+	@DisplayName("should scan the input of instrumented filters")
+	public void shouldScanTheInputOfInstrumentedFilters() {
+		var instrumentedSmileyFilter = smileyFilter(SmileyFilter.Engine.AHO_CORASICK).instrumented("smilies", new TextFilterMetrics());
+
+		assertAll(
+				() -> assertTrue(((TextFilterStage) instrumentedSmileyFilter).scansInput()),
+				() -> assertEquals(TextFilterLimitExceededException.Limit.STEPS, limitExceeded(GuardedTextFilter.builder(instrumentedSmileyFilter).maximumSteps(1000).build(), repeat(":) ", 500)))
+		);
+	}
+
+	@Test
+	@DisplayName("should check the budget while rendering and cleaning")
+	public void shouldCheckTheBudgetWhileRendering() {
+		var textileFilter = new TextileFilter();
+		var htmlFilter = new HtmlFilter(HtmlFilter.Engine.CLEANER, "p", "b");
+		var pipeline = TextFilter.pipeline().then(textileFilter).then(htmlFilter).build();
+		// Less markup than the renderer buffers before writing to its target
+		var headings = repeat("h1. a\n\n", 200);
+		var html = "<p>Hallo <b>Welt</b></p><script>x</script>";
+
+		assertAll(
+				() -> assertEquals(textileFilter.apply(headings, null), GuardedTextFilter.builder(textileFilter).timeout(Duration.ofSeconds(10)).build().apply(headings, null)),
+				() -> assertEquals(TextFilterLimitExceededException.Limit.STEPS, limitExceeded(GuardedTextFilter.builder(textileFilter).maximumSteps(2 * headings.length()).build(), headings)),
+				() -> assertEquals(TextFilterLimitExceededException.Limit.TIME, limitExceeded(GuardedTextFilter.builder(textileFilter).timeout(Duration.ofNanos(1)).build(), headings)),
+				() -> assertEquals(htmlFilter.apply(html, null), GuardedTextFilter.builder(htmlFilter).maximumSteps(10_000).build().apply(html, null)),
+				() -> assertEquals(TextFilterLimitExceededException.Limit.STEPS, limitExceeded(GuardedTextFilter.builder(htmlFilter).maximumSteps(10).build(), html)),
+				() -> assertEquals(pipeline.apply(headings, null), GuardedTextFilter.builder(pipeline).maximumSteps(100_000).build().apply(headings, null)),
+				() -> assertEquals(TextFilterLimitExceededException.Limit.STEPS, limitExceeded(GuardedTextFilter.builder(pipeline).maximumSteps(2 * headings.length()).build(), headings))
+		);
+	}
+
+	@Test
+	@DisplayName("should check the expansion while producing the output")
+	public void shouldCheckTheExpansionWhileProducingTheOutput() {
+		var textileFilter = new TextileFilter();
+		var pipeline = TextFilter.pipeline().then(textileFilter).then((input, baseUrl) -> fail("The expansion has not been checked")).build();
+		var headings = repeat("h1. a\n\n", 200);
+
+		assertAll(
+				() -> assertEquals(TextFilterLimitExceededException.Limit.EXPANSION, limitExceeded(GuardedTextFilter.builder(textileFilter).maximumExpansion(1).build(), headings)),
+				() -> assertEquals(TextFilterLimitExceededException.Limit.EXPANSION, limitExceeded(GuardedTextFilter.builder(pipeline).maximumExpansion(1).build(), headings))
+		);
+	}
+
+	@ParameterizedTest
+	@EnumSource(HtmlFilter.Engine.class)
+	@DisplayName("should clean malformed html with the configured engine")
+	public void shouldCleanWithTheConfiguredEngine(final HtmlFilter.Engine engine) {
+		var htmlFilter = new HtmlFilter(engine, "p", "b", "i");
+		var guardedHtmlFilter = GuardedTextFilter.builder(htmlFilter).maximumSteps(10_000).build();
+		var guardedPipeline = GuardedTextFilter.builder(TextFilter.pipeline().then(htmlFilter).build()).maximumSteps(10_000).build();
+		// Restructured by the html parser, but not by the streaming engine
+		var malformed = "<p><b>a<i>b</b>c</i><p>d <table>e</table>";
+
+		assertAll(
+				() -> assertEquals(htmlFilter.apply(malformed, null), guardedHtmlFilter.apply(malformed, null)),
+				() -> assertEquals(htmlFilter.apply(malformed, null), guardedPipeline.apply(malformed, null))
+		);
+	}
+
+	@Test
+	@DisplayName("should abort filters exceeding their time")
+	public void shouldAbortSlowFilters() {
+		TextFilter slowFilter = (input, baseUrl) -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return input;
+		};
+		assertEquals(TextFilterLimitExceededException.Limit.TIME, limitExceeded(GuardedTextFilter.builder(slowFilter).timeout(Duration.ofMillis(5)).build(), "langsam"));
+	}
+
+	@Test
+	@DisplayName("should use the fallback")
+	public void shouldUseTheFallback() {
+		var guardedFilter = GuardedTextFilter.builder(TextFilter.AUTO_BR).maximumInputLength(10).fallbackToEscapedText().build();
+		var cheapFilter = GuardedTextFilter.builder(TextFilter.AUTO_BR).maximumInputLength(10).fallback((input, baseUrl) -> "zu lang").build();
+
+		assertAll(
+				() -> assertEquals("a<br />b", guardedFilter.apply("a\nb", null)),
+				() -> assertEquals("&lt;b&gt;Tom &amp; &quot;Jerry&quot;&lt;/b&gt;\n", guardedFilter.apply("<b>Tom & \"Jerry\"</b>\n", null)),
+				() -> assertEquals("zu lang", cheapFilter.apply("ein langer Text", null))
+		);
+	}
+
+	@Test
+	@DisplayName("should guard the streaming api")
+	public void shouldGuardStreaming() {
+		var guardedFilter = GuardedTextFilter.builder(TextFilter.AUTO_BR).maximumInputLength(10).fallbackToEscapedText().build();
+
+		var out = new StringWriter();
+		assertAll(
+				() -> guardedFilter.apply(new StringReader("a\nb"), out, null),
+				() -> assertEquals("a<br />b", out.toString()),
+				() -> assertThrows(TextFilterLimitExceededException.class, () -> guardedFilter.apply(new StringReader("ein langer Text"), new StringWriter(), null))
+		);
+	}
+}
@@ -18,16 +18,27 @@ package de.dailyfratze.commons.text;
 import static org.jooq.lambda.tuple.Tuple.tuple;
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.DynamicTest.dynamicTest;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.DynamicTest;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestFactory;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 
 /**
  * @author Michael J. Simons, 2014-12-26
@@ -49,6 +60,10 @@ class HtmlFilterTest {
 	@TestFactory
 	@DisplayName("should handle valid input")
 	public Stream<DynamicTest> cleanShouldWork() {
+		return Stream.of(HtmlFilter.Engine.values()).flatMap(engine -> cleanShouldWork(engine));
+	}
+
+	private Stream<DynamicTest> cleanShouldWork(final HtmlFilter.Engine engine) {
 		var pt1 = Stream.of(
 				tuple("<strong>a b &#x1f44d; &#x1f44f; 👍</strong>", "a b 👍 👏 👍"),
 				tuple("vorher *👍 👏* _nachher_ \"👍\":http://planet-punk.de", "vorher *👍 👏* _nachher_ \"👍\":http://planet-punk.de"),
@@ -58,13 +73,115 @@ class HtmlFilterTest {
 				tuple("blah \" <a <3 and 3>' http://simons.ac?blah=blub&foo=bar", "blah \" ' http://simons.ac?blah=blub&foo=bar"),
 				tuple("<3 }:-> <3", "<3 }:-> <3"),
 				tuple("this is <not a > tag", "this is  tag")
-		).map(t -> dynamicTest(t.v1, () -> assertEquals(t.v2, new HtmlFilter().apply(t.v1, null))));
+		).map(t -> dynamicTest(t.v1, () -> assertEquals(t.v2, new HtmlFilter(engine).apply(t.v1, null))));
 
 		var pt2 = Stream.of(
 				tuple("Das ist ein <xx>langer</xx> Test zu <a href=\"http://simons.ac\">simons.ac</a>.", "Das ist ein langer Test zu <a href=\"http://simons.ac\">simons.ac</a>.", new String[]{"a"}),
 				tuple("<p>blah <del>foo</del>bar <3  E></p>", "<p>blah <del>foo</del>bar <3  E></p>", new String[]{"p", "del"})
-		).map(t -> dynamicTest(t.v1, () -> assertEquals(t.v2, new HtmlFilter(t.v3).apply(t.v1, null))));
+		).map(t -> dynamicTest(t.v1, () -> assertEquals(t.v2, new HtmlFilter(engine, t.v3).apply(t.v1, null))));
 
 		return Stream.concat(pt1, pt2);
 	}
-}
\ No newline at end of file
+
+	@ParameterizedTest
+	@EnumSource(HtmlFilter.Engine.class)
+	@DisplayName("should resolve and check urls")
+	public void shouldResolveAndCheckUrls(final HtmlFilter.Engine engine) {
+		var htmlFilter = new HtmlFilter(engine, "p", "br");
+
+		assertAll(
+				() -> assertEquals("<a href=\"http://simons.ac/a?b=c&d\" target=\"_blank\">x</a>", htmlFilter.apply("<a href=\"/a?b=c&amp;d\" HREF=\"javascript:alert(1)\" target=_blank>x</a>", "http://simons.ac")),
+				() -> assertEquals("<a>x</a>", htmlFilter.apply("<a href=\"/a\" onclick=\"alert(1)\">x</a>", null)),
+				() -> assertEquals("<p>a<br><img src=\"https://simons.ac/i.png\" alt></p>", htmlFilter.apply("<p>a<br/><img src=\"https://simons.ac/i.png\" alt></p>", null))
+		);
+	}
+
+	@Test
+	@DisplayName("should sanitize while streaming")
+	public void shouldSanitizeWhileStreaming() throws IOException {
+		var htmlFilter = new HtmlFilter(HtmlFilter.Engine.STREAMING, "p", "strong");
+		var in = "  <p>a &amp; b<!-- <p>c</p> --><script>alert('<p>')</script><strong>d</p> <em>e</em>  ";
+
+		var out = new StringWriter();
+		htmlFilter.apply(new StringReader(in), out, null);
+		assertAll(
+				() -> assertEquals("<p>a & b<strong>d</strong></p> e", htmlFilter.apply(in, null)),
+				() -> assertEquals(htmlFilter.apply(in, null), out.toString())
+		);
+	}
+
+	@ParameterizedTest
+	@EnumSource(HtmlFilter.Engine.class)
+	@DisplayName("should skip clean input")
+	public void shouldSkipCleanInput(final HtmlFilter.Engine engine) {
+		var allowedTags = new String[]{"p", "strong", "ul", "li", "div"};
+		var htmlFilter = new HtmlFilter(engine, allowedTags);
+		var skippingFilter = htmlFilter.skippingCleanInput(0);
+		var rememberingFilter = htmlFilter.skippingCleanInput(10);
+
+		var clean = "<p>Tom & Jerry <strong>a < b</strong></p>\n<ul><li><a href=\"http://simons.ac\">x</a></li></ul>";
+		var dirty = "<p>Tom &amp; Jerry <em>a</em></p><div onclick=\"alert(1)\">b</div>";
+		var restructured = "<p>a<div>b</div></p>";
+		assertAll(
+				() -> assertSame(clean, skippingFilter.apply(clean, null)),
+				() -> assertSame(clean, rememberingFilter.apply(clean, "http://simons.ac")),
+				() -> assertSame(clean, rememberingFilter.apply(clean, "http://simons.ac")),
+				() -> assertEquals(htmlFilter.apply(clean, null), clean),
+				() -> assertEquals(htmlFilter.apply(dirty, null), skippingFilter.apply(dirty, null)),
+				() -> assertEquals(htmlFilter.apply(dirty, null), rememberingFilter.apply(dirty, null)),
+				() -> assertEquals(htmlFilter.apply(restructured, null), skippingFilter.apply(restructured, null)),
+				() -> assertEquals(htmlFilter.apply("<a href=\"/a\">x</a>", "http://simons.ac"), rememberingFilter.apply("<a href=\"/a\">x</a>", "http://simons.ac")),
+				() -> assertThrows(IllegalArgumentException.class, () -> htmlFilter.skippingCleanInput(-1))
+		);
+	}
+
+	@Test
+	@DisplayName("should only accept input as clean that the parser wouldn't restructure")
+	public void shouldCheckForCleanInput() {
+		var compiledWhitelist = new CompiledWhitelist(Map.of("p", Map.of(), "div", Map.of(), "pre", Map.of(), "li", Map.of(), "table", Map.of(), "a", Map.of()));
+
+		assertAll(
+				() -> assertTrue(new StreamingHtmlSanitizer(compiledWhitelist, null).isClean("<div><p>a</p>\n<pre>b</pre></div>")),
+				() -> assertFalse(new StreamingHtmlSanitizer(compiledWhitelist, null).isClean(" <p>a</p>")),
+				() -> assertFalse(new StreamingHtmlSanitizer(compiledWhitelist, null).isClean("<p>a &amp; b</p>")),
+				() -> assertFalse(new StreamingHtmlSanitizer(compiledWhitelist, null).isClean("<p>a<!-- b --></p>")),
+				() -> assertFalse(new StreamingHtmlSanitizer(compiledWhitelist, null).isClean("<p>a")),
+				() -> assertFalse(new StreamingHtmlSanitizer(compiledWhitelist, null).isClean("<p><div>a</div></p>")),
+				() -> assertFalse(new StreamingHtmlSanitizer(compiledWhitelist, null).isClean("<pre>\na</pre>")),
+				() -> assertFalse(new StreamingHtmlSanitizer(compiledWhitelist, null).isClean("<li>a</li>")),
+				() -> assertFalse(new StreamingHtmlSanitizer(compiledWhitelist, null).isClean("<a><a>a</a></a>")),
+				() -> assertFalse(new StreamingHtmlSanitizer(compiledWhitelist, null).isClean("<table>a</table>"))
+		);
+	}
+
+	@TestFactory
+	@DisplayName("should never accept characters as clean that the parser doesn't keep")
+	public Stream<DynamicTest> shouldNotAcceptUnkeptCharactersAsClean() {
+		var compiledWhitelist = new CompiledWhitelist(Map.of("b", Map.of()));
+
+		return IntStream.concat(IntStream.rangeClosed(0, 0x1f).filter(c -> c != '\t' && c != '\n'), IntStream.of(0xfffe, 0xffff))
+				.mapToObj(c -> "<b>a" + (char) c + "b</b>")
+				.map(html -> dynamicTest(String.format("U+%04X", (int) html.charAt(4)),
+						() -> assertFalse(new StreamingHtmlSanitizer(compiledWhitelist, null).isClean(html))));
+	}
+
+	@ParameterizedTest
+	@EnumSource(HtmlFilter.Engine.class)
+	@DisplayName("should return plain text directly")
+	public void shouldReturnPlainTextDirectly(final HtmlFilter.Engine engine) {
+		var htmlFilter = new HtmlFilter(engine, "p");
+		var plainText = "Tom \"Jerry\" 👍 öäü > 3";
+
+		assertAll(
+				() -> assertSame(plainText, htmlFilter.apply(plainText, null)),
+				() -> assertSame(plainText, htmlFilter.skippingCleanInput(10).apply(plainText, null)),
+				() -> assertEquals("Tom\n\tJerry", htmlFilter.apply("\tTom\n\tJerry\n", null)),
+				() -> assertTrue(HtmlFilter.isPlainText(plainText)),
+				() -> assertFalse(HtmlFilter.isPlainText("Tom & Jerry")),
+				() -> assertFalse(HtmlFilter.isPlainText("Tom <3 Jerry")),
+				() -> assertFalse(HtmlFilter.isPlainText("Tom\rJerry")),
+				() -> assertFalse(HtmlFilter.isPlainText("Tom \ud83d")),
+				() -> assertFalse(HtmlFilter.isPlainText("Tom \uffff"))
+		);
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+/**
+ * @author Michael J. Simons, 2018-07-31
+ */
+@DisplayName("IncrementalTextileFilter")
+class IncrementalTextileFilterTest {
+
+	private static final String DOCUMENT = ""
+			+ "h1. Titel\n"
+			+ "\n"
+			+ "Ein Absatz mit *fettem* Text\n"
+			+ "über zwei Zeilen.\n"
+			+ "\n"
+			+ "\n"
+			+ "* eins\n"
+			+ "* zwei\n"
+			+ "\n"
+			+ "# drei\n"
+			+ "# vier\n"
+			+ "\n"
+			+ "bc.. code\n"
+			+ "\n"
+			+ "noch mehr code\n"
+			+ "\n"
+			+ "p. Danach ein \"Link\":alias und eine Fussnote[1].\n"
+			+ "\n"
+			+ "h1. Titel\n"
+			+ "\n"
+			+ "|a|b|\n"
+			+ "|c|d|\n"
+			+ "\n"
+			+ "[alias]http://planet-punk.de\n"
+			+ "\n"
+			+ "fn1. Die Fussnote\n";
+
+	private final TextileFilter textileFilter = new TextileFilter();
+
+	@Test
+	@DisplayName("should handle null and empty input")
+	public void shouldHandleNullAndEmptyInput() {
+		var incrementalFilter = IncrementalTextileFilter.builder().build();
+
+		assertAll(
+				() -> assertNull(incrementalFilter.apply(null, null)),
+				() -> assertEquals("", incrementalFilter.apply("", null)),
+				() -> assertEquals(" ", incrementalFilter.apply(" ", null)),
+				() -> assertEquals(" \n\n ", incrementalFilter.apply(" \n\n ", null))
+		);
+	}
+
+	@TestFactory
+	@DisplayName("should render the same as the whole document")
+	public Stream<DynamicTest> shouldRenderTheSame() {
+		var incrementalFilter = IncrementalTextileFilter.builder().textileFilter(textileFilter).build();
+		return Stream.of(
+				DOCUMENT,
+				DOCUMENT.replace("\n", "\r\n"),
+				"  \n\nvorher\n\n\n@das ist code@\n\n \t",
+				"h1. Titel\n\n[1] Fussnote",
+				"\"link\":alias\n\n[alias]http://planet-punk.de",
+				"bq.. Zitat[1]\n\nimmer noch Zitat\n\nh2. Titel\n\nfn1. Fussnote",
+				"<pre>\neins\n\nzwei\n</pre>\n\ndrei",
+				"{toc}\n\nh1. Eins\n\nh2. Zwei"
+		).map(in -> dynamicTest(in, () -> {
+			assertEquals(textileFilter.apply(in, null), incrementalFilter.apply(in, null));
+			assertEquals(textileFilter.apply(in, null), incrementalFilter.apply(in, null));
+		}));
+	}
+
+	@Test
+	@DisplayName("should render only changed blocks")
+	public void shouldRenderOnlyChangedBlocks() {
+		var incrementalFilter = IncrementalTextileFilter.builder().build();
+
+		assertEquals(textileFilter.apply(DOCUMENT, null), incrementalFilter.apply(DOCUMENT, null));
+		var missCount = incrementalFilter.getStatistics().getMissCount();
+
+		var edited = DOCUMENT.replace("über zwei Zeilen.", "über zwei _geänderte_ Zeilen.");
+		assertEquals(textileFilter.apply(edited, null), incrementalFilter.apply(edited, null));
+		assertEquals(missCount + 1, incrementalFilter.getStatistics().getMissCount());
+
+		var renamed = DOCUMENT.replace("[alias]http://planet-punk.de", "[alias]http://dailyfratze.de");
+		assertEquals(textileFilter.apply(renamed, null), incrementalFilter.apply(renamed, null));
+
+		var retitled = DOCUMENT.replaceFirst("h1. Titel", "h1. Anderer Titel");
+		assertEquals(textileFilter.apply(retitled, null), incrementalFilter.apply(retitled, null));
+	}
+
+	@Test
+	@DisplayName("should render only the headings after an edited heading")
+	public void shouldRenderOnlyHeadingsAfterEditedHeading() {
+		var incrementalFilter = IncrementalTextileFilter.builder().build();
+		var document = IntStream.range(0, 100)
+				.mapToObj(i -> "h2. Kapitel " + i + "\n\nEin Absatz mit *fettem* Text in Kapitel " + i + ".\n\n")
+				.collect(Collectors.joining());
+
+		assertEquals(textileFilter.apply(document, null), incrementalFilter.apply(document, null));
+		var missCount = incrementalFilter.getStatistics().getMissCount();
+
+		var edited = document.replaceFirst("Kapitel 0", "Einleitung");
+		assertEquals(textileFilter.apply(edited, null), incrementalFilter.apply(edited, null));
+		// The edited heading and the headings after it, but none of the paragraphs
+		assertEquals(missCount + 100, incrementalFilter.getStatistics().getMissCount());
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import static org.jooq.lambda.tuple.Tuple.tuple;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+/**
+ * @author Michael J. Simons, 2018-08-03
+ */
+@DisplayName("ParallelTextileFilter")
+class ParallelTextileFilterTest {
+
+	private static final String CHAPTER = ""
+			+ "h1. Kapitel\n"
+			+ "\n"
+			+ "Ein Absatz mit *fettem* Text\n"
+			+ "über zwei Zeilen.\n"
+			+ "\n"
+			+ "* eins\n"
+			+ "* zwei\n"
+			+ "\n"
+			+ "bc.. code\n"
+			+ "\n"
+			+ "noch mehr code\n"
+			+ "\n"
+			+ "p. Danach ein \"Link\":alias und eine Fussnote[1].\n"
+			+ "\n"
+			+ "|a|b|\n"
+			+ "|c|d|\n"
+			+ "\n"
+			+ "fn1. Die Fussnote\n"
+			+ "\n";
+
+	private static final String DOCUMENT = String.join("", Collections.nCopies(400, CHAPTER)) + "[alias]http://planet-punk.de\n";
+
+	private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+	private final TextileFilter textileFilter = new TextileFilter();
+
+	@AfterAll
+	public static void shutdownPool() {
+		POOL.shutdown();
+	}
+
+	@Test
+	@DisplayName("should handle null and empty input")
+	public void shouldHandleNullAndEmptyInput() {
+		var parallelFilter = ParallelTextileFilter.builder().build();
+
+		assertAll(
+				() -> assertNull(parallelFilter.apply(null, null)),
+				() -> assertEquals("", parallelFilter.apply("", null)),
+				() -> assertEquals(" ", parallelFilter.apply(" ", null)),
+				() -> assertEquals(" \n\n ", parallelFilter.apply(" \n\n ", null))
+		);
+	}
+
+	@TestFactory
+	@DisplayName("should render the same as a sequential render")
+	public Stream<DynamicTest> shouldRenderTheSame() {
+		var parallelFilter = ParallelTextileFilter.builder().textileFilter(textileFilter).pool(POOL).build();
+		return Stream.of(
+				tuple("large document", DOCUMENT),
+				tuple("large document with windows line breaks", DOCUMENT.replace("\n", "\r\n")),
+				tuple("large document with a table of contents", "{toc}\n\n" + DOCUMENT),
+				tuple("small document", CHAPTER + "[alias]http://planet-punk.de")
+		).map(t -> dynamicTest(t.v1, () -> assertEquals(textileFilter.apply(t.v2, null), parallelFilter.apply(t.v2, null))));
+	}
+
+	@Test
+	@DisplayName("should render large documents in chunks")
+	public void shouldRenderInChunks() {
+		var parallelFilter = ParallelTextileFilter.builder().textileFilter(textileFilter).pool(POOL).build();
+
+		parallelFilter.apply(CHAPTER, null);
+		assertEquals(0, parallelFilter.getChunkedCount());
+		parallelFilter.apply(DOCUMENT, null);
+		assertEquals(1, parallelFilter.getChunkedCount());
+		parallelFilter.apply(DOCUMENT.replace("\n", "\r\n"), null);
+		assertEquals(2, parallelFilter.getChunkedCount());
+		// A table of contents needs the whole document
+		parallelFilter.apply("{toc}\n\n" + DOCUMENT, null);
+		assertEquals(2, parallelFilter.getChunkedCount());
+	}
+}
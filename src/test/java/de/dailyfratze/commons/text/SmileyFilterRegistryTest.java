@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+/**
+ * @author Michael J. Simons, 2018-07-29
+ */
+@DisplayName("SmileyFilterRegistry")
+class SmileyFilterRegistryTest {
+
+	private final SmileyFilterRegistry registry = SmileyFilterRegistry.builder()
+			.add("standard2.0", this.getClass().getResourceAsStream("/smilies/standard2.0.pak"))
+			.add("length", this.getClass().getResourceAsStream("/smilies/length.pak"))
+			.add("buildPatternTest", this.getClass().getResourceAsStream("/smilies/buildPatternTest.pak"))
+			.build();
+
+	@TestFactory
+	@DisplayName("should find the same codes as a filter for one pack")
+	public Stream<DynamicTest> shouldBehaveLikeOneFilterPerPack() {
+		var in = " :):}-):}.:) :d :p :-p q: :darthvader: :darthvader:so ist das  :D }:-> \\M/ \":} (:})";
+		return this.registry.getSmileyPacks().stream().map(smileyPack -> dynamicTest(smileyPack, () -> {
+			var smileyFilter = new SmileyFilter(smileyPack, this.getClass().getResourceAsStream("/smilies/" + smileyPack + ".pak"));
+			assertAll(
+					() -> assertEquals(smileyFilter.apply(in, null), this.registry.apply(in, null, smileyPack)),
+					() -> assertEquals(smileyFilter.apply(in, null), this.registry.get(smileyPack).apply(in, null))
+			);
+		}));
+	}
+
+	@Test
+	@DisplayName("should know its packs")
+	public void shouldKnowItsPacks() {
+		assertAll(
+				() -> assertEquals(Set.of("standard2.0", "length", "buildPatternTest"), this.registry.getSmileyPacks()),
+				() -> assertThrows(IllegalArgumentException.class, () -> this.registry.apply(":)", null, "unknown")),
+				() -> assertThrows(IllegalArgumentException.class, () -> SmileyFilterRegistry.builder()
+						.add("length", this.getClass().getResourceAsStream("/smilies/length.pak"))
+						.add("length", this.getClass().getResourceAsStream("/smilies/length.pak")))
+		);
+	}
+}
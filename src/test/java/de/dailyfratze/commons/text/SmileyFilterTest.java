@@ -19,9 +19,20 @@ import static org.jooq.lambda.tuple.Tuple.tuple;
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.DynamicTest.dynamicTest;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.stream.Stream;
 
@@ -29,6 +40,8 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.DynamicTest;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestFactory;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 
 /**
  * @author Michael J. Simons, 2014-12-25
@@ -65,13 +78,18 @@ class SmileyFilterTest {
 	@TestFactory
 	@DisplayName("should handle valid input")
 	public Stream<DynamicTest> generateSmiliesShouldWork() {
-		final SmileyFilter smileyFilter = new SmileyFilter("standard2.0", this.getClass().getResourceAsStream("/smilies/standard2.0.pak"));
+		return Stream.of(SmileyFilter.Engine.values()).flatMap(engine -> generateSmiliesShouldWork(engine));
+	}
+
+	private Stream<DynamicTest> generateSmiliesShouldWork(final SmileyFilter.Engine engine) {
+		final SmileyFilter smileyFilter = new SmileyFilter("standard2.0", this.getClass().getResourceAsStream("/smilies/standard2.0.pak"), engine);
 
 		var smiley1 = "<img class=\"dfs\" src=\"/images/smilies/standard2.0/smiley.gif\" alt=\"smiley.gif\" title=\":)\" />";
 		var smiley2 = "<img class=\"dfs\" src=\"/images/smilies/standard2.0/evil.gif\" alt=\"evil.gif\" title=\"}:-&gt;\" />";
 		var smiley3 = "<img class=\"dfs\" src=\"/images/smilies/standard2.0/grin.gif\" alt=\"grin.gif\" title=\":D\" />";
 		var smiley4 = "<img class=\"dfs\" src=\"/images/smilies/standard2.0/darthvader.gif\" alt=\"darthvader.gif\" title=\":darthvader:\" />";
 		var smiley5 = "<img class=\"dfs\" src=\"/images/smilies/standard2.0/grin.gif\" alt=\"grin.gif\" title=\":d\" />";
+		var smiley6 = "<img class=\"dfs\" src=\"/images/smilies/standard2.0/headbanging.gif\" alt=\"headbanging.gif\" title=\"\\M/\" />";
 
 		var pt1 = Stream.of(
 				tuple("das ist ein test", "das ist ein test"),
@@ -81,9 +99,10 @@ class SmileyFilterTest {
 				tuple(" :)das ist kein smiley", " :)das ist kein smiley"),
 				tuple(" :):):}:->:::).:)\n:)\nasd", " " + smiley1 + smiley1 + ":" + smiley2 + "::" + smiley1 + "." + smiley1 + "\n" + smiley1 + "\nasd"),
 				tuple(" :d :darthvader: :darthvader:so ist das  :D", " " + smiley5 + " " + smiley4 + " :darthvader:so ist das  " + smiley3),
+				tuple("$1 \\M/", "$1 " + smiley6),
 				tuple("In diesem Text ist http://NichtsLustig.de aber sowas von nicht", "In diesem Text ist http://NichtsLustig.de aber sowas von nicht")
 
-		).map(t -> dynamicTest(t.v1, () -> assertEquals(t.v2, smileyFilter.apply(t.v1, null))));
+		).map(t -> dynamicTest(engine + ": " + t.v1, () -> assertEquals(t.v2, smileyFilter.apply(t.v1, null))));
 
 		var hlp = "Tweet 1 https://twitter.com/Astro_Alex/status/512976828924190720 und nun soetwas Assert.assertEquals(in, smileyFilter.generateSmilies(in, null)); \n"
 				+ "\n"
@@ -94,14 +113,15 @@ class SmileyFilterTest {
 				+ "aber warum?\n"
 				+ "* blah\n"
 				+ "* blub";
-		var pt2 = Stream.of(dynamicTest("Langer Text", () -> assertEquals(hlp, smileyFilter.apply(hlp, "http://localhost:8080"))));
+		var pt2 = Stream.of(dynamicTest(engine + ": Langer Text", () -> assertEquals(hlp, smileyFilter.apply(hlp, "http://localhost:8080"))));
 		return Stream.concat(pt1, pt2);
 	}
 
-	@Test
+	@ParameterizedTest
+	@EnumSource(SmileyFilter.Engine.class)
 	@DisplayName("should handle valid input")
-	public void generateSmiliesShouldWork2() {
-		var smileyService = new SmileyFilter("length", this.getClass().getResourceAsStream("/smilies/length.pak"));
+	public void generateSmiliesShouldWork2(final SmileyFilter.Engine engine) {
+		var smileyService = new SmileyFilter("length", this.getClass().getResourceAsStream("/smilies/length.pak"), engine);
 
 		var in = ":}-):}";
 		var s1 = "<img class=\"dfs\" src=\"/images/smilies/length/blub.gif\" alt=\"blub.gif\" title=\":}-)\" />";
@@ -109,4 +129,151 @@ class SmileyFilterTest {
 
 		assertEquals(s1 + s2, smileyService.apply(in, null));
 	}
-}
\ No newline at end of file
+
+	@ParameterizedTest
+	@EnumSource(SmileyFilter.Engine.class)
+	@DisplayName("should stream the same output")
+	public void shouldStreamTheSameOutput(final SmileyFilter.Engine engine) throws IOException {
+		var smileyFilter = new SmileyFilter("standard2.0", this.getClass().getResourceAsStream("/smilies/standard2.0.pak"), engine);
+
+		var longLine = String.join(" ", Collections.nCopies(450, ":) :d :darthvader:so"));
+		var manyLines = String.join("\r\n", Collections.nCopies(1_000, "a :-) b\n\nc :p"));
+		for (var in : List.of("", " ", "das ist ein test", " :):).:)\n:)\nasd", longLine, manyLines, manyLines + "\n", longLine + "\n" + manyLines)) {
+			var out = new StringWriter();
+			smileyFilter.apply(new StringReader(in), out, null);
+			assertEquals(smileyFilter.apply(in, null), out.toString());
+		}
+	}
+
+	@ParameterizedTest
+	@EnumSource(SmileyFilter.Engine.class)
+	@DisplayName("should prefer the longest code with a valid boundary")
+	public void shouldPreferLongestCodeWithValidBoundary(final SmileyFilter.Engine engine) {
+		var smileyService = new SmileyFilter("length", this.getClass().getResourceAsStream("/smilies/length.pak"), engine);
+
+		var s2 = "<img class=\"dfs\" src=\"/images/smilies/length/blah.gif\" alt=\"blah.gif\" title=\":}\" />";
+
+		assertAll(
+				() -> assertEquals(s2 + "-)a", smileyService.apply(":}-)a", null)),
+				() -> assertEquals("\":}", smileyService.apply("\":}", null)),
+				() -> assertEquals("(" + s2 + ")", smileyService.apply("(:})", null))
+		);
+	}
+
+	/**
+	 * Overwrites an int of a compiled pack, the last int is the output link of the last state of the automaton.
+	 */
+	private static ByteBuffer corrupt(final byte[] compiledPack, final int index, final int value) {
+		return ByteBuffer.wrap(compiledPack).putInt(index, value);
+	}
+
+	@Test
+	@DisplayName("should load compiled packs")
+	public void shouldLoadCompiledPacks() throws IOException {
+		var smileyFilter = new SmileyFilter("standard2.0", this.getClass().getResourceAsStream("/smilies/standard2.0.pak"));
+		var compiledPack = new ByteArrayOutputStream();
+		SmileyFilter.compile(this.getClass().getResourceAsStream("/smilies/standard2.0.pak"), compiledPack);
+
+		var file = Files.createTempFile("standard2.0", SmileyPackCompiler.EXTENSION);
+		try {
+			Files.write(file, compiledPack.toByteArray());
+			var in = " :):).:) :d :darthvader: :darthvader:so ist das  :D }:-> \\M/";
+			assertAll(
+					() -> assertEquals(smileyFilter.apply(in, null), SmileyFilter.fromCompiledPack("standard2.0", ByteBuffer.wrap(compiledPack.toByteArray())).apply(in, null)),
+					() -> assertEquals(smileyFilter.apply(in, null), SmileyFilter.fromCompiledPack("standard2.0", file).apply(in, null)),
+					() -> assertEquals(smileyFilter.apply(in, null), SmileyFilter.fromCompiledPack("standard2.0", new ByteArrayInputStream(compiledPack.toByteArray())).apply(in, null)),
+					() -> assertThrows(IllegalArgumentException.class, () -> SmileyFilter.fromCompiledPack("standard2.0", ByteBuffer.wrap(compiledPack.toByteArray(), 0, 42))),
+					() -> assertThrows(IllegalArgumentException.class, () -> SmileyFilter.fromCompiledPack("standard2.0", corrupt(compiledPack.toByteArray(), 8, Integer.MAX_VALUE))),
+					() -> assertThrows(IllegalArgumentException.class, () -> SmileyFilter.fromCompiledPack("standard2.0", corrupt(compiledPack.toByteArray(), compiledPack.size() - 4, 4711))),
+					() -> assertThrows(IllegalArgumentException.class, () -> SmileyFilter.fromCompiledPack("standard2.0", this.getClass().getResourceAsStream("/smilies/standard2.0.pak")))
+			);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@ParameterizedTest
+	@EnumSource(SmileyFilter.Engine.class)
+	@DisplayName("should reload packs")
+	public void shouldReloadPacks(final SmileyFilter.Engine engine) throws IOException {
+		var smileyFilter = new SmileyFilter("reload", new ByteArrayInputStream("a.gif=+::)".getBytes(StandardCharsets.UTF_8)), engine);
+		var in = ":) :(";
+		var a = "<img class=\"dfs\" src=\"/images/smilies/reload/a.gif\" alt=\"a.gif\" title=\":)\" />";
+		var b = "<img class=\"dfs\" src=\"/images/smilies/reload/b.gif\" alt=\"b.gif\" title=\":(\" />";
+		assertEquals(a + " :(", smileyFilter.apply(in, null));
+
+		smileyFilter.reload(new ByteArrayInputStream("b.gif=+::(".getBytes(StandardCharsets.UTF_8)));
+		assertEquals(":) " + b, smileyFilter.apply(in, null));
+
+		var file = Files.createTempFile("reload", SmileyPackCompiler.EXTENSION);
+		try (var out = Files.newOutputStream(file)) {
+			SmileyFilter.compile(new ByteArrayInputStream("a.gif=+::)".getBytes(StandardCharsets.UTF_8)), out);
+		}
+		try {
+			smileyFilter.reload(file);
+			assertEquals(a + " :(", smileyFilter.apply(in, null));
+
+			Files.write(file, new byte[]{1, 2, 3});
+			assertThrows(IllegalArgumentException.class, () -> smileyFilter.reload(file));
+			assertEquals(a + " :(", smileyFilter.apply(in, null));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static byte[] compiledPack(final String content) throws IOException {
+		var compiledPack = new ByteArrayOutputStream();
+		SmileyFilter.compile(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), compiledPack);
+		return compiledPack.toByteArray();
+	}
+
+	private static void awaitOutput(final SmileyFilter smileyFilter, final String in, final String expected) throws InterruptedException {
+		for (int i = 0; i < 100 && !expected.equals(smileyFilter.apply(in, null)); ++i) {
+			Thread.sleep(100);
+		}
+		assertEquals(expected, smileyFilter.apply(in, null));
+	}
+
+	@Test
+	@DisplayName("should watch packs")
+	public void shouldWatchPacks() throws IOException, InterruptedException {
+		var smileyFilter = new SmileyFilter("watch", new ByteArrayInputStream("a.gif=+::)".getBytes(StandardCharsets.UTF_8)));
+		var in = ":) :( ;)";
+		var a = "<img class=\"dfs\" src=\"/images/smilies/watch/a.gif\" alt=\"a.gif\" title=\":)\" />";
+		var b = "<img class=\"dfs\" src=\"/images/smilies/watch/b.gif\" alt=\"b.gif\" title=\":(\" />";
+		var c = "<img class=\"dfs\" src=\"/images/smilies/watch/c.gif\" alt=\"c.gif\" title=\";)\" />";
+
+		assertEquals(a + " :( ;)", smileyFilter.apply(in, null));
+
+		var directory = Files.createTempDirectory("watch");
+		var file = directory.resolve("watch" + SmileyPackCompiler.EXTENSION);
+		try (var watch = smileyFilter.watch(file)) {
+			Files.write(file, compiledPack("b.gif=+::("));
+			awaitOutput(smileyFilter, in, ":) " + b + " ;)");
+
+			Files.write(file, new byte[]{1, 2, 3});
+			assertEquals(":) " + b + " ;)", smileyFilter.apply(in, null));
+
+			// The watching goes on after a corrupt pack
+			Files.write(file, compiledPack("c.gif=+:;)"));
+			awaitOutput(smileyFilter, in, ":) :( " + c);
+		} finally {
+			Files.deleteIfExists(file);
+			Files.delete(directory);
+		}
+	}
+
+	@ParameterizedTest
+	@EnumSource(SmileyFilter.Engine.class)
+	@DisplayName("should return input without codes directly")
+	public void shouldReturnInputWithoutCodesDirectly(final SmileyFilter.Engine engine) {
+		var smileyFilter = new SmileyFilter("prescan", new ByteArrayInputStream("a.gif=+:xd".getBytes(StandardCharsets.UTF_8)), engine);
+		var in = "das ist ein test :) ;)";
+		var a = "<img class=\"dfs\" src=\"/images/smilies/prescan/a.gif\" alt=\"a.gif\" title=\"XD\" />";
+
+		assertAll(
+				() -> assertSame(in, smileyFilter.apply(in, null)),
+				() -> assertEquals("ha " + a, smileyFilter.apply("ha XD", null))
+		);
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Michael J. Simons, 2018-08-01
+ */
+@DisplayName("TextFilterMetrics")
+class TextFilterMetricsTest {
+
+	private final TextFilterMetrics metrics = new TextFilterMetrics();
+
+	@Test
+	@DisplayName("should record calls, sizes and failures")
+	public void shouldRecordCalls() throws IOException {
+		var doubling = ((TextFilter) (input, baseUrl) -> {
+			if ("fail".equals(input)) {
+				throw new IllegalArgumentException();
+			}
+			return input + input;
+		}).instrumented("double", metrics);
+
+		assertEquals("abab", doubling.apply("ab", null));
+		var out = new StringWriter();
+		doubling.apply(new StringReader("abc"), out, null);
+		assertEquals("abcabc", out.toString());
+		assertThrows(IllegalArgumentException.class, () -> doubling.apply("fail", null));
+
+		var statistics = metrics.getStatistics("double");
+		assertAll(
+				() -> assertEquals(Set.of("double"), metrics.getFilters()),
+				() -> assertEquals(2, statistics.getCount()),
+				() -> assertEquals(1, statistics.getFailureCount()),
+				() -> assertEquals(5, statistics.getInputLength()),
+				() -> assertEquals(10, statistics.getOutputLength()),
+				() -> assertTrue(statistics.getLatency(50, TimeUnit.NANOSECONDS) <= statistics.getMaxLatency(TimeUnit.NANOSECONDS)),
+				() -> assertEquals(0, metrics.getStatistics("unknown").getCount())
+		);
+	}
+
+	@Test
+	@DisplayName("should count smilies and measure stages of pipelines")
+	public void shouldCountSmilies() {
+		var smileyFilter = new SmileyFilter("standard2.0", this.getClass().getResourceAsStream("/smilies/standard2.0.pak"));
+		smileyFilter.setListener(metrics);
+		var pipeline = TextFilter.pipeline()
+				.then(TextFilter.AUTO_BR.instrumented("autobr", metrics))
+				.then(smileyFilter.instrumented("smilies", metrics))
+				.build();
+
+		pipeline.apply("Hallo :)\n:) :D", null);
+		smileyFilter.apply("keine smilies", null);
+
+		assertAll(
+				() -> assertEquals(3, metrics.getSmileyMatches("standard2.0")),
+				() -> assertEquals(Set.of("standard2.0"), metrics.getSmileyPacks()),
+				() -> assertEquals(1, metrics.getStatistics("autobr").getCount()),
+				() -> assertEquals(1, metrics.getStatistics("smilies").getCount())
+		);
+	}
+
+	@Test
+	@DisplayName("should not record when disabled")
+	public void shouldNotRecordWhenDisabled() {
+		var filter = TextFilter.AUTO_BR.instrumented("autobr", metrics);
+		metrics.setEnabled(false);
+		assertEquals("a<br />b", filter.apply("a\nb", null));
+		metrics.setEnabled(true);
+		assertEquals("a<br />b", filter.apply("a\nb", null));
+
+		assertEquals(1, metrics.getStatistics("autobr").getCount());
+	}
+
+	@Test
+	@DisplayName("should compute latency percentiles")
+	public void shouldComputePercentiles() {
+		var filter = "filter";
+		for (int i = 1; i <= 1000; ++i) {
+			metrics.filtered(filter, 0, 0, TimeUnit.MICROSECONDS.toNanos(i));
+		}
+
+		var statistics = metrics.getStatistics(filter);
+		assertAll(
+				() -> assertEquals(500, statistics.getLatency(50, TimeUnit.MICROSECONDS), 500 / 16.0),
+				() -> assertEquals(990, statistics.getLatency(99, TimeUnit.MICROSECONDS), 990 / 16.0),
+				() -> assertEquals(1000, statistics.getLatency(100, TimeUnit.MICROSECONDS)),
+				() -> assertEquals(1000, statistics.getMaxLatency(TimeUnit.MICROSECONDS)),
+				() -> assertThrows(IllegalArgumentException.class, () -> statistics.getLatency(101, TimeUnit.MICROSECONDS))
+		);
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016-2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dailyfratze.commons.text;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+import java.util.Collections;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+/**
+ * @author Michael J. Simons, 2018-07-23
+ */
+@DisplayName("TextFilterPipeline")
+class TextFilterPipelineTest {
+
+	private final HtmlFilter htmlFilter = new HtmlFilter("a", "p", "strong");
+
+	private final SmileyFilter smileyFilter = new SmileyFilter("standard2.0", this.getClass().getResourceAsStream("/smilies/standard2.0.pak"));
+
+	@Test
+	@DisplayName("should handle null and empty input")
+	public void shouldHandleNullAndEmptyInput() {
+		var pipeline = TextFilter.pipeline()
+				.then(htmlFilter)
+				.then((input, baseUrl) -> "never called")
+				.build();
+
+		assertAll(
+				() -> assertNull(pipeline.apply(null, null)),
+				() -> assertEquals("", pipeline.apply("", null)),
+				() -> assertEquals(" ", pipeline.apply(" ", null)),
+				() -> assertEquals("	", pipeline.apply("	", null))
+		);
+	}
+
+	@TestFactory
+	@DisplayName("should apply filters in the same way as calling them one after another")
+	public Stream<DynamicTest> shouldBehaveLikeChainedCalls() {
+		var pipeline = TextFilter.pipeline()
+				.then(htmlFilter)
+				.then(smileyFilter)
+				.then(TextFilter.AUTO_BR)
+				.then(smileyFilter)
+				.build();
+
+		return Stream.of(
+				"Das ist ein Test",
+				"<strong>:)</strong> <xx>:D</xx>\n<p>}:-></p>\r\nblah",
+				"<xx> </xx>",
+				"<a href=\"http://simons.ac\">:)</a>\n:-( \n\n :darthvader:"
+		).map(in -> dynamicTest(in, () -> {
+			var expected = smileyFilter.apply(TextFilter.AUTO_BR.apply(smileyFilter.apply(htmlFilter.apply(in, null), null), null), null);
+			assertEquals(expected, pipeline.apply(in, null));
+		}));
+	}
+
+	@Test
+	@DisplayName("should pass intermediate results to other filters")
+	public void shouldSupportArbitraryFilters() {
+		var pipeline = TextFilter.pipeline()
+				.then((input, baseUrl) -> input.toUpperCase())
+				.then(smileyFilter)
+				.then(TextFilter.AUTO_BR)
+				.then(smileyFilter)
+				.then((input, baseUrl) -> input + baseUrl)
+				.build();
+
+		assertEquals(
+				"<img class=\"dfs\" src=\"/images/smilies/standard2.0/grin.gif\" alt=\"grin.gif\" title=\":D\" /><br />"
+						+ "<img class=\"dfs\" src=\"/images/smilies/standard2.0/tongue.gif\" alt=\"tongue.gif\" title=\":P\" />!",
+				pipeline.apply(":d\n:p", "!")
+		);
+	}
+
+	@Test
+	@DisplayName("should splice tags into the input instead of copying it")
+	public void shouldSpliceTags() {
+		var pipeline = TextFilter.pipeline()
+				.then(smileyFilter)
+				.then(TextFilter.AUTO_BR)
+				.then(smileyFilter)
+				.build();
+
+		var longPost = String.join(" ", Collections.nCopies(10_000, "Das ist ein langer Beitrag")) + " :)\r\n:D\n";
+		var splicedText = ((TextFilterStage) TextFilter.AUTO_BR).applyStage(longPost, null, new StringBuilder());
+		assertAll(
+				() -> assertTrue(splicedText instanceof SplicedText),
+				() -> assertEquals(TextFilter.AUTO_BR.apply(longPost, null), splicedText.toString()),
+				() -> assertEquals(smileyFilter.apply(TextFilter.AUTO_BR.apply(smileyFilter.apply(longPost, null), null), null), pipeline.apply(longPost, null))
+		);
+	}
+}
@@ -17,11 +17,23 @@ package de.dailyfratze.commons.text;
 
 import static org.jooq.lambda.tuple.Tuple.tuple;
 import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.DynamicTest.dynamicTest;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.DisplayName;
@@ -58,8 +70,85 @@ class TextFilterTest {
 			return Stream.of(
 					tuple("Das ist ein Test", "Das ist ein Test"),
 					tuple("Das ist\n ein Test", "Das ist<br /> ein Test"),
-					tuple("Das ist auch:\r\n\n\r\nJa!", "Das ist auch:<br /><br /><br />Ja!")
-			).map(t -> dynamicTest(t.v1, () -> assertEquals(t.v2, TextFilter.AUTO_BR.apply(t.v1, null))));
+					tuple("Das ist auch:\r\n\n\r\nJa!", "Das ist auch:<br /><br /><br />Ja!"),
+					tuple("\r\rDas\r ist\r\r\n", "\r\rDas\r ist\r<br />"),
+					tuple("\nDas ist ein Test\n", "<br />Das ist ein Test<br />")
+			).map(t -> dynamicTest(t.v1, () -> {
+				var out = new StringWriter();
+				TextFilter.AUTO_BR.apply(new StringReader(t.v1), out, null);
+				assertAll(
+						() -> assertEquals(t.v2, TextFilter.AUTO_BR.apply(t.v1, null)),
+						() -> assertEquals(t.v2, TextFilter.pipeline().then(TextFilter.AUTO_BR).build().apply(t.v1, null)),
+						() -> assertEquals(t.v2, out.toString())
+				);
+			}));
+		}
+	}
+
+	@Test
+	@DisplayName("should read and write streams")
+	public void shouldReadAndWriteStreams() throws IOException {
+		TextFilter textFilter = (input, baseUrl) -> input.toUpperCase() + baseUrl;
+
+		var out = new StringWriter();
+		textFilter.apply(new StringReader("Das ist ein Test"), out, "!");
+		assertEquals("DAS IST EIN TEST!", out.toString());
+	}
+
+	@Test
+	@DisplayName("should write utf-8")
+	public void shouldWriteUtf8() throws IOException {
+		for (var in : List.of("ä\n👍", "\uD83D\nohne Paar")) {
+			var out = new ByteArrayOutputStream();
+			TextFilter.AUTO_BR.applyUtf8(in, out, null);
+			assertArrayEquals(TextFilter.AUTO_BR.apply(in, null).getBytes(StandardCharsets.UTF_8), out.toByteArray());
+		}
+	}
+
+	@Test
+	@DisplayName("should filter batches in order")
+	public void shouldFilterBatchesInOrder() {
+		TextFilter textFilter = TextFilter.pipeline().then((input, baseUrl) -> input.toUpperCase() + baseUrl).then(TextFilter.AUTO_BR).build();
+		var inputs = IntStream.range(0, 1000).mapToObj(i -> i % 100 == 0 ? null : "Zeile\n" + i).collect(Collectors.toList());
+		var expected = inputs.stream().map(input -> textFilter.apply(input, "!")).collect(Collectors.toList());
+
+		var executor = Executors.newFixedThreadPool(3);
+		try {
+			assertAll(
+					() -> assertEquals(expected, textFilter.applyAll(inputs, "!")),
+					() -> assertEquals(expected, textFilter.applyAll(inputs, "!", executor)),
+					() -> assertEquals(List.of(), textFilter.applyAll(List.of(), "!"))
+			);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	@DisplayName("should filter asynchronously")
+	public void shouldFilterAsynchronously() {
+		TextFilter textFilter = (input, baseUrl) -> {
+			if (input == null) {
+				throw new IllegalArgumentException();
+			}
+			return input.toUpperCase() + baseUrl;
+		};
+
+		var executor = Executors.newFixedThreadPool(3);
+		try {
+			assertAll(
+					() -> assertEquals("DAS IST EIN TEST!", textFilter.applyAsync("Das ist ein Test", "!").toCompletableFuture().join()),
+					() -> assertEquals("DAS IST EIN TEST!", textFilter.applyAsync("Das ist ein Test", "!", executor).toCompletableFuture().join()),
+					() -> assertThrows(IllegalArgumentException.class, () -> {
+						try {
+							textFilter.applyAsync(null, "!", executor).toCompletableFuture().join();
+						} catch (CompletionException e) {
+							throw e.getCause();
+						}
+					})
+			);
+		} finally {
+			executor.shutdown();
 		}
 	}
 }
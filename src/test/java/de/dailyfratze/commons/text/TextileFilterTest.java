@@ -17,10 +17,21 @@ package de.dailyfratze.commons.text;
 
 import static org.jooq.lambda.tuple.Tuple.tuple;
 import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.DynamicTest.dynamicTest;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.stream.Stream;
 
@@ -46,6 +57,93 @@ class TextileFilterTest {
 		);
 	}
 
+	@Test
+	@DisplayName("should stream the same output")
+	public void shouldStreamTheSameOutput() throws IOException {
+		var textileFilter = new TextileFilter();
+
+		for (var in : List.of("", " \n ", "@das ist code@", " * das ist ein stern, nicht?", "vorher *👍 👏* _nachher_ \"👍\":http://planet-punk.de")) {
+			var out = new StringWriter();
+			textileFilter.apply(new StringReader(in), out, null);
+			assertEquals(textileFilter.apply(in, null), out.toString());
+		}
+	}
+
+	@Test
+	@DisplayName("should write the same output as utf-8")
+	public void shouldWriteTheSameOutputAsUtf8() throws IOException {
+		var textileFilter = new TextileFilter();
+
+		for (var in : List.of("", " \n ", "@das ist code@", "öäü & <ÖÄÜ>", "vorher *👍 👏* _nachher_ \"👍\":http://planet-punk.de", String.join("\n\n", Collections.nCopies(1000, "h1. 👍 öäü")))) {
+			var out = new ByteArrayOutputStream();
+			textileFilter.applyUtf8(in, out, null);
+			assertArrayEquals(textileFilter.apply(in, null).getBytes(StandardCharsets.UTF_8), out.toByteArray());
+		}
+
+		var out = new ByteArrayOutputStream();
+		textileFilter.applyUtf8(null, out, null);
+		assertEquals(0, out.size());
+	}
+
+	@Test
+	@DisplayName("should render the same with reused renderers")
+	public void shouldRenderTheSameWithReusedRenderers() {
+		var pooled = new TextileFilter(1);
+		var unpooled = new TextileFilter(0);
+
+		for (var in : List.of("h1. Titel\n\n[1] Fussnote", "@das ist code@", "\"link\":alias\n\n[alias]http://planet-punk.de", "h1. Titel\n\n* eins\n* zwei")) {
+			assertEquals(unpooled.apply(in, null), pooled.apply(in, null));
+			assertEquals(unpooled.apply(in, null), pooled.apply(in, null));
+		}
+		assertThrows(IllegalArgumentException.class, () -> new TextileFilter(-1));
+	}
+
+	@Test
+	@DisplayName("should render plain paragraphs directly")
+	public void shouldRenderPlainParagraphsDirectly() throws IOException {
+		var textileFilter = new TextileFilter();
+		var in = "Hallo Welt, wie geht es dir? Gut!";
+
+		var out = new ByteArrayOutputStream();
+		textileFilter.applyUtf8(in, out, null);
+		assertAll(
+				() -> assertEquals("<p>Hallo Welt, wie geht es dir? Gut!</p>", textileFilter.apply(in, null)),
+				() -> assertEquals("<p>Hallo Welt, wie geht es dir? Gut!</p>", out.toString(StandardCharsets.UTF_8)),
+				() -> assertFalse(TextileFilter.isPlainParagraph("p. Absatz")),
+				() -> assertFalse(TextileFilter.isPlainParagraph("Nein.")),
+				() -> assertFalse(TextileFilter.isPlainParagraph("Zwei Zeilen\nText")),
+				() -> assertFalse(TextileFilter.isPlainParagraph("Das ist *fett*")),
+				() -> assertFalse(TextileFilter.isPlainParagraph("Tom's Test")),
+				() -> assertFalse(TextileFilter.isPlainParagraph("2 x 3")),
+				() -> assertFalse(TextileFilter.isPlainParagraph("Und dann...")),
+				() -> assertFalse(TextileFilter.isPlainParagraph("Wie bitte??")),
+				() -> assertFalse(TextileFilter.isPlainParagraph("Doppelte  Leerzeichen"))
+		);
+	}
+
+	@TestFactory
+	@DisplayName("should render plain paragraphs like the renderer")
+	public Stream<DynamicTest> shouldRenderPlainParagraphsLikeTheRenderer() {
+		var textileFilter = new TextileFilter();
+		return Stream.of(
+				"Hallo Welt, wie geht es dir? Gut!",
+				"Größe 42: passt",
+				"Erst das; dann dies.",
+				"Version 1.5 ist da! Wirklich?",
+				"Maße: 2 mal 3, Preis 5,50",
+				"a"
+		).map(in -> dynamicTest(in, () -> {
+			// The streaming api always uses the renderer
+			var out = new StringWriter();
+			textileFilter.apply(new StringReader(in), out, null);
+			assertAll(
+					() -> assertTrue(TextileFilter.isPlainParagraph(in)),
+					() -> assertEquals("<p>" + in + "</p>", out.toString()),
+					() -> assertEquals(out.toString(), textileFilter.apply(in, null))
+			);
+		}));
+	}
+
 	@TestFactory
 	@DisplayName("should handle valid input")
 	public Stream<DynamicTest> filteringShouldWork() {